@@ -62,6 +62,9 @@ public class RestartShutdownHook extends Thread {
 		for( String name : service.getParameters().getFlags() ) {
 			flags.put( name, service.getParameters().getValues( name ) );
 		}
+
+		// A handoff only applies to the restart that requested it.
+		flags.remove( ServiceFlag.HANDOFF );
 		for( String name : overrideParameters.getFlags() ) {
 			flags.put( name, overrideParameters.getValues( name ) );
 		}
@@ -114,6 +117,21 @@ public class RestartShutdownHook extends Thread {
 		return builder.toString();
 	}
 
+	/**
+	 * Start the new process now instead of when the program exits. This is used
+	 * for restarts where the new process takes over from the running one. The
+	 * new process shares the console of this process since nothing reads its
+	 * output, which would otherwise fill the pipe and block the process.
+	 */
+	public void launch() throws IOException {
+		builder.inheritIO();
+		builder.start();
+	}
+
+	List<String> getCommand() {
+		return new ArrayList<String>( builder.command() );
+	}
+
 	@Override
 	public void run() {
 		if( builder == null ) return;
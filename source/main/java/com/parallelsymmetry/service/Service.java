@@ -4,6 +4,7 @@ import com.parallelsymmetry.service.product.ProductManager;
 import com.parallelsymmetry.service.product.ProductUtil;
 import com.parallelsymmetry.service.product.ServiceModule;
 import com.parallelsymmetry.service.product.ServiceProduct;
+import com.parallelsymmetry.service.task.DownloadMetrics;
 import com.parallelsymmetry.utility.*;
 import com.parallelsymmetry.utility.agent.Agent;
 import com.parallelsymmetry.utility.agent.ServerAgent;
@@ -49,6 +50,8 @@ public abstract class Service extends Agent implements ServiceProduct {
 
 	private static final String PEER_LOGGER_NAME = "peer";
 
+	private static final int HANDOFF_TIMEOUT = 60000;
+
 	//public static final String LOCALE = "locale";
 
 	public static final String TEST_PREFIX = "$";
@@ -245,6 +248,14 @@ public abstract class Service extends Agent implements ServiceProduct {
 		return productManager;
 	}
 
+	/**
+	 * Get the measurements of the downloads made by the service, aggregated per
+	 * host and per resource category.
+	 */
+	public final DownloadMetrics getDownloadMetrics() {
+		return productManager.getDownloadMetrics();
+	}
+
 	public void printHelp() {
 		printHelp( "true" );
 	}
@@ -387,6 +398,25 @@ public abstract class Service extends Agent implements ServiceProduct {
 	 * @param commands
 	 */
 	public void serviceRestart( String... commands ) {
+		// Start the replacement now and hand off to it when it is ready.
+		if( isHandoffRestart() ) {
+			String[] handoffCommands = new String[ commands.length + 1 ];
+			System.arraycopy( commands, 0, handoffCommands, 0, commands.length );
+			handoffCommands[ commands.length ] = ServiceFlag.HANDOFF;
+
+			// The replacement loads the settings while this process is running.
+			productManager.flushSettings();
+			settings.flush();
+
+			try {
+				new RestartShutdownHook( this, handoffCommands ).launch();
+				Log.write( Log.INFO, "Restarting with handoff..." );
+				return;
+			} catch( IOException exception ) {
+				Log.write( Log.WARN, exception, "Could not start replacement process." );
+			}
+		}
+
 		// Register a shutdown hook to restart the application.
 		RestartShutdownHook restartShutdownHook = new RestartShutdownHook( this, commands );
 		Runtime.getRuntime().addShutdownHook( restartShutdownHook );
@@ -411,9 +441,14 @@ public abstract class Service extends Agent implements ServiceProduct {
 
 		Runtime.getRuntime().addShutdownHook( shutdownHook );
 
+		// A replacement process starts the peer server after the handoff.
+		boolean handoff = parameters.isTrue( ServiceFlag.HANDOFF );
+
 		// Start the peer server.
-		peerServer.startAndWait();
-		PerformanceCheck.writeTimeAfterStart( "Service.startAgent() peer server" );
+		if( !handoff ) {
+			peerServer.startAndWait();
+			PerformanceCheck.writeTimeAfterStart( "Service.startAgent() peer server" );
+		}
 
 		// Start the task manager.
 		taskManager.loadSettings( settings.getNode( ServiceSettingsPath.TASK_MANAGER_SETTINGS_PATH ) );
@@ -422,6 +457,13 @@ public abstract class Service extends Agent implements ServiceProduct {
 		// Start the product manager.
 		productManager.startAndWait();
 
+		// Take over from the process being replaced now that the modules are loaded.
+		if( handoff ) {
+			if( !requestHandoff( parameters ) ) abortHandoff();
+			peerServer.startAndWait();
+			PerformanceCheck.writeTimeAfterStart( "Service.startAgent() handoff" );
+		}
+
 		// Register the modules.
 		registerAllModules();
 
@@ -646,19 +688,27 @@ public abstract class Service extends Agent implements ServiceProduct {
 
 				configureOnce( parameters );
 
-				// Check for existing peer.
-				if( peerExists( parameters ) ) return;
+				// Check for existing peer. A replacement process takes over from the peer instead.
+				if( !parameters.isTrue( ServiceFlag.HANDOFF ) && peerExists( parameters ) ) return;
 				PerformanceCheck.writeTimeAfterStart( "Service.processParameters() no peer" );
 			}
 
 			// If the watch parameter is set then exit before doing anything else.
 			if( parameters.isTrue( ServiceFlag.WATCH ) ) return;
 
-			if( parameters.isTrue( ServiceFlag.STOP ) ) {
+			if( peer && parameters.isTrue( ServiceFlag.HANDOFF ) ) {
+				Log.write( "Handing off to replacement process." );
+				stopAndWait();
+				return;
+			} else if( parameters.isTrue( ServiceFlag.STOP ) ) {
 				stopAndWait();
 				return;
 			} else if( parameters.isTrue( ServiceFlag.RESTART ) ) {
-				restart();
+				if( isHandoffRestart() ) {
+					serviceRestart();
+				} else {
+					restart();
+				}
 				return;
 			} else if( parameters.isTrue( ServiceFlag.STATUS ) ) {
 				printStatus();
@@ -858,6 +908,80 @@ public abstract class Service extends Agent implements ServiceProduct {
 		}
 	}
 
+	/**
+	 * Check if restarts start the replacement process while this process is
+	 * still running. Staged updates need this process to exit before the
+	 * updater runs so restarts with staged updates do not hand off.
+	 */
+	private final boolean isHandoffRestart() {
+		if( !settings.getNode( ServiceSettingsPath.RESTART_SETTINGS_PATH ).getBoolean( "handoff", false ) ) return false;
+		return productManager.getStagedUpdateCount() == 0;
+	}
+
+	/**
+	 * Ask the running process to stop so this process can take over. The running
+	 * process stops its peer server, which releases the service port, and closes
+	 * the connection when it has stopped.
+	 *
+	 * @return True if this process can take over, either because the running
+	 *         process stopped or because there is no running process.
+	 */
+	private final boolean requestHandoff( Parameters parameters ) {
+		String host = parameters.get( "host", "localhost" );
+		int port = peerServer.getServicePortNumber();
+		if( port == 0 ) return true;
+
+		long start = System.currentTimeMillis();
+		int timeout = settings.getNode( ServiceSettingsPath.RESTART_SETTINGS_PATH ).getInt( "timeout", HANDOFF_TIMEOUT );
+		try( Socket handoff = new Socket( host, port ) ) {
+			handoff.setSoTimeout( timeout );
+
+			ObjectOutputStream output = new ObjectOutputStream( handoff.getOutputStream() );
+			output.writeObject( new String[]{ ServiceFlag.HANDOFF } );
+			output.flush();
+			Log.write( Log.TRACE, "Handoff requested from peer: ", host, ":", port );
+
+			// The peer log is not needed, just wait for the peer to close the connection.
+			InputStream input = handoff.getInputStream();
+			byte[] buffer = new byte[ 4096 ];
+			while( input.read( buffer ) >= 0 ) {
+				if( System.currentTimeMillis() - start > timeout ) throw new SocketTimeoutException( "Handoff timed out" );
+			}
+
+			Log.write( "Handoff complete in ", System.currentTimeMillis() - start, "ms." );
+			return true;
+		} catch( ConnectException exception ) {
+			Log.write( "Peer not found for handoff: " + host + ":" + port );
+			return true;
+		} catch( SocketTimeoutException exception ) {
+			Log.write( Log.WARN, "Peer did not stop in time for handoff: " + host + ":" + port );
+		} catch( IOException exception ) {
+			Log.write( Log.WARN, exception, "Could not hand off from peer." );
+		}
+		return false;
+	}
+
+	/**
+	 * Stop a replacement process that could not take over. The running process
+	 * may still be serving so the replacement must not start a second instance.
+	 */
+	private final void abortHandoff() throws Exception {
+		Log.write( Log.ERROR, getName() + " handoff failed, exiting." );
+
+		productManager.stopAndWait();
+		taskManager.stopAndWait();
+
+		try {
+			Runtime.getRuntime().removeShutdownHook( shutdownHook );
+		} catch( IllegalStateException exception ) {
+			// Intentionally ignore exception.
+		}
+
+		if( !TestUtil.isTest() ) new JvmSureStop().start();
+
+		throw new IOException( "Handoff from running process failed" );
+	}
+
 	private final boolean peerExists( Parameters parameters ) {
 		boolean exists = false;
 		String peer = null;
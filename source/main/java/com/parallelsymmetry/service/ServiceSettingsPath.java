@@ -11,4 +11,8 @@ public interface ServiceSettingsPath {
 	
 	public static final String UPDATE_SETTINGS_PATH = PRODUCT_MANAGER_SETTINGS_PATH + "/update";
 
+	public static final String DOWNLOAD_SETTINGS_PATH = PRODUCT_MANAGER_SETTINGS_PATH + "/download";
+
+	public static final String RESTART_SETTINGS_PATH = "/restart";
+
 }
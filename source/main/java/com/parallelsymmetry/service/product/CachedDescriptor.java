@@ -0,0 +1,81 @@
+package com.parallelsymmetry.service.product;
+
+import java.net.URI;
+
+import com.parallelsymmetry.utility.product.ProductCard;
+import com.parallelsymmetry.utility.setting.Persistent;
+import com.parallelsymmetry.utility.setting.Settings;
+
+/**
+ * A posted product descriptor kept between update checks. The descriptor is
+ * kept as the card parsed from it along with the entity validators returned by
+ * the server, so an update check can revalidate it with a conditional request
+ * and use the card without downloading or parsing the descriptor again.
+ * <p>
+ * NOTE: This class is Persistent and changing the package will most likely
+ * result in a ClassNotFoundException being thrown at runtime.
+ */
+public final class CachedDescriptor implements Persistent {
+
+	private URI uri;
+
+	private String etag;
+
+	private String lastModified;
+
+	private ProductCard card;
+
+	/*
+	 * This constructor is used by the settings API via reflection.
+	 */
+	public CachedDescriptor() {}
+
+	public CachedDescriptor( URI uri, String etag, String lastModified, ProductCard card ) {
+		this.uri = uri;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.card = card;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public ProductCard getCard() {
+		return card;
+	}
+
+	/**
+	 * Check if the descriptor can be revalidated. Descriptors from servers that
+	 * do not send validators can not be.
+	 */
+	public boolean hasValidators() {
+		return etag != null || lastModified != null;
+	}
+
+	@Override
+	public void loadSettings( Settings settings ) {
+		String uriValue = settings.get( "uri", null );
+		uri = uriValue == null ? null : URI.create( uriValue );
+		etag = settings.get( "etag", null );
+		lastModified = settings.get( "lastModified", null );
+		card = new ProductCard( settings.getNode( "card" ) );
+	}
+
+	@Override
+	public void saveSettings( Settings settings ) {
+		settings.put( "uri", uri.toString() );
+		settings.put( "etag", etag );
+		settings.put( "lastModified", lastModified );
+		card.saveSettings( settings.getNode( "card" ) );
+	}
+
+}
@@ -0,0 +1,491 @@
+package com.parallelsymmetry.service.product;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * A compact index of the products offered by the product catalogs. The index
+ * is stored in a binary file that is memory mapped when opened, so browsing
+ * and searching large catalogs does not parse any descriptors.
+ * <p>
+ * The file starts with a header followed by fixed size records sorted by group,
+ * artifact and version, and a table of UTF-8 strings the records refer to by
+ * offset. Searching compares the encoded strings directly and only decodes
+ * the records that match. UTF-8 preserves the code point order so the byte
+ * order of the records is the same as the string order.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class CatalogIndex {
+
+	private static final int MAGIC = 0x50434958;
+
+	private static final int FORMAT = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	private static final int FIELD_COUNT = 7;
+
+	private static final int RECORD_SIZE = FIELD_COUNT * 4;
+
+	private static final int GROUP = 0;
+
+	private static final int ARTIFACT = 1;
+
+	private static final int NAME = 2;
+
+	private static final int VERSION = 3;
+
+	private static final int SOURCE = 4;
+
+	private static final int ETAG = 5;
+
+	private static final int LAST_MODIFIED = 6;
+
+	private static final CatalogIndex EMPTY = new CatalogIndex( createEmptyBuffer() );
+
+	private ByteBuffer buffer;
+
+	private int count;
+
+	private int strings;
+
+	private CatalogIndex( ByteBuffer buffer ) {
+		this.buffer = buffer;
+		this.count = buffer.getInt( 8 );
+		this.strings = buffer.getInt( 12 );
+	}
+
+	public static CatalogIndex empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Open an index file by mapping it into memory.
+	 *
+	 * @param file The index file.
+	 * @return The index.
+	 * @throws IOException If the file could not be read or is not an index.
+	 */
+	public static CatalogIndex open( File file ) throws IOException {
+		ByteBuffer buffer;
+		try( RandomAccessFile input = new RandomAccessFile( file, "r" ) ) {
+			FileChannel channel = input.getChannel();
+			if( channel.size() < HEADER_SIZE ) throw new IOException( "Catalog index too short: " + file );
+			buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		}
+
+		if( buffer.getInt( 0 ) != MAGIC ) throw new IOException( "Not a catalog index: " + file );
+		if( buffer.getInt( 4 ) != FORMAT ) throw new IOException( "Unsupported catalog index format: " + file );
+
+		long count = buffer.getInt( 8 );
+		long strings = buffer.getInt( 12 );
+		if( count < 0 || strings != HEADER_SIZE + count * RECORD_SIZE || strings > buffer.capacity() ) throw new IOException( "Corrupt catalog index: " + file );
+
+		return new CatalogIndex( buffer );
+	}
+
+	/**
+	 * Write an index file. The file is replaced atomically so an open index of
+	 * the same file is never partially overwritten. Entries with the same
+	 * product key and version are only written once.
+	 *
+	 * @param file The index file.
+	 * @param entries The index entries.
+	 */
+	public static void write( File file, Collection<Entry> entries ) throws IOException {
+		Map<String, Entry> unique = new LinkedHashMap<String, Entry>();
+		for( Entry entry : entries ) {
+			String key = entry.getProductKey() + "\n" + entry.version;
+			if( !unique.containsKey( key ) ) unique.put( key, entry );
+		}
+
+		List<Entry> sorted = new ArrayList<Entry>( unique.values() );
+		Collections.sort( sorted, new Comparator<Entry>() {
+
+			@Override
+			public int compare( Entry entry1, Entry entry2 ) {
+				int result = compareBytes( encode( entry1.group ), encode( entry2.group ) );
+				if( result == 0 ) result = compareBytes( encode( entry1.artifact ), encode( entry2.artifact ) );
+				if( result == 0 ) result = compareBytes( encode( entry1.version ), encode( entry2.version ) );
+				return result;
+			}
+
+		} );
+
+		// Build the string table, sharing repeated strings.
+		int[][] offsets = new int[sorted.size()][FIELD_COUNT];
+		Map<String, Integer> stringOffsets = new HashMap<String, Integer>();
+		List<byte[]> table = new ArrayList<byte[]>();
+		int tableSize = 0;
+		for( int index = 0; index < sorted.size(); index++ ) {
+			String[] fields = sorted.get( index ).getFields();
+			for( int field = 0; field < FIELD_COUNT; field++ ) {
+				String value = fields[field] == null ? "" : fields[field];
+				Integer offset = stringOffsets.get( value );
+				if( offset == null ) {
+					byte[] bytes = encode( value );
+					offset = tableSize;
+					stringOffsets.put( value, offset );
+					table.add( bytes );
+					tableSize += 4 + bytes.length;
+				}
+				offsets[index][field] = offset;
+			}
+		}
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+		File temp = File.createTempFile( file.getName(), ".tmp", parent );
+		try {
+			try( DataOutputStream output = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) ) ) {
+				output.writeInt( MAGIC );
+				output.writeInt( FORMAT );
+				output.writeInt( sorted.size() );
+				output.writeInt( HEADER_SIZE + sorted.size() * RECORD_SIZE );
+				for( int[] record : offsets ) {
+					for( int offset : record ) {
+						output.writeInt( offset );
+					}
+				}
+				for( byte[] bytes : table ) {
+					output.writeInt( bytes.length );
+					output.write( bytes );
+				}
+			}
+
+			try {
+				Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			} catch( AtomicMoveNotSupportedException exception ) {
+				Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Write a new version of an index file. A mapped file can not be replaced
+	 * or deleted on Windows while it is open, so each update is written to a
+	 * new file named after the index file with an increasing version number.
+	 * The older versions are removed with removeVersions() once they are no
+	 * longer open.
+	 *
+	 * @param file The index file.
+	 * @param entries The index entries.
+	 * @return The file the index was written to.
+	 */
+	public static File writeVersion( File file, Collection<Entry> entries ) throws IOException {
+		File latest = getLatestVersion( file );
+		long version = latest == null ? 1 : getVersion( file, latest ) + 1;
+		File target = new File( file.getAbsoluteFile().getParentFile(), file.getName() + "." + version );
+		write( target, entries );
+		return target;
+	}
+
+	/**
+	 * Get the latest version of an index file. An index file written without a
+	 * version is the oldest version.
+	 *
+	 * @param file The index file.
+	 * @return The latest version or null if there is no version.
+	 */
+	public static File getLatestVersion( File file ) {
+		File latest = null;
+		long latestVersion = -1;
+		for( File version : getVersions( file ) ) {
+			long number = getVersion( file, version );
+			if( number > latestVersion ) {
+				latest = version;
+				latestVersion = number;
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Delete the versions of an index file other than the one to keep. Versions
+	 * that are still mapped may not be deleted, they are deleted by a later call.
+	 *
+	 * @param file The index file.
+	 * @param keep The version to keep.
+	 */
+	public static void removeVersions( File file, File keep ) {
+		for( File version : getVersions( file ) ) {
+			if( version.equals( keep.getAbsoluteFile() ) ) continue;
+			if( !version.delete() ) Log.write( Log.DEBUG, "Unable to delete catalog index: ", version );
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public Entry get( int index ) {
+		if( index < 0 || index >= count ) throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + count );
+		String[] fields = new String[FIELD_COUNT];
+		for( int field = 0; field < FIELD_COUNT; field++ ) {
+			fields[field] = decode( getString( index, field ) );
+		}
+		return new Entry( fields );
+	}
+
+	/**
+	 * Get the entries of all the products.
+	 */
+	public List<Entry> getEntries() {
+		return find( null, null, null, null );
+	}
+
+	/**
+	 * Get the entry with the product source URI or null if there is no such
+	 * entry.
+	 */
+	public Entry getEntry( URI source ) {
+		byte[] bytes = encode( source.toString() );
+		for( int index = 0; index < count; index++ ) {
+			if( equalBytes( index, SOURCE, bytes ) ) return get( index );
+		}
+		return null;
+	}
+
+	/**
+	 * Find the entries that match all the prefixes. A null or empty prefix
+	 * matches every entry. The entries are returned sorted by group, artifact
+	 * and version.
+	 *
+	 * @param group The group prefix.
+	 * @param artifact The artifact prefix.
+	 * @param name The name prefix.
+	 * @param version The release version prefix.
+	 * @return The matching entries.
+	 */
+	public List<Entry> find( String group, String artifact, String name, String version ) {
+		byte[] groupPrefix = encode( group );
+		byte[] artifactPrefix = encode( artifact );
+		byte[] namePrefix = encode( name );
+		byte[] versionPrefix = encode( version );
+
+		List<Entry> entries = new ArrayList<Entry>();
+		for( int index = findFirst( groupPrefix ); index < count; index++ ) {
+			// The records are sorted by group so no later record can match.
+			if( !startsWith( index, GROUP, groupPrefix ) ) break;
+			if( !startsWith( index, ARTIFACT, artifactPrefix ) ) continue;
+			if( !startsWith( index, NAME, namePrefix ) ) continue;
+			if( !startsWith( index, VERSION, versionPrefix ) ) continue;
+			entries.add( get( index ) );
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Find the first record with a group that is not less than the prefix.
+	 */
+	private int findFirst( byte[] prefix ) {
+		int low = 0;
+		int high = count;
+		while( low < high ) {
+			int middle = ( low + high ) >>> 1;
+			if( compare( middle, GROUP, prefix ) < 0 ) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int getStringPosition( int index, int field ) {
+		return strings + buffer.getInt( HEADER_SIZE + index * RECORD_SIZE + field * 4 );
+	}
+
+	private byte[] getString( int index, int field ) {
+		int position = getStringPosition( index, field );
+		byte[] bytes = new byte[buffer.getInt( position )];
+		for( int offset = 0; offset < bytes.length; offset++ ) {
+			bytes[offset] = buffer.get( position + 4 + offset );
+		}
+		return bytes;
+	}
+
+	private int compare( int index, int field, byte[] value ) {
+		int position = getStringPosition( index, field );
+		int length = buffer.getInt( position );
+		int limit = Math.min( length, value.length );
+		for( int offset = 0; offset < limit; offset++ ) {
+			int result = ( buffer.get( position + 4 + offset ) & 0xff ) - ( value[offset] & 0xff );
+			if( result != 0 ) return result;
+		}
+		return length - value.length;
+	}
+
+	private boolean startsWith( int index, int field, byte[] prefix ) {
+		int position = getStringPosition( index, field );
+		if( buffer.getInt( position ) < prefix.length ) return false;
+		for( int offset = 0; offset < prefix.length; offset++ ) {
+			if( buffer.get( position + 4 + offset ) != prefix[offset] ) return false;
+		}
+		return true;
+	}
+
+	private boolean equalBytes( int index, int field, byte[] value ) {
+		return buffer.getInt( getStringPosition( index, field ) ) == value.length && startsWith( index, field, value );
+	}
+
+	private static List<File> getVersions( File file ) {
+		List<File> versions = new ArrayList<File>();
+		File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+		if( files == null ) return versions;
+
+		for( File candidate : files ) {
+			if( getVersion( file, candidate ) >= 0 ) versions.add( candidate );
+		}
+		return versions;
+	}
+
+	/**
+	 * Get the version number of a version of the index file or -1 if the file is
+	 * not a version of the index file.
+	 */
+	private static long getVersion( File file, File version ) {
+		String name = version.getName();
+		if( name.equals( file.getName() ) ) return 0;
+		if( !name.startsWith( file.getName() + "." ) ) return -1;
+		try {
+			long number = Long.parseLong( name.substring( file.getName().length() + 1 ) );
+			return number > 0 ? number : -1;
+		} catch( NumberFormatException exception ) {
+			return -1;
+		}
+	}
+
+	private static int compareBytes( byte[] bytes1, byte[] bytes2 ) {
+		int limit = Math.min( bytes1.length, bytes2.length );
+		for( int offset = 0; offset < limit; offset++ ) {
+			int result = ( bytes1[offset] & 0xff ) - ( bytes2[offset] & 0xff );
+			if( result != 0 ) return result;
+		}
+		return bytes1.length - bytes2.length;
+	}
+
+	private static byte[] encode( String value ) {
+		return value == null ? new byte[0] : value.getBytes( StandardCharsets.UTF_8 );
+	}
+
+	private static String decode( byte[] bytes ) {
+		return bytes.length == 0 ? null : new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	private static ByteBuffer createEmptyBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE );
+		buffer.putInt( 0, MAGIC );
+		buffer.putInt( 4, FORMAT );
+		buffer.putInt( 8, 0 );
+		buffer.putInt( 12, HEADER_SIZE );
+		return buffer;
+	}
+
+	/**
+	 * A product offered by a catalog. Besides the product fields the entry keeps
+	 * the entity validators of the product descriptor so the index can be
+	 * updated with conditional requests.
+	 */
+	public static final class Entry {
+
+		private String group;
+
+		private String artifact;
+
+		private String name;
+
+		private String version;
+
+		private URI source;
+
+		private String etag;
+
+		private String lastModified;
+
+		public Entry( String group, String artifact, String name, String version, URI source, String etag, String lastModified ) {
+			this.group = group;
+			this.artifact = artifact;
+			this.name = name;
+			this.version = version;
+			this.source = source;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		private Entry( String[] fields ) {
+			this( fields[GROUP], fields[ARTIFACT], fields[NAME], fields[VERSION], fields[SOURCE] == null ? null : URI.create( fields[SOURCE] ), fields[ETAG], fields[LAST_MODIFIED] );
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		public String getArtifact() {
+			return artifact;
+		}
+
+		public String getProductKey() {
+			return group + "." + artifact;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * Get the URI of the product descriptor.
+		 */
+		public URI getSource() {
+			return source;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return getProductKey() + " " + version;
+		}
+
+		private String[] getFields() {
+			return new String[] { group, artifact, name, version, source == null ? null : source.toString(), etag, lastModified };
+		}
+
+	}
+
+}
@@ -0,0 +1,220 @@
+package com.parallelsymmetry.service.product;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * Extracts pack archives into a folder using a pool of worker threads. The
+ * entries of all the archives are extracted concurrently, each worker reading
+ * its entry from the shared zip file and writing it to a preallocated file.
+ * When several archives contain the same entry the entry of the last archive
+ * is extracted, the same as extracting the archives one after another.
+ */
+final class PackExtractor {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private int threadCount;
+
+	PackExtractor() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	PackExtractor( int threadCount ) {
+		this.threadCount = Math.max( 1, threadCount );
+	}
+
+	/**
+	 * Extract the archives into the folder.
+	 *
+	 * @param archives The pack archives.
+	 * @param folder The target folder.
+	 * @throws IOException If an archive could not be extracted.
+	 */
+	void extract( Collection<File> archives, File folder ) throws IOException {
+		if( archives.isEmpty() ) return;
+
+		List<ZipFile> zips = new ArrayList<ZipFile>();
+		try {
+			// Later archives replace the entries of earlier archives.
+			Map<String, Extraction> extractions = new LinkedHashMap<String, Extraction>();
+			for( File archive : archives ) {
+				ZipFile zip = new ZipFile( archive );
+				zips.add( zip );
+
+				Enumeration<? extends ZipEntry> entries = zip.entries();
+				while( entries.hasMoreElements() ) {
+					ZipEntry entry = entries.nextElement();
+					extractions.put( entry.getName(), new Extraction( zip, entry, getTarget( folder, entry.getName() ) ) );
+				}
+			}
+
+			// Create the folders before the files are extracted.
+			List<Extraction> files = new ArrayList<Extraction>();
+			for( Extraction extraction : extractions.values() ) {
+				if( extraction.entry.isDirectory() ) {
+					extraction.target.mkdirs();
+				} else {
+					extraction.target.getParentFile().mkdirs();
+					files.add( extraction );
+				}
+			}
+
+			// Start the largest entries first so the workers finish together.
+			Collections.sort( files, new Comparator<Extraction>() {
+
+				@Override
+				public int compare( Extraction extraction1, Extraction extraction2 ) {
+					return Long.compare( extraction2.entry.getSize(), extraction1.entry.getSize() );
+				}
+
+			} );
+
+			extract( files );
+			Log.write( Log.DEBUG, "Extracted ", files.size(), " files from ", archives.size(), " packs to: ", folder );
+		} finally {
+			for( ZipFile zip : zips ) {
+				zip.close();
+			}
+		}
+	}
+
+	private void extract( List<Extraction> files ) throws IOException {
+		int threads = Math.min( threadCount, files.size() );
+		if( threads <= 1 ) {
+			for( Extraction extraction : files ) {
+				extraction.call();
+			}
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool( threads, new ExtractorThreadFactory() );
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>( files.size() );
+			for( Extraction extraction : files ) {
+				futures.add( executor.submit( extraction ) );
+			}
+
+			for( Future<Void> future : futures ) {
+				try {
+					future.get();
+				} catch( InterruptedException exception ) {
+					throw new InterruptedIOException( "Pack extraction interrupted" );
+				} catch( ExecutionException exception ) {
+					Throwable cause = exception.getCause();
+					if( cause instanceof IOException ) throw (IOException)cause;
+					throw new IOException( cause );
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			awaitTermination( executor );
+		}
+	}
+
+	/**
+	 * Wait for the workers to stop so no worker reads from a zip file after it
+	 * is closed.
+	 */
+	private static void awaitTermination( ExecutorService executor ) {
+		boolean interrupted = false;
+		while( !executor.isTerminated() ) {
+			try {
+				executor.awaitTermination( 1, TimeUnit.SECONDS );
+			} catch( InterruptedException exception ) {
+				interrupted = true;
+			}
+		}
+		if( interrupted ) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Get the target file of an entry, making sure the entry does not escape the
+	 * target folder.
+	 */
+	private static File getTarget( File folder, String name ) throws IOException {
+		File target = new File( folder, name );
+		String root = folder.getCanonicalPath() + File.separator;
+		if( !target.getCanonicalPath().startsWith( root ) ) throw new ZipException( "Pack entry outside of target folder: " + name );
+		return target;
+	}
+
+	private static final class Extraction implements Callable<Void> {
+
+		private ZipFile zip;
+
+		private ZipEntry entry;
+
+		private File target;
+
+		public Extraction( ZipFile zip, ZipEntry entry, File target ) {
+			this.zip = zip;
+			this.entry = entry;
+			this.target = target;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			try( InputStream input = zip.getInputStream( entry ); RandomAccessFile file = new RandomAccessFile( target, "rw" ) ) {
+				// Preallocate the file when the size is known.
+				long size = entry.getSize();
+				file.setLength( size < 0 ? 0 : size );
+
+				FileChannel channel = file.getChannel();
+				byte[] buffer = new byte[BUFFER_SIZE];
+				ByteBuffer wrapper = ByteBuffer.wrap( buffer );
+				long position = 0;
+				int read;
+				while( ( read = input.read( buffer ) ) > -1 ) {
+					if( Thread.currentThread().isInterrupted() ) throw new InterruptedIOException( "Pack extraction interrupted" );
+					wrapper.clear().limit( read );
+					while( wrapper.hasRemaining() ) {
+						position += channel.write( wrapper, position );
+					}
+				}
+				if( position != file.length() ) file.setLength( position );
+			}
+
+			if( entry.getTime() > 0 ) target.setLastModified( entry.getTime() );
+			return null;
+		}
+
+	}
+
+	private static final class ExtractorThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Pack Extractor" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
+}
@@ -30,6 +30,7 @@ public class PackProvider implements ProductResourceProvider {
 		String[] files = card.getResourceUris( "file" );
 		String[] packs = card.getResourceUris( "pack" );
 		String[] jnlps = card.getResourceUris( "jnlp" );
+		String[] patches = card.getResourceUris( "patch" );
 
 		for( String file : files ) {
 			URI uri = codebase.resolve( file );
@@ -39,6 +40,10 @@ public class PackProvider implements ProductResourceProvider {
 			URI uri = codebase.resolve( pack );
 			resources.add( new ProductResource( ProductResource.Type.PACK, uri ) );
 		}
+		for( String patch : patches ) {
+			URI uri = codebase.resolve( patch );
+			resources.add( new ProductResource( ProductResource.Type.PATCH, uri ) );
+		}
 		for( String jnlp : jnlps ) {
 			URI uri = codebase.resolve( jnlp );
 			Future<Descriptor> future = taskManager.submit( new DescriptorDownloadTask( uri ) );
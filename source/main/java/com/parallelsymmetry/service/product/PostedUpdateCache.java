@@ -0,0 +1,89 @@
+package com.parallelsymmetry.service.product;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.parallelsymmetry.utility.product.ProductCard;
+import com.parallelsymmetry.utility.setting.Persistent;
+import com.parallelsymmetry.utility.setting.Settings;
+
+/**
+ * The posted updates found by the last update check and the time of the
+ * check. The cache is persisted so it survives a service restart.
+ * <p>
+ * NOTE: This class is Persistent and changing the package will most likely
+ * result in a ClassNotFoundException being thrown at runtime.
+ */
+public final class PostedUpdateCache implements Persistent {
+
+	private volatile Set<ProductCard> cards;
+
+	private volatile long time;
+
+	public PostedUpdateCache() {
+		cards = Collections.emptySet();
+	}
+
+	/**
+	 * Get an unmodifiable snapshot of the cached updates.
+	 */
+	public Set<ProductCard> getCards() {
+		return cards;
+	}
+
+	/**
+	 * Get the time the updates were cached or zero if they never were.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public boolean isEmpty() {
+		return time == 0;
+	}
+
+	/**
+	 * Check if the cache is younger than the time to live.
+	 *
+	 * @param ttl The time to live in milliseconds.
+	 */
+	public boolean isFresh( long ttl ) {
+		return time > 0 && System.currentTimeMillis() - time < ttl;
+	}
+
+	public synchronized void update( Set<ProductCard> cards ) {
+		this.cards = Collections.unmodifiableSet( new HashSet<ProductCard>( cards ) );
+		this.time = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void loadSettings( Settings settings ) {
+		if( settings == null ) return;
+
+		Set<ProductCard> set = new HashSet<ProductCard>();
+		int count = settings.getInt( "count", 0 );
+		for( int index = 0; index < count; index++ ) {
+			set.add( new ProductCard( settings.getNode( "cards/" + index ) ) );
+		}
+
+		cards = Collections.unmodifiableSet( set );
+		time = settings.getLong( "time", 0 );
+	}
+
+	@Override
+	public synchronized void saveSettings( Settings settings ) {
+		if( settings == null ) return;
+
+		// Remove the cards of the previous save, there may have been more.
+		settings.removeNode( "cards" );
+
+		int index = 0;
+		for( ProductCard card : cards ) {
+			card.saveSettings( settings.getNode( "cards/" + index++ ) );
+		}
+		settings.putInt( "count", index );
+		settings.putLong( "time", time );
+	}
+
+}
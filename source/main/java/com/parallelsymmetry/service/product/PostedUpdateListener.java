@@ -0,0 +1,26 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.utility.product.ProductCard;
+
+/**
+ * Receives the results of a posted update discovery as each product descriptor
+ * arrives. The methods are called on the thread running the discovery.
+ */
+public interface PostedUpdateListener {
+
+	/**
+	 * Called when a product has a newer release posted.
+	 *
+	 * @param card The card of the posted release.
+	 */
+	void updateFound( ProductCard card );
+
+	/**
+	 * Called when the posted release of a product could not be determined.
+	 *
+	 * @param card The card of the installed product.
+	 * @param throwable The cause of the failure.
+	 */
+	void updateFailed( ProductCard card, Throwable throwable );
+
+}
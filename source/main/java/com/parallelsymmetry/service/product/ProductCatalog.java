@@ -24,6 +24,8 @@ public class ProductCatalog implements Persistent {
 
 	public static final String SOURCES_PATH = CATALOG_PATH + "/sources/source";
 
+	public static final String MIRRORS_PATH = CATALOG_PATH + "/mirrors/mirror";
+
 	// When the attribute is in the root node there is no path info.
 	private static final String SOURCE_PATH = "@uri";
 
@@ -39,6 +41,8 @@ public class ProductCatalog implements Persistent {
 
 	private List<URI> sources = new CopyOnWriteArrayList<URI>();
 
+	private List<URI> mirrors = new CopyOnWriteArrayList<URI>();
+
 	private Settings settings;
 
 	/*
@@ -72,6 +76,17 @@ public class ProductCatalog implements Persistent {
 			}
 		}
 
+		this.mirrors.clear();
+		for( Node node : descriptor.getNodes( MIRRORS_PATH ) ) {
+			try {
+				URI uri = UriUtil.resolve( base, new URI( new Descriptor( node ).getValue( SOURCE_PATH ) ) );
+				Log.write( Log.DEBUG, "Adding catalog mirror: " + uri );
+				this.mirrors.add( uri );
+			} catch( URISyntaxException exception ) {
+				Log.write( exception );
+			}
+		}
+
 		return this;
 	}
 
@@ -129,6 +144,13 @@ public class ProductCatalog implements Persistent {
 		saveSettings( settings );
 	}
 
+	/**
+	 * Get the base URIs of the mirrors of the catalog source.
+	 */
+	public List<URI> getMirrors() {
+		return new ArrayList<URI>( mirrors );
+	}
+
 	@Override
 	public void loadSettings( Settings settings ) {
 		if( settings == null ) return;
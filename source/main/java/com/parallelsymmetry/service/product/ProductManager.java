@@ -5,13 +5,22 @@ import com.parallelsymmetry.service.ServiceFlag;
 import com.parallelsymmetry.service.ServiceSettingsPath;
 import com.parallelsymmetry.service.UpdateShutdownHook;
 import com.parallelsymmetry.service.product.ProductManagerEvent.Type;
+import com.parallelsymmetry.service.task.ArtifactStore;
 import com.parallelsymmetry.service.task.DescriptorDownloadTask;
+import com.parallelsymmetry.service.task.DigestUtil;
+import com.parallelsymmetry.service.task.Download;
+import com.parallelsymmetry.service.task.DownloadMetrics;
+import com.parallelsymmetry.service.task.DownloadScheduler;
 import com.parallelsymmetry.service.task.DownloadTask;
+import com.parallelsymmetry.service.task.HttpClientTransport;
+import com.parallelsymmetry.service.task.MirrorSelector;
+import com.parallelsymmetry.service.task.MirrorTransport;
 import com.parallelsymmetry.updater.Updater;
 import com.parallelsymmetry.utility.*;
 import com.parallelsymmetry.utility.agent.Agent;
 import com.parallelsymmetry.utility.log.Log;
 import com.parallelsymmetry.utility.product.ProductCard;
+import com.parallelsymmetry.utility.product.ProductCardException;
 import com.parallelsymmetry.utility.setting.Persistent;
 import com.parallelsymmetry.utility.setting.SettingEvent;
 import com.parallelsymmetry.utility.setting.SettingListener;
@@ -20,12 +29,28 @@ import com.parallelsymmetry.utility.setting.Settings;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Constructor;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipException;
 
 /**
  * The update manager handles discovery, staging and applying product updates.
@@ -79,6 +104,12 @@ public class ProductManager extends Agent implements Persistent {
 
 	public static final String UPDATE_FOLDER_NAME = "updates";
 
+	public static final String DOWNLOAD_FOLDER_NAME = "downloads";
+
+	public static final String ARTIFACT_FOLDER_NAME = "artifacts";
+
+	public static final String CATALOG_INDEX_FILE_NAME = "catalog.index";
+
 	private static final String CHECK = "check";
 
 	private static final String FOUND = "found";
@@ -91,12 +122,30 @@ public class ProductManager extends Agent implements Persistent {
 
 	private static final String UPDATES_SETTINGS_KEY = "updates";
 
+	private static final String DESCRIPTORS_SETTINGS_KEY = "descriptors";
+
+	private static final String POSTED_SETTINGS_KEY = "posted";
+
+	private static final String UPDATE_SETTINGS_KEY = "update";
+
+	private static final String PERSIST_SETTINGS_KEY = "persist";
+
+	private static final long PERSIST_INTERVAL = 1000;
+
+	private static final int PERSIST_BATCH = 100;
+
 	private static final String PRODUCT_ENABLED_KEY = "enabled";
 
-	private static final int POSTED_UPDATE_CACHE_TIMEOUT = 60000;
+	private static final long POSTED_UPDATE_CACHE_TTL = 60000;
+
+	private static final long DISCOVERY_TIMEOUT = 60000;
 
 	private static final int MILLIS_IN_HOUR = 3600000;
 
+	private static final long PARTIAL_DOWNLOAD_TIMEOUT = 7L * 24L * MILLIS_IN_HOUR;
+
+	private static final long DEFAULT_ARTIFACT_STORE_LIMIT = 1024L * 1024L * 1024L;
+
 	private static final int NO_CHECK = -1;
 
 	private Service service;
@@ -123,15 +172,21 @@ public class ProductManager extends Agent implements Persistent {
 
 	private Map<String, ProductCard> productCards;
 
-	private Map<String, ProductUpdate> updates;
+	private StagedUpdateIndex updates;
+
+	private Map<String, CachedDescriptor> descriptors;
 
 	private Map<String, ProductState> productStates;
 
 	private Set<String> includedProducts;
 
-	private Set<ProductCard> postedUpdateCache;
+	private PostedUpdateCache postedUpdateCache;
 
-	private long postedUpdateCacheTime;
+	private volatile CatalogIndex catalogIndex;
+
+	private SettingsPersister persister;
+
+	private AtomicBoolean postedUpdateRefresh;
 
 	private Timer timer;
 
@@ -139,11 +194,19 @@ public class ProductManager extends Agent implements Persistent {
 
 	private Set<ProductManagerListener> listeners;
 
+	private ArtifactStore artifactStore;
+
+	private DownloadScheduler downloadScheduler;
+
+	private MirrorSelector mirrorSelector;
+
 	public ProductManager( Service service ) {
 		this.service = service;
 		catalogs = new CopyOnWriteArraySet<ProductCatalog>();
 		modules = new ConcurrentHashMap<String, ServiceModule>();
-		updates = new ConcurrentHashMap<String, ProductUpdate>();
+		updates = new StagedUpdateIndex();
+		descriptors = new ConcurrentHashMap<String, CachedDescriptor>();
+		updates.setListener( new StagedUpdateHandler() );
 		products = new ConcurrentHashMap<String, ServiceProduct>();
 		productCards = new ConcurrentHashMap<String, ProductCard>();
 		productStates = new ConcurrentHashMap<String, ProductState>();
@@ -155,7 +218,13 @@ public class ProductManager extends Agent implements Persistent {
 		includedProducts.add( new Updater().getCard().getProductKey() );
 
 		// Create the posted update cache.
-		postedUpdateCache = new CopyOnWriteArraySet<ProductCard>();
+		postedUpdateCache = new PostedUpdateCache();
+		postedUpdateRefresh = new AtomicBoolean();
+
+		catalogIndex = CatalogIndex.empty();
+
+		// Create the settings persister.
+		persister = new SettingsPersister( new SettingsWriter() );
 	}
 
 	public int getCatalogCount() {
@@ -164,23 +233,92 @@ public class ProductManager extends Agent implements Persistent {
 
 	public void addCatalog( ProductCatalog source ) {
 		catalogs.add( source );
-		saveSettings( settings );
+		addMirrors( source );
+		persister.markDirty( CATALOGS_SETTINGS_KEY );
 	}
 
 	public void removeCatalog( ProductCatalog source ) {
 		catalogs.remove( source );
-		saveSettings( settings );
+		persister.markDirty( CATALOGS_SETTINGS_KEY );
 	}
 
 	public void setCatalogEnabled( ProductCatalog catalog, boolean enabled ) {
 		catalog.setEnabled( enabled );
-		saveSettings( settings );
+		persister.markDirty( CATALOGS_SETTINGS_KEY );
 	}
 
 	public Set<ProductCatalog> getCatalogs() {
 		return new HashSet<ProductCatalog>( catalogs );
 	}
 
+	/**
+	 * Get the index of the products offered by the catalogs as of the last
+	 * catalog index update.
+	 */
+	public CatalogIndex getCatalogIndex() {
+		return catalogIndex;
+	}
+
+	/**
+	 * Update the catalog index from the sources of the enabled catalogs. Each
+	 * source is a product descriptor. Sources already in the index are
+	 * revalidated with conditional requests and are only parsed again when
+	 * they changed. Sources that fail keep their previous entry.
+	 *
+	 * @return The updated catalog index.
+	 */
+	public CatalogIndex updateCatalogIndex() throws IOException, InterruptedException {
+		Map<URI, CatalogIndex.Entry> previous = new HashMap<URI, CatalogIndex.Entry>();
+		for( CatalogIndex.Entry entry : catalogIndex.getEntries() ) {
+			previous.put( entry.getSource(), entry );
+		}
+
+		// Download the descriptors of all the catalog sources.
+		BlockingQueue<Future<Descriptor>> completion = new LinkedBlockingQueue<Future<Descriptor>>();
+		Map<Future<Descriptor>, DescriptorDownloadTask> tasks = new HashMap<Future<Descriptor>, DescriptorDownloadTask>();
+		Set<URI> sources = new HashSet<URI>();
+		for( ProductCatalog catalog : catalogs ) {
+			if( !catalog.isEnabled() ) continue;
+			for( URI source : catalog.getSources() ) {
+				if( !sources.add( source ) ) continue;
+
+				DescriptorDownloadTask task = new DescriptorDownloadTask( source );
+				CatalogIndex.Entry entry = previous.get( source );
+				if( entry != null ) task.setValidators( entry.getEtag(), entry.getLastModified() );
+				tasks.put( getDownloadScheduler().submit( task, completion ), task );
+			}
+		}
+
+		// Nothing to index and nothing to remove from the index.
+		if( sources.isEmpty() && catalogIndex.size() == 0 ) return catalogIndex;
+
+		List<CatalogIndex.Entry> entries = new ArrayList<CatalogIndex.Entry>();
+		for( int count = 0; count < tasks.size(); count++ ) {
+			Future<Descriptor> future = completion.take();
+			DescriptorDownloadTask task = tasks.get( future );
+			CatalogIndex.Entry entry = previous.get( task.getUri() );
+			try {
+				Descriptor descriptor = future.get();
+				if( descriptor != null ) {
+					ProductCard card = new ProductCard( task.getUri(), descriptor );
+					entry = new CatalogIndex.Entry( card.getGroup(), card.getArtifact(), card.getName(), card.getRelease().getVersion().toString(), task.getUri(), task.getEtag(), task.getLastModified() );
+				}
+			} catch( Exception exception ) {
+				Log.write( Log.WARN, "Unable to index catalog source: ", task.getUri(), ": ", exception.getMessage() );
+			}
+			if( entry != null ) entries.add( entry );
+		}
+
+		// Write a new version of the index since the current one may be mapped.
+		File file = new File( service.getDataFolder(), CATALOG_INDEX_FILE_NAME );
+		File version = CatalogIndex.writeVersion( file, entries );
+		catalogIndex = CatalogIndex.open( version );
+		CatalogIndex.removeVersions( file, version );
+		Log.write( Log.DEBUG, "Catalog index updated: ", catalogIndex.size(), " products from ", sources.size(), " sources" );
+
+		return catalogIndex;
+	}
+
 	public Set<ServiceModule> getModules() {
 		return new HashSet<ServiceModule>( modules.values() );
 	}
@@ -334,7 +472,7 @@ public class ProductManager extends Agent implements Persistent {
 
 	public void setCheckOption( CheckOption checkOption ) {
 		this.checkOption = checkOption;
-		saveSettings( settings );
+		persister.markDirty( UPDATE_SETTINGS_KEY );
 		scheduleUpdateCheck( false );
 	}
 
@@ -344,7 +482,7 @@ public class ProductManager extends Agent implements Persistent {
 
 	public void setFoundOption( FoundOption foundOption ) {
 		this.foundOption = foundOption;
-		saveSettings( settings );
+		persister.markDirty( UPDATE_SETTINGS_KEY );
 	}
 
 	public ApplyOption getApplyOption() {
@@ -353,7 +491,7 @@ public class ProductManager extends Agent implements Persistent {
 
 	public void setApplyOption( ApplyOption applyOption ) {
 		this.applyOption = applyOption;
-		saveSettings( settings );
+		persister.markDirty( UPDATE_SETTINGS_KEY );
 	}
 
 	/**
@@ -430,9 +568,29 @@ public class ProductManager extends Agent implements Persistent {
 	public void checkForUpdates() {
 		if( !isEnabled() ) return;
 
+		// Refresh the catalog index along with the update check.
+		try {
+			updateCatalogIndex();
+		} catch( InterruptedException exception ) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch( Exception exception ) {
+			Log.write( exception );
+		}
+
 		try {
 			Log.write( Log.TRACE, "Checking for updates..." );
 			int stagedUpdateCount = service.getProductManager().stagePostedUpdates();
+			Log.write( Log.TRACE, "Update check complete, ", stagedUpdateCount, " updates staged." );
+			Log.write( Log.TRACE, getDownloadMetrics().getSummary() );
+
+			// Apply module updates in process when possible.
+			if( stagedUpdateCount > 0 && service.getSettings().getNode( ServiceSettingsPath.UPDATE_SETTINGS_PATH ).getBoolean( "hot", true ) ) {
+				int appliedCount = applyStagedModuleUpdates();
+				Log.write( Log.TRACE, appliedCount, " module updates applied in process." );
+				stagedUpdateCount = getStagedUpdateCount();
+			}
+
 			if( stagedUpdateCount > 0 ) {
 				Log.write( Log.TRACE, "Updates staged, restarting..." );
 				service.serviceRestart( ServiceFlag.NOUPDATECHECK );
@@ -442,6 +600,13 @@ public class ProductManager extends Agent implements Persistent {
 		}
 	}
 
+	/**
+	 * Get the measurements of all product downloads.
+	 */
+	public DownloadMetrics getDownloadMetrics() {
+		return DownloadTask.getDefaultMetrics();
+	}
+
 	public Set<ProductCard> getPostedUpdates() throws Exception {
 		return getPostedUpdates( true );
 	}
@@ -449,17 +614,62 @@ public class ProductManager extends Agent implements Persistent {
 	/**
 	 * Gets the set of posted product updates. If there are no posted updates
 	 * found an empty set is returned.
+	 * <p>
+	 * Unless forced, the updates found by the last check are returned while they
+	 * are younger than the cache time to live. When the cache is older and stale
+	 * updates are allowed the cached updates are returned immediately and
+	 * refreshed in the background.
 	 *
 	 * @return The set of posted updates.
 	 * @throws Exception
 	 */
 	public Set<ProductCard> getPostedUpdates( boolean force ) throws Exception {
-		Set<ProductCard> newCards = new HashSet<ProductCard>();
-		if( !isEnabled() ) return newCards;
+		if( !isEnabled() ) return new HashSet<ProductCard>();
+
+		if( force == false ) {
+			Settings postedSettings = service.getSettings().getNode( ServiceSettingsPath.UPDATE_SETTINGS_PATH + "/" + POSTED_SETTINGS_KEY );
+			long ttl = postedSettings.getLong( "ttl", POSTED_UPDATE_CACHE_TTL );
+			boolean stale = postedSettings.getBoolean( "stale", true );
 
-		// If the posted update cache is still valid return the updates in the cache.
-		long postedCacheAge = System.currentTimeMillis() - postedUpdateCacheTime;
-		if( force == false && postedCacheAge < POSTED_UPDATE_CACHE_TIMEOUT ) return new HashSet<ProductCard>( postedUpdateCache );
+			// If the posted update cache is still valid return the updates in the cache.
+			if( postedUpdateCache.isFresh( ttl ) ) return getCachedUpdates();
+
+			// Return the stale updates and refresh the cache in the background.
+			if( stale && !postedUpdateCache.isEmpty() ) {
+				refreshPostedUpdates();
+				return getCachedUpdates();
+			}
+		}
+
+		UpdateDiscovery discovery = discoverPostedUpdates( getDiscoveryTimeout(), null );
+
+		// If there is an exception and there are no updates, throw the exception.
+		Set<ProductCard> newCards = new HashSet<ProductCard>( discovery.getUpdates() );
+		if( newCards.isEmpty() && !discovery.getErrors().isEmpty() ) {
+			Throwable throwable = discovery.getErrors().values().iterator().next();
+			if( throwable instanceof Exception ) throw (Exception)throwable;
+			throw new ExecutionException( throwable );
+		}
+
+		return newCards;
+	}
+
+	/**
+	 * Discover the posted product updates. The product descriptors are
+	 * downloaded concurrently and each result is reported to the listener as
+	 * soon as its descriptor arrives. Descriptors that have not arrived when the
+	 * timeout expires are cancelled and the partial result is returned.
+	 *
+	 * @param timeout The time to wait for all the descriptors in milliseconds,
+	 *          zero to wait without a deadline.
+	 * @param listener The listener to notify as results arrive, may be null.
+	 * @return The discovery result.
+	 */
+	public UpdateDiscovery discoverPostedUpdates( long timeout, PostedUpdateListener listener ) throws InterruptedException {
+		UpdateDiscovery discovery = new UpdateDiscovery();
+		if( !isEnabled() ) return discovery;
+
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
 
 		// Update when the last update check occurred.
 		service.getSettings().putLong( ServiceSettingsPath.UPDATE_SETTINGS_PATH + "/check/last", System.currentTimeMillis() );
@@ -468,9 +678,11 @@ public class ProductManager extends Agent implements Persistent {
 		scheduleUpdateCheck( false );
 
 		// Download the descriptors for each product.
-		Set<ProductCard> oldCards = getProductCards();
-		Map<ProductCard, DescriptorDownloadTask> tasks = new HashMap<ProductCard, DescriptorDownloadTask>();
-		for( ProductCard oldCard : oldCards ) {
+		BlockingQueue<Future<Descriptor>> completion = new LinkedBlockingQueue<Future<Descriptor>>();
+		Map<Future<Descriptor>, ProductCard> oldCards = new HashMap<Future<Descriptor>, ProductCard>();
+		Map<Future<Descriptor>, DescriptorDownloadTask> tasks = new HashMap<Future<Descriptor>, DescriptorDownloadTask>();
+		Set<String> descriptorKeys = new HashSet<String>();
+		for( ProductCard oldCard : getProductCards() ) {
 			URI uri = getResolvedUpdateUri( oldCard.getSourceUri() );
 			if( uri == null ) {
 				Log.write( Log.WARN, "Installed pack does not have source defined: " + oldCard.toString() );
@@ -479,47 +691,153 @@ public class ProductManager extends Agent implements Persistent {
 				Log.write( Log.DEBUG, "Installed pack source: " + uri );
 			}
 
+			// Revalidate the cached descriptor instead of downloading it again.
+			addMirrors( oldCard );
 			DescriptorDownloadTask task = new DescriptorDownloadTask( uri );
-			service.getTaskManager().submit( task );
-			tasks.put( oldCard, task );
+			String descriptorKey = getDescriptorKey( uri );
+			descriptorKeys.add( descriptorKey );
+			CachedDescriptor cached = descriptors.get( descriptorKey );
+			if( cached != null ) {
+				task.setValidators( cached.getEtag(), cached.getLastModified() );
+			} else if( artifactStore.isShared() ) {
+				task.setArtifactStore( artifactStore );
+			}
+			Future<Descriptor> future = getDownloadScheduler().submit( task, completion );
+			oldCards.put( future, oldCard );
+			tasks.put( future, task );
 		}
 
-		// Determine what products have posted updates.
-		Exception exception = null;
-		for( ProductCard oldCard : oldCards ) {
-			try {
-				DescriptorDownloadTask task = tasks.get( oldCard );
-				if( task == null ) continue;
+		// Forget the descriptors of products that are no longer installed.
+		descriptors.keySet().retainAll( descriptorKeys );
+
+		// Determine what products have posted updates in the order the descriptors arrive.
+		int pending = oldCards.size();
+		try {
+			while( pending > 0 ) {
+				long remaining = deadline - System.currentTimeMillis();
+				Future<Descriptor> future = remaining > 0 ? completion.poll( remaining, TimeUnit.MILLISECONDS ) : null;
+				if( future == null ) break;
+				pending--;
 
-				Descriptor descriptor = task.get();
-				ProductCard newCard = new ProductCard( task.getUri(), descriptor );
+				ProductCard oldCard = oldCards.remove( future );
+				try {
+					ProductCard newCard = getPostedCard( tasks.get( future ), future.get() );
 
-				// Validate the pack key.
-				if( !oldCard.getProductKey().equals( newCard.getProductKey() ) ) {
-					Log.write( Log.WARN, "Pack mismatch: ", oldCard.getProductKey(), " != ", newCard.getProductKey() );
-					continue;
-				}
+					// Validate the pack key.
+					if( !oldCard.getProductKey().equals( newCard.getProductKey() ) ) {
+						Log.write( Log.WARN, "Pack mismatch: ", oldCard.getProductKey(), " != ", newCard.getProductKey() );
+						continue;
+					}
 
-				Log.write( Log.DEBUG, "Old release: ", oldCard.getArtifact(), " ", oldCard.getRelease() );
-				Log.write( Log.DEBUG, "New release: ", newCard.getArtifact(), " ", newCard.getRelease() );
+					Log.write( Log.DEBUG, "Old release: ", oldCard.getArtifact(), " ", oldCard.getRelease() );
+					Log.write( Log.DEBUG, "New release: ", newCard.getArtifact(), " ", newCard.getRelease() );
 
-				if( newCard.getRelease().compareTo( oldCard.getRelease() ) > 0 ) {
-					Log.write( Log.TRACE, "Update found for: " + oldCard.toString() );
-					newCards.add( newCard );
+					if( newCard.getRelease().compareTo( oldCard.getRelease() ) > 0 ) {
+						Log.write( Log.TRACE, "Update found for: " + oldCard.toString() );
+						discovery.addUpdate( newCard );
+						if( listener != null ) listener.updateFound( newCard );
+					}
+				} catch( Exception exception ) {
+					discovery.addError( oldCard, exception );
+					if( listener != null ) listener.updateFailed( oldCard, exception );
 				}
-			} catch( Exception workException ) {
-				if( exception == null ) exception = workException;
+			}
+		} finally {
+			// Cancel the descriptors that did not arrive in time.
+			for( Map.Entry<Future<Descriptor>, ProductCard> entry : oldCards.entrySet() ) {
+				entry.getKey().cancel( true );
+				discovery.addError( entry.getValue(), new TimeoutException( "Descriptor not received in time: " + tasks.get( entry.getKey() ).getUri() ) );
 			}
 		}
 
-		// If there is an exception and there are no updates, throw the exception.
-		if( exception != null && newCards.isEmpty() ) throw exception;
+		if( !oldCards.isEmpty() ) {
+			Log.write( Log.WARN, "Update discovery deadline passed with ", oldCards.size(), " descriptors pending." );
+			discovery.setComplete( false );
+			for( ProductCard oldCard : oldCards.values() ) {
+				if( listener != null ) listener.updateFailed( oldCard, discovery.getErrors().get( oldCard ) );
+			}
+		}
 
-		// Cache the discovered updates.
-		postedUpdateCacheTime = System.currentTimeMillis();
-		postedUpdateCache = new CopyOnWriteArraySet<ProductCard>( newCards );
+		// Save the measured mirror latencies and the cached descriptors.
+		saveMirrorSettings();
+		persister.markDirty( DESCRIPTORS_SETTINGS_KEY );
 
-		return newCards;
+		// Cache the discovered updates. A partial result would hide the updates
+		// of the products that did not answer in time until the cache expires.
+		if( discovery.isComplete() ) {
+			postedUpdateCache.update( discovery.getUpdates() );
+			persister.markDirty( POSTED_SETTINGS_KEY );
+		}
+
+		return discovery;
+	}
+
+	/**
+	 * Get the cached updates that are still newer than the installed products.
+	 * Cached updates may have been applied, or their products removed, since
+	 * they were found, for example when the cache was loaded after a restart.
+	 */
+	private Set<ProductCard> getCachedUpdates() {
+		Set<ProductCard> cards = new HashSet<ProductCard>();
+		for( ProductCard card : postedUpdateCache.getCards() ) {
+			ProductCard installed = productCards.get( card.getProductKey() );
+			if( installed != null && card.getRelease().compareTo( installed.getRelease() ) > 0 ) cards.add( card );
+		}
+		return cards;
+	}
+
+	/**
+	 * Refresh the posted update cache in the background. Only one refresh runs
+	 * at a time.
+	 */
+	private void refreshPostedUpdates() {
+		if( !postedUpdateRefresh.compareAndSet( false, true ) ) return;
+
+		Thread thread = new Thread( "Posted Update Refresh" ) {
+
+			@Override
+			public void run() {
+				try {
+					discoverPostedUpdates( getDiscoveryTimeout(), null );
+				} catch( Exception exception ) {
+					Log.write( exception );
+				} finally {
+					postedUpdateRefresh.set( false );
+				}
+			}
+
+		};
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Get the card of a posted product descriptor. A descriptor that was not
+	 * modified is taken from the descriptor cache, otherwise the card is parsed
+	 * from the downloaded descriptor and cached.
+	 */
+	private ProductCard getPostedCard( DescriptorDownloadTask task, Descriptor descriptor ) throws IOException, ProductCardException {
+		String key = getDescriptorKey( task.getUri() );
+
+		if( descriptor == null ) {
+			CachedDescriptor cached = descriptors.get( key );
+			if( cached == null ) throw new IOException( "Descriptor no longer cached: " + task.getUri() );
+			Log.write( Log.TRACE, "Descriptor not modified: ", task.getUri() );
+			return cached.getCard();
+		}
+
+		ProductCard card = new ProductCard( task.getUri(), descriptor );
+		CachedDescriptor cached = new CachedDescriptor( task.getUri(), task.getEtag(), task.getLastModified(), card );
+		if( cached.hasValidators() ) {
+			descriptors.put( key, cached );
+		} else {
+			descriptors.remove( key );
+		}
+		return card;
+	}
+
+	private static String getDescriptorKey( URI uri ) {
+		return DigestUtil.getKey( uri.toString() );
 	}
 
 	public boolean cacheSelectedUpdates( Set<ProductCard> packs ) throws Exception {
@@ -538,10 +856,71 @@ public class ProductManager extends Agent implements Persistent {
 	 */
 	public int stagePostedUpdates() throws Exception {
 		if( !isEnabled() ) return 0;
-		stageSelectedUpdates( getPostedUpdates( true ) );
+
+		// Start staging each update as soon as it is discovered.
+		final UpdateStager stager = new UpdateStager();
+		UpdateDiscovery discovery;
+		try {
+			discovery = discoverPostedUpdates( getDiscoveryTimeout(), new PostedUpdateListener() {
+
+				@Override
+				public void updateFound( ProductCard card ) {
+					stager.stage( card );
+				}
+
+				@Override
+				public void updateFailed( ProductCard card, Throwable throwable ) {
+					Log.write( Log.WARN, "Unable to check for update: ", card, ": ", throwable.getMessage() );
+				}
+
+			} );
+		} finally {
+			stager.finish();
+		}
+
+		// If there is an exception and there are no updates, throw the exception.
+		if( discovery.getUpdates().isEmpty() && !discovery.getErrors().isEmpty() ) {
+			Throwable throwable = discovery.getErrors().values().iterator().next();
+			if( throwable instanceof Exception ) throw (Exception)throwable;
+			throw new ExecutionException( throwable );
+		}
+
 		return updates.size();
 	}
 
+	/**
+	 * Get the time allowed for all the product descriptors to arrive during an
+	 * update check.
+	 */
+	private long getDiscoveryTimeout() {
+		return service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH ).getLong( "discovery/timeout", DISCOVERY_TIMEOUT );
+	}
+
+	/**
+	 * Get the scheduler used for product downloads. The scheduler is created
+	 * with the limits in the download settings when first needed.
+	 */
+	public synchronized DownloadScheduler getDownloadScheduler() {
+		if( downloadScheduler == null ) {
+			Settings settings = service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH );
+			int total = settings.getInt( "limit/total", DownloadScheduler.DEFAULT_TOTAL_LIMIT );
+			int host = settings.getInt( "limit/host", DownloadScheduler.DEFAULT_HOST_LIMIT );
+			long bytes = settings.getLong( "limit/bytes", DownloadScheduler.DEFAULT_BYTE_LIMIT );
+			downloadScheduler = new DownloadScheduler( total, host, bytes );
+		}
+		return downloadScheduler;
+	}
+
+	/**
+	 * Get the folder where partial downloads are kept so they can be resumed
+	 * after an interruption or a service restart.
+	 *
+	 * @return
+	 */
+	public File getDownloadFolder() {
+		return new File( service.getDataFolder(), DOWNLOAD_FOLDER_NAME );
+	}
+
 	public File getProductInstallFolder( ProductCard card ) {
 		File installFolder = new File( service.getDataFolder(), Service.MODULE_INSTALL_FOLDER_NAME );
 		return new File( installFolder, card.getGroup() + "." + card.getArtifact() );
@@ -556,115 +935,100 @@ public class ProductManager extends Agent implements Persistent {
 	 * @throws Exception
 	 */
 	public Map<ProductCard, Set<ProductResource>> stageSelectedUpdates( Set<ProductCard> updateCards ) throws IOException {
-		Map<ProductCard, Set<ProductResource>> productResources = new HashMap<ProductCard, Set<ProductResource>>();
-
 		if( updateCards.size() == 0 ) return null;
 
-		File stageFolder = new File( service.getDataFolder(), UPDATE_FOLDER_NAME );
-		stageFolder.mkdirs();
-
 		Log.write( Log.TRACE, "Number of packs to stage: " + updateCards.size() );
-		Log.write( Log.DEBUG, "Pack stage folder: " + stageFolder );
-
-		// Download the product resources.
-		productResources = downloadProductResources( updateCards );
 
-		// Create an update for each product.
+		UpdateStager stager = new UpdateStager();
 		for( ProductCard updateCard : updateCards ) {
-			ProductCard productCard = productCards.get( updateCard.getProductKey() );
+			stager.stage( updateCard );
+		}
+		return stager.finish();
+	}
 
-			// Verify the resources have all been staged successfully.
-			Set<ProductResource> resources = productResources.get( updateCard );
-			if( !areResourcesValid( resources ) ) continue;
+	/**
+	 * Create the update pack for a product from its downloaded resources.
+	 *
+	 * @return The update or null if the update could not be staged.
+	 */
+	private ProductUpdate stageUpdate( ProductCard updateCard, Map<ProductCard, Set<ProductResource>> productResources, File stageFolder ) throws IOException {
+		ProductCard productCard = productCards.get( updateCard.getProductKey() );
 
-			File installFolder = productCard.getInstallFolder();
-			boolean installFolderValid = installFolder != null && installFolder.exists();
+		// Verify the resources have all been staged successfully.
+		Set<ProductResource> resources = productResources.get( updateCard );
+		if( isPatch( resources ) && !areResourcesValid( resources ) ) resources = downloadFullResources( updateCard, productResources );
+		if( resources == null || !areResourcesValid( resources ) ) return null;
 
-			if( !installFolderValid ) {
-				Log.write( Log.ERROR, "Error staging update for: " + productCard.getProductKey() );
-				Log.write( Log.ERROR, "Invalid install folder: " + installFolder );
-			}
+		File installFolder = productCard.getInstallFolder();
+		boolean installFolderValid = installFolder != null && installFolder.exists();
 
-			// Check that the product is known and installed.
-			if( productCard == null || !installFolderValid ) {
-				Log.write( Log.WARN, "Update not staged: " + updateCard );
-				continue;
-			}
+		if( !installFolderValid ) {
+			Log.write( Log.ERROR, "Error staging update for: " + productCard.getProductKey() );
+			Log.write( Log.ERROR, "Invalid install folder: " + installFolder );
+		}
 
-			File updatePack = new File( stageFolder, getStagedUpdateFileName( updateCard ) );
-			createUpdatePack( productResources.get( updateCard ), updatePack );
+		// Check that the product is known and installed.
+		if( productCard == null || !installFolderValid ) {
+			Log.write( Log.WARN, "Update not staged: " + updateCard );
+			return null;
+		}
 
-			ProductUpdate update = new ProductUpdate( updateCard, updatePack, installFolder );
+		File updatePack = new File( stageFolder, getStagedUpdateFileName( updateCard ) );
+		if( isPatch( resources ) ) {
+			try {
+				createPatchedUpdatePack( resources.iterator().next(), installFolder, updatePack );
+			} catch( IOException exception ) {
+				Log.write( Log.WARN, "Patch not applied, using full pack: ", updateCard, ": ", exception.getMessage() );
+				resources = downloadFullResources( updateCard, productResources );
+				if( !areResourcesValid( resources ) ) return null;
+				createUpdatePack( resources, updatePack );
+			}
+		} else {
+			createUpdatePack( resources, updatePack );
+		}
 
-			// Remove any old staged updates for this product.
-			updates.remove( update );
+		return new ProductUpdate( updateCard, updatePack, installFolder );
+	}
 
-			// Add the update to the set of staged updates.
-			updates.put( update.getCard().getProductKey(), update );
+	void addStagedUpdate( ProductUpdate update ) {
+		ProductCard updateCard = update.getCard();
 
-			// Notify listeners the update is staged.
-			fireProductManagerEvent( new ProductManagerEvent( this, ProductManagerEvent.Type.PRODUCT_STAGED, updateCard ) );
+		// Add the update to the staged updates, replacing any old staged update for this product.
+		updates.put( update );
 
-			Log.write( Log.TRACE, "Update staged: ", updateCard.getName(), " ", updateCard.getRelease() );
-			Log.write( Log.TRACE, "Update pack:   ", updatePack );
-		}
-		saveSettings( settings );
+		// Notify listeners the update is staged.
+		fireProductManagerEvent( new ProductManagerEvent( this, ProductManagerEvent.Type.PRODUCT_STAGED, updateCard ) );
 
-		return productResources;
+		Log.write( Log.TRACE, "Update staged: ", updateCard.getName(), " ", updateCard.getRelease() );
+		Log.write( Log.TRACE, "Update pack:   ", update.getSource() );
 	}
 
 	public String getStagedUpdateFileName( ProductCard card ) {
 		return card.getGroup() + "." + card.getArtifact() + ".pak";
 	}
 
+	/**
+	 * Get the cards of the staged updates. The returned set is an unmodifiable
+	 * snapshot of the staged update index.
+	 */
 	public Set<ProductCard> getStagedUpdates() {
-		Set<ProductUpdate> staged = new HashSet<ProductUpdate>();
-		Set<ProductUpdate> remove = new HashSet<ProductUpdate>();
-
-		for( ProductUpdate update : updates.values() ) {
-			if( update.getSource().exists() ) {
-				staged.add( update );
-				Log.write( Log.DEBUG, "Staged update found: " + update.getSource() );
-			} else {
-				remove.add( update );
-				Log.write( Log.WARN, "Staged update missing: " + update.getSource() );
-			}
-		}
-
-		// Remove updates that cannot be found.
-		if( remove.size() > 0 ) {
-			for( ProductUpdate update : remove ) {
-				updates.remove( update );
-			}
-			saveSettings( settings );
-		}
-
-		Set<ProductCard> cards = new HashSet<ProductCard>();
-		for( ProductUpdate update : staged ) {
-			cards.add( update.getCard() );
-		}
-
-		return cards;
+		return updates.getCards();
 	}
 
 	public int getStagedUpdateCount() {
-		return getStagedUpdates().size();
+		return updates.size();
 	}
 
 	public boolean areUpdatesStaged() {
-		return getStagedUpdateCount() > 0;
+		return updates.size() > 0;
 	}
 
 	public boolean isStaged( ProductCard card ) {
-		return getStagedUpdates().contains( card );
+		return updates.contains( card );
 	}
 
 	public boolean isReleaseStaged( ProductCard card ) {
-		ProductUpdate update = updates.get( card.getProductKey() );
-		if( update == null ) return false;
-
-		ProductCard internal = update.getCard();
-		return internal != null && internal.getRelease().equals( card.getRelease() );
+		return updates.isReleaseStaged( card );
 	}
 
 	/**
@@ -722,7 +1086,7 @@ public class ProductManager extends Agent implements Persistent {
 		if( !FileUtil.copy( updaterSource, updaterTarget ) ) throw new RuntimeException( "Update library not staged: " + updaterTarget );
 
 		// Register a shutdown hook to start the updater.
-		UpdateShutdownHook updateShutdownHook = new UpdateShutdownHook( service, updates, updaterTarget, updaterLogFile, extras );
+		UpdateShutdownHook updateShutdownHook = new UpdateShutdownHook( service, updates.getUpdates(), updaterTarget, updaterLogFile, extras );
 		Runtime.getRuntime().addShutdownHook( updateShutdownHook );
 		Log.write( Log.TRACE, "Update shutdown hook registered." );
 
@@ -734,10 +1098,42 @@ public class ProductManager extends Agent implements Persistent {
 		return count;
 	}
 
+	/**
+	 * Apply the staged updates of modules in the running service instead of
+	 * restarting it. Each module is destroyed and unregistered, its class loader
+	 * is closed and its install folder is replaced with the update before the
+	 * new release is loaded, registered and created. Updates of the service
+	 * itself, and of modules that share their folder, stay staged for
+	 * applyStagedUpdates().
+	 *
+	 * @return The number of updates applied.
+	 */
+	public int applyStagedModuleUpdates() {
+		if( !isEnabled() ) return 0;
+
+		int count = 0;
+		for( ProductUpdate update : updates.getUpdates().values() ) {
+			ServiceModule module = modules.get( update.getCard().getProductKey() );
+			if( !isHotSwappable( module, update ) ) continue;
+
+			try {
+				applyModuleUpdate( module, update );
+				count++;
+			} catch( Exception exception ) {
+				Log.write( Log.WARN, "Unable to apply module update in process: ", update.getCard().getProductKey() );
+				Log.write( exception );
+			}
+		}
+
+		if( count > 0 ) persister.markDirty( UPDATES_SETTINGS_KEY );
+
+		return count;
+	}
+
 	public void clearStagedUpdates() {
 		// Remove the updates settings.
 		updates.clear();
-		saveSettings( settings );
+		persister.markDirty( UPDATES_SETTINGS_KEY );
 	}
 
 	public void loadProducts( File... folders ) throws Exception {
@@ -760,20 +1156,25 @@ public class ProductManager extends Agent implements Persistent {
 			// Look for normal modules (most common).
 			File[] moduleFolders = folder.listFiles( FileUtil.FOLDER_FILTER );
 			for( File moduleFolder : moduleFolders ) {
-				Log.write( Log.DEBUG, "Searching for module in: " + moduleFolder.toURI() );
-
-				jars = moduleFolder.listFiles( FileUtil.JAR_FILE_FILTER );
-				for( File jar : jars ) {
-					try {
-						URI uri = URI.create( "jar:" + jar.toURI().toASCIIString() + "!/" + PRODUCT_DESCRIPTOR_PATH );
-						ProductCard card = new ProductCard( jar.getParentFile().toURI(), new Descriptor( uri ) );
-						if( !isReservedProduct( card ) ) loadNormalModule( card, moduleFolder.toURI(), parent );
-					} catch( FileNotFoundException exception ) {
-						// Not finding a product card is a common situation with dependencies.
-					} catch( Throwable throwable ) {
-						Log.write( throwable, jar );
-					}
-				}
+				loadNormalModules( moduleFolder, parent );
+			}
+		}
+	}
+
+	private void loadNormalModules( File moduleFolder, ClassLoader parent ) {
+		Log.write( Log.DEBUG, "Searching for module in: " + moduleFolder.toURI() );
+
+		File[] jars = moduleFolder.listFiles( FileUtil.JAR_FILE_FILTER );
+		if( jars == null ) return;
+		for( File jar : jars ) {
+			try {
+				URI uri = URI.create( "jar:" + jar.toURI().toASCIIString() + "!/" + PRODUCT_DESCRIPTOR_PATH );
+				ProductCard card = new ProductCard( jar.getParentFile().toURI(), new Descriptor( uri ) );
+				if( !isReservedProduct( card ) ) loadNormalModule( card, moduleFolder.toURI(), parent );
+			} catch( FileNotFoundException exception ) {
+				// Not finding a product card is a common situation with dependencies.
+			} catch( Throwable throwable ) {
+				Log.write( throwable, jar );
 			}
 		}
 	}
@@ -816,19 +1217,32 @@ public class ProductManager extends Agent implements Persistent {
 
 		// Load the product updates.
 		Map<String, ProductUpdate> updatesMap = new ConcurrentHashMap<String, ProductUpdate>();
-		Map<String, Settings> updatesSettings = settings.getNodeMap( UPDATES_SETTINGS_KEY, this.updates );
+		Map<String, Settings> updatesSettings = settings.getNodeMap( UPDATES_SETTINGS_KEY, this.updates.getUpdates() );
 		for( String key : updatesSettings.keySet() ) {
 			Settings updateSettings = updatesSettings.get( key );
 			ProductUpdate update = new ProductUpdate();
 			update.loadSettings( updateSettings );
 			updatesMap.put( key, update );
 		}
-		this.updates = updatesMap;
+		this.updates.load( updatesMap );
+
+		// Load the cached product descriptors.
+		Map<String, CachedDescriptor> descriptorsMap = new ConcurrentHashMap<String, CachedDescriptor>();
+		Map<String, Settings> descriptorsSettings = settings.getNodeMap( DESCRIPTORS_SETTINGS_KEY, this.descriptors );
+		for( String key : descriptorsSettings.keySet() ) {
+			CachedDescriptor descriptor = new CachedDescriptor();
+			descriptor.loadSettings( descriptorsSettings.get( key ) );
+			descriptorsMap.put( key, descriptor );
+		}
+		this.descriptors = descriptorsMap;
+
+		// Load the posted updates found before the service restarted.
+		postedUpdateCache.loadSettings( settings.getNode( POSTED_SETTINGS_KEY ) );
 
 		String checkOptionDefault = CheckOption.MANUAL.name().toLowerCase();
 		String foundOptionDefault = FoundOption.STORE.name().toLowerCase();
 		String applyOptionDefault = ApplyOption.IGNORE.name().toLowerCase();
-		Settings updateSettings = settings.getNode( "update" );
+		Settings updateSettings = settings.getNode( UPDATE_SETTINGS_KEY );
 		this.checkOption = CheckOption.valueOf( updateSettings.get( CHECK, checkOptionDefault ).toUpperCase() );
 		this.foundOption = FoundOption.valueOf( updateSettings.get( FOUND, foundOptionDefault ).toUpperCase() );
 		this.applyOption = ApplyOption.valueOf( updateSettings.get( APPLY, applyOptionDefault ).toUpperCase() );
@@ -836,15 +1250,29 @@ public class ProductManager extends Agent implements Persistent {
 
 	@Override
 	public void saveSettings( Settings settings ) {
+		saveSettings( settings, null );
+	}
+
+	/**
+	 * Save the settings nodes and flush the settings.
+	 *
+	 * @param settings The product manager settings.
+	 * @param nodes The nodes to save or null to save all the nodes.
+	 */
+	private void saveSettings( Settings settings, Set<String> nodes ) {
 		if( settings == null ) return;
 
-		settings.putNodeSet( CATALOGS_SETTINGS_KEY, catalogs );
-		settings.putNodeMap( UPDATES_SETTINGS_KEY, updates );
+		if( nodes == null || nodes.contains( CATALOGS_SETTINGS_KEY ) ) settings.putNodeSet( CATALOGS_SETTINGS_KEY, catalogs );
+		if( nodes == null || nodes.contains( UPDATES_SETTINGS_KEY ) ) settings.putNodeMap( UPDATES_SETTINGS_KEY, updates.getUpdates() );
+		if( nodes == null || nodes.contains( DESCRIPTORS_SETTINGS_KEY ) ) settings.putNodeMap( DESCRIPTORS_SETTINGS_KEY, descriptors );
+		if( nodes == null || nodes.contains( POSTED_SETTINGS_KEY ) ) postedUpdateCache.saveSettings( settings.getNode( POSTED_SETTINGS_KEY ) );
 
-		Settings updateSettings = settings.getNode( "update" );
-		updateSettings.put( CHECK, checkOption.name().toLowerCase() );
-		updateSettings.put( FOUND, foundOption.name().toLowerCase() );
-		updateSettings.put( APPLY, applyOption.name().toLowerCase() );
+		if( nodes == null || nodes.contains( UPDATE_SETTINGS_KEY ) ) {
+			Settings updateSettings = settings.getNode( UPDATE_SETTINGS_KEY );
+			updateSettings.put( CHECK, checkOption.name().toLowerCase() );
+			updateSettings.put( FOUND, foundOption.name().toLowerCase() );
+			updateSettings.put( APPLY, applyOption.name().toLowerCase() );
+		}
 
 		settings.flush();
 	}
@@ -932,8 +1360,50 @@ public class ProductManager extends Agent implements Persistent {
 	protected void startAgent() throws Exception {
 		cleanRemovedProducts();
 
+		// Remove abandoned partial downloads.
+		DownloadTask.cleanResumeFolder( getDownloadFolder(), PARTIAL_DOWNLOAD_TIMEOUT );
+
+		// Open the downloaded artifact store.
+		String sharedStore = service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH ).get( "store", null );
+		if( sharedStore == null || sharedStore.trim().length() == 0 ) {
+			artifactStore = new ArtifactStore( new File( service.getDataFolder(), ARTIFACT_FOLDER_NAME ) );
+		} else {
+			// Use the store shared by all the services on the host.
+			artifactStore = new ArtifactStore( new File( sharedStore.trim() ), true );
+			Log.write( Log.DEBUG, "Using shared artifact store: ", artifactStore.getRoot() );
+		}
+		artifactStore.prune( service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH ).getLong( "limit/store", DEFAULT_ARTIFACT_STORE_LIMIT ) );
+
+		// Share pooled connections between all download tasks.
+		int connections = service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH ).getInt( "connections", HttpClientTransport.DEFAULT_HOST_CONNECTION_LIMIT );
+		mirrorSelector = new MirrorSelector();
+		mirrorSelector.loadSettings( service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH + "/mirrors" ) );
+		for( ProductCatalog catalog : catalogs ) {
+			addMirrors( catalog );
+		}
+		DownloadTask.setDefaultTransport( new MirrorTransport( new HttpClientTransport( connections ), mirrorSelector ) );
+
 		service.getSettings().addSettingListener( ServiceSettingsPath.UPDATE_SETTINGS_PATH, new SettingChangeHandler() );
 
+		// Watch for staged update packs being removed.
+		updates.watch( new File( service.getDataFolder(), UPDATE_FOLDER_NAME ) );
+
+		// Write settings changes behind.
+		Settings persistSettings = service.getSettings().getNode( ServiceSettingsPath.PRODUCT_MANAGER_SETTINGS_PATH + "/" + PERSIST_SETTINGS_KEY );
+		persister.start( persistSettings.getLong( "interval", PERSIST_INTERVAL ), persistSettings.getInt( "batch", PERSIST_BATCH ) );
+
+		// Open the latest catalog index and remove the older versions.
+		File catalogIndexFile = new File( service.getDataFolder(), CATALOG_INDEX_FILE_NAME );
+		File catalogIndexVersion = CatalogIndex.getLatestVersion( catalogIndexFile );
+		if( catalogIndexVersion != null ) {
+			try {
+				catalogIndex = CatalogIndex.open( catalogIndexVersion );
+				CatalogIndex.removeVersions( catalogIndexFile, catalogIndexVersion );
+			} catch( IOException exception ) {
+				Log.write( Log.WARN, "Unable to open catalog index: ", exception.getMessage() );
+			}
+		}
+
 		// Create the update check timer.
 		timer = new Timer( true );
 
@@ -962,6 +1432,130 @@ public class ProductManager extends Agent implements Persistent {
 	@Override
 	protected void stopAgent() throws Exception {
 		if( timer != null ) timer.cancel();
+
+		updates.stopWatching();
+
+		synchronized( this ) {
+			if( downloadScheduler != null ) downloadScheduler.shutdown();
+			downloadScheduler = null;
+		}
+
+		saveMirrorSettings();
+
+		// Write the pending settings changes.
+		persister.stop();
+	}
+
+	/**
+	 * Write the pending settings changes now. This is used before another
+	 * process loads the settings, such as the replacement process of a handoff
+	 * restart.
+	 */
+	public void flushSettings() {
+		saveMirrorSettings();
+		persister.flush();
+		service.getSettings().flush();
+	}
+
+	/**
+	 * Register the mirrors of the catalog so requests to the catalog source can
+	 * be sent to the mirrors.
+	 */
+	private void addMirrors( ProductCatalog catalog ) {
+		if( mirrorSelector == null || catalog.getSourceUri() == null ) return;
+		mirrorSelector.addMirrors( catalog.getSourceUri().resolve( "." ), catalog.getMirrors() );
+	}
+
+	/**
+	 * Register the mirrors declared by the product card. Mirrors are declared as
+	 * mirror resources that are base URIs equivalent to the folder of the card
+	 * source.
+	 */
+	private void addMirrors( ProductCard card ) {
+		if( mirrorSelector == null || card.getSourceUri() == null ) return;
+
+		String[] mirrors = card.getResourceUris( "mirror" );
+		if( mirrors == null || mirrors.length == 0 ) return;
+
+		URI base = getResolvedUpdateUri( card.getSourceUri() ).resolve( "." );
+		List<URI> uris = new ArrayList<URI>();
+		for( String mirror : mirrors ) {
+			uris.add( base.resolve( mirror ) );
+		}
+		mirrorSelector.addMirrors( base, uris );
+	}
+
+	private void saveMirrorSettings() {
+		if( mirrorSelector == null ) return;
+		mirrorSelector.saveSettings( service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH + "/mirrors" ) );
+	}
+
+	/**
+	 * Check if the module can be updated in process. Only normal modules that
+	 * are loaded by their own class loader from the update target are.
+	 */
+	private boolean isHotSwappable( ServiceModule module, ProductUpdate update ) {
+		if( module == null || update.getSource() == null || update.getTarget() == null ) return false;
+		if( !( module.getClass().getClassLoader() instanceof ProductClassLoader ) ) return false;
+
+		// Simple modules share the module folder with other modules.
+		File folder = module.getCard().getInstallFolder();
+		if( folder == null || folder.equals( homeModuleFolder ) || folder.equals( userProductFolder ) ) return false;
+
+		return folder.getAbsoluteFile().equals( update.getTarget().getAbsoluteFile() );
+	}
+
+	private void applyModuleUpdate( ServiceModule module, ProductUpdate update ) throws Exception {
+		ProductCard card = module.getCard();
+		String key = card.getProductKey();
+		File target = update.getTarget();
+		File next = new File( target.getParentFile(), target.getName() + ".next" );
+		File previous = new File( target.getParentFile(), target.getName() + ".previous" );
+		ClassLoader parent = getClass().getClassLoader();
+
+		// Extract the update while the old release is still running.
+		FileUtil.delete( next );
+		FileUtil.delete( previous );
+		new PackExtractor().extract( Collections.singleton( update.getSource() ), next );
+
+		long start = System.currentTimeMillis();
+		boolean enabled = isEnabled( card );
+
+		// Stop and unload the old release.
+		if( enabled ) setEnabledImpl( card, false );
+		modules.remove( key );
+		unregisterProduct( module );
+		( (ProductClassLoader)module.getClass().getClassLoader() ).close();
+
+		// Swap the install folders and load the new release.
+		try {
+			Files.move( target.toPath(), previous.toPath() );
+			Files.move( next.toPath(), target.toPath() );
+			loadNormalModules( target, parent );
+			if( modules.get( key ) == null ) throw new IOException( "Updated module not loaded: " + key );
+		} catch( Exception exception ) {
+			// Restore the old release.
+			if( previous.exists() ) {
+				FileUtil.delete( target );
+				Files.move( previous.toPath(), target.toPath() );
+			}
+			FileUtil.delete( next );
+			loadNormalModules( target, parent );
+			if( modules.get( key ) != null && enabled ) setEnabledImpl( modules.get( key ).getCard(), true );
+			throw exception;
+		}
+
+		// Start the new release.
+		ProductCard newCard = modules.get( key ).getCard();
+		if( enabled ) setEnabledImpl( newCard, true );
+		FileUtil.delete( previous );
+
+		// The update is applied.
+		updates.remove( key );
+		update.getSource().delete();
+
+		Log.write( Log.TRACE, "Module updated in process in ", System.currentTimeMillis() - start, "ms: ", key, " ", newCard.getRelease() );
+		fireProductManagerEvent( new ProductManagerEvent( this, Type.PRODUCT_UPDATED, newCard ) );
 	}
 
 	private boolean isReservedProduct( ProductCard card ) {
@@ -1069,7 +1663,19 @@ public class ProductManager extends Agent implements Persistent {
 		return products;
 	}
 
+	/**
+	 * Create the update pack by writing the downloaded resources directly into
+	 * the pack. If the pack cannot be written directly the resources are copied
+	 * to a temporary folder and zipped.
+	 */
 	private void createUpdatePack( Set<ProductResource> resources, File update ) throws IOException {
+		try( UpdatePackWriter writer = new UpdatePackWriter( update ) ) {
+			writer.addResources( resources );
+			return;
+		} catch( ZipException exception ) {
+			Log.write( Log.WARN, "Unable to stream update pack: ", exception.getMessage() );
+		}
+
 		File updateFolder = FileUtil.createTempFolder( "update", "folder" );
 
 		copyProductResources( resources, updateFolder );
@@ -1079,13 +1685,73 @@ public class ProductManager extends Agent implements Persistent {
 		FileUtil.zip( updateFolder, update );
 	}
 
+	/**
+	 * Create the update pack by applying the patch to the installed product
+	 * files.
+	 */
+	private void createPatchedUpdatePack( ProductResource patch, File installFolder, File update ) throws IOException {
+		File updateFolder = FileUtil.createTempFolder( "update", "folder" );
+
+		try {
+			ProductPatch.apply( patch.getLocalFile(), installFolder, updateFolder );
+			FileUtil.zip( updateFolder, update );
+		} finally {
+			FileUtil.delete( updateFolder );
+		}
+
+		Log.write( Log.DEBUG, "Update pack rebuilt from patch: ", patch.getUri() );
+	}
+
+	private boolean isPatch( Set<ProductResource> resources ) {
+		return resources != null && resources.size() == 1 && resources.iterator().next().getType() == ProductResource.Type.PATCH;
+	}
+
+	/**
+	 * Download the full resources of a product when a patch cannot be used.
+	 */
+	private Set<ProductResource> downloadFullResources( ProductCard card, Map<ProductCard, Set<ProductResource>> productResources ) {
+		Set<ProductResource> resources = downloadProductResources( Collections.singleton( card ), false ).get( card );
+		if( resources != null ) productResources.put( card, resources );
+		return resources;
+	}
+
+	/**
+	 * Select the resources to download for a product. When delta updates are
+	 * enabled and there is a patch from the installed release only the patch is
+	 * downloaded. Otherwise patches are ignored.
+	 */
+	private Set<ProductResource> selectResources( ProductCard card, Set<ProductResource> resources, boolean delta ) {
+		ProductCard installed = delta ? productCards.get( card.getProductKey() ) : null;
+		String release = installed == null ? null : installed.getRelease().getVersion().toString();
+
+		Set<ProductResource> selected = new HashSet<ProductResource>();
+		for( ProductResource resource : resources ) {
+			if( resource.getType() != ProductResource.Type.PATCH ) {
+				selected.add( resource );
+			} else if( release != null && release.equals( resource.getFromRelease() ) ) {
+				Log.write( Log.DEBUG, "Patch from release ", release, ": ", resource.getUri() );
+				selected.clear();
+				selected.add( resource );
+				return selected;
+			}
+		}
+
+		return selected;
+	}
+
 	private void copyProductResources( Set<ProductResource> resources, File folder ) throws IOException {
 		if( resources == null ) return;
 
+		// Consecutive packs are extracted together. Packs are extracted before a
+		// following file is copied so later resources still replace earlier ones.
+		List<File> packs = new ArrayList<File>();
 		for( ProductResource resource : resources ) {
 			if( resource.getLocalFile() == null ) continue;
 			switch( resource.getType() ) {
 				case FILE: {
+					new PackExtractor().extract( packs, folder );
+					packs.clear();
+
 					// Just copy the file.
 					String path = resource.getUri().getPath();
 					String name = path.substring( path.lastIndexOf( "/" ) + 1 );
@@ -1094,27 +1760,62 @@ public class ProductManager extends Agent implements Persistent {
 					break;
 				}
 				case PACK: {
-					// Unpack the file.
-					FileUtil.unzip( resource.getLocalFile(), folder );
+					// Unpack the files together below.
+					packs.add( resource.getLocalFile() );
 					break;
 				}
 			}
 		}
+
+		new PackExtractor().extract( packs, folder );
 	}
 
 	private Map<ProductCard, Set<ProductResource>> downloadProductResources( Set<ProductCard> cards ) {
+		return downloadProductResources( cards, false );
+	}
+
+	private Map<ProductCard, Set<ProductResource>> downloadProductResources( Set<ProductCard> cards, boolean delta ) {
+		Map<ProductCard, Set<ProductResource>> productResources = submitProductResources( cards, delta, null );
+
+		// Wait for all resources to be downloaded.
+		for( ProductCard card : cards ) {
+			Set<ProductResource> resources = productResources.get( card );
+			if( resources != null ) waitForProductResources( resources );
+		}
+
+		return productResources;
+	}
+
+	/**
+	 * Submit the download tasks of the product resources without waiting for the
+	 * downloads to finish. Finished downloads are added to the completion queue
+	 * if there is one.
+	 */
+	private Map<ProductCard, Set<ProductResource>> submitProductResources( Set<ProductCard> cards, boolean delta, BlockingQueue<Future<Download>> completion ) {
+		Settings downloadSettings = service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH );
+		int segments = downloadSettings.getInt( "segments", 1 );
+
 		// Determine all the resources to download.
 		Map<ProductCard, Set<ProductResource>> productResources = new HashMap<ProductCard, Set<ProductResource>>();
 		for( ProductCard card : cards ) {
 			try {
-				Set<ProductResource> resources = new PackProvider( card, service.getTaskManager() ).getResources();
+				Set<ProductResource> resources = selectResources( card, new PackProvider( card, service.getTaskManager() ).getResources(), delta );
+				DownloadScheduler.Priority priority = card.getProductKey().equals( service.getCard().getProductKey() ) ? DownloadScheduler.Priority.SERVICE : DownloadScheduler.Priority.MODULE;
 
 				for( ProductResource resource : resources ) {
 					URI uri = getResolvedUpdateUri( resource.getUri() );
 					Log.write( Log.DEBUG, "Resource source: " + uri );
 
 					// Submit task to download resource.
-					resource.setFuture( service.getTaskManager().submit( new DownloadTask( uri ) ) );
+					DownloadTask task = new DownloadTask( uri );
+					task.setSegmentCount( segments );
+					task.setResumeFolder( getDownloadFolder() );
+					task.setArtifactStore( artifactStore );
+					task.setCategory( resource.getType().name().toLowerCase() );
+					for( Map.Entry<String, String> entry : resource.getDeclaredDigests().entrySet() ) {
+						task.setExpectedDigest( entry.getKey(), entry.getValue() );
+					}
+					resource.setFuture( getDownloadScheduler().submit( task, priority, completion ) );
 				}
 
 				productResources.put( card, resources );
@@ -1123,25 +1824,27 @@ public class ProductManager extends Agent implements Persistent {
 			}
 		}
 
-		// Wait for all resources to be downloaded.
-		for( ProductCard card : cards ) {
-			Set<ProductResource> resources = productResources.get( card );
-			for( ProductResource resource : resources ) {
-				try {
-					resource.waitFor();
-					Log.write( Log.DEBUG, "Resource target: " + resource.getLocalFile() );
+		return productResources;
+	}
+
+	/**
+	 * Wait for the resources of one product to be downloaded.
+	 */
+	private void waitForProductResources( Set<ProductResource> resources ) {
+		for( ProductResource resource : resources ) {
+			try {
+				resource.waitFor();
+				Log.write( Log.DEBUG, "Resource target: " + resource.getLocalFile() );
+				if( resource.isVerified() ) Log.write( Log.DEBUG, "Resource digest: " + resource.getDigest() );
 
-					// TODO Verify resources are secure by checking digital signatures.
-					// Reference: http://docs.oracle.com/javase/6/docs/technotes/guides/security/crypto/HowToImplAProvider.html#CheckJARFile
+				// TODO Verify resources are secure by checking digital signatures.
+				// Reference: http://docs.oracle.com/javase/6/docs/technotes/guides/security/crypto/HowToImplAProvider.html#CheckJARFile
 
-				} catch( Exception exception ) {
-					resource.setThrowable( exception );
-					Log.write( exception );
-				}
+			} catch( Exception exception ) {
+				resource.setThrowable( exception );
+				Log.write( exception );
 			}
 		}
-
-		return productResources;
 	}
 
 	/**
@@ -1356,6 +2059,147 @@ public class ProductManager extends Agent implements Persistent {
 
 	}
 
+	/**
+	 * Stages updates in a pipeline. The resources of each product start
+	 * downloading when the product is added and each product is staged as soon
+	 * as its own resources are downloaded. The stage threads are only given
+	 * products whose downloads are done so they are never parked waiting on a
+	 * download. The staged updates are recorded in the order they finish.
+	 */
+	private final class UpdateStager {
+
+		private File stageFolder;
+
+		private boolean delta;
+
+		private ExecutorService executor;
+
+		private CompletionService<ProductUpdate> completion;
+
+		private Map<ProductCard, Set<ProductResource>> productResources;
+
+		private ResourceTracker<ProductCard> downloads;
+
+		private int pending;
+
+		private IOException exception;
+
+		public UpdateStager() {
+			stageFolder = new File( service.getDataFolder(), UPDATE_FOLDER_NAME );
+			stageFolder.mkdirs();
+			Log.write( Log.DEBUG, "Pack stage folder: " + stageFolder );
+
+			delta = service.getSettings().getNode( ServiceSettingsPath.DOWNLOAD_SETTINGS_PATH ).getBoolean( "delta", false );
+			executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new StageThreadFactory() );
+			completion = new ExecutorCompletionService<ProductUpdate>( executor );
+			productResources = new ConcurrentHashMap<ProductCard, Set<ProductResource>>();
+			downloads = new ResourceTracker<ProductCard>();
+		}
+
+		/**
+		 * Start downloading the resources of the product and stage the update
+		 * when they are downloaded.
+		 */
+		public void stage( ProductCard updateCard ) {
+			Map<ProductCard, Set<ProductResource>> submitted = submitProductResources( Collections.singleton( updateCard ), delta, downloads.getQueue() );
+			productResources.putAll( submitted );
+
+			List<Future<Download>> futures = new ArrayList<Future<Download>>();
+			Set<ProductResource> resources = submitted.get( updateCard );
+			if( resources != null ) {
+				for( ProductResource resource : resources ) {
+					futures.add( resource.getFuture() );
+				}
+			}
+			downloads.add( updateCard, futures );
+
+			// Stage the products whose downloads already finished.
+			for( ProductCard card : downloads.poll() ) {
+				submitStage( card );
+			}
+
+			// Record the updates that already finished.
+			Future<ProductUpdate> future;
+			while( ( future = completion.poll() ) != null ) {
+				finished( future );
+			}
+		}
+
+		/**
+		 * Wait for all the products to be staged.
+		 *
+		 * @return The resources of each product.
+		 */
+		public Map<ProductCard, Set<ProductResource>> finish() throws IOException {
+			try {
+				while( downloads.getPendingCount() > 0 ) {
+					submitStage( downloads.take() );
+
+					Future<ProductUpdate> future;
+					while( ( future = completion.poll() ) != null ) {
+						finished( future );
+					}
+				}
+
+				while( pending > 0 ) {
+					finished( completion.take() );
+				}
+			} catch( InterruptedException interruptedException ) {
+				throw new InterruptedIOException( "Update staging interrupted" );
+			} finally {
+				executor.shutdownNow();
+				persister.markDirty( UPDATES_SETTINGS_KEY );
+			}
+
+			if( exception != null ) throw exception;
+
+			return productResources;
+		}
+
+		/**
+		 * Stage a product whose resources are downloaded.
+		 */
+		private void submitStage( final ProductCard updateCard ) {
+			completion.submit( new Callable<ProductUpdate>() {
+
+				@Override
+				public ProductUpdate call() throws Exception {
+					Set<ProductResource> resources = productResources.get( updateCard );
+					if( resources != null ) waitForProductResources( resources );
+					return stageUpdate( updateCard, productResources, stageFolder );
+				}
+
+			} );
+			pending++;
+		}
+
+		private void finished( Future<ProductUpdate> future ) {
+			pending--;
+			try {
+				ProductUpdate update = future.get();
+				if( update != null ) addStagedUpdate( update );
+			} catch( InterruptedException interruptedException ) {
+				Thread.currentThread().interrupt();
+			} catch( ExecutionException executionException ) {
+				Throwable cause = executionException.getCause();
+				Log.write( cause );
+				if( exception == null ) exception = cause instanceof IOException ? (IOException)cause : new IOException( cause );
+			}
+		}
+
+	}
+
+	private static final class StageThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Update Stager" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
 	private final class UpdateCheckTask extends TimerTask {
 
 		private ProductManager productManager;
@@ -1371,6 +2215,24 @@ public class ProductManager extends Agent implements Persistent {
 
 	}
 
+	private final class SettingsWriter implements SettingsPersister.Writer {
+
+		@Override
+		public void write( Set<String> nodes ) {
+			saveSettings( settings, nodes );
+		}
+
+	}
+
+	private final class StagedUpdateHandler implements StagedUpdateIndex.Listener {
+
+		@Override
+		public void updatesRemoved( Set<ProductUpdate> removed ) {
+			persister.markDirty( UPDATES_SETTINGS_KEY );
+		}
+
+	}
+
 	private final class SettingChangeHandler implements SettingListener {
 
 		@Override
@@ -0,0 +1,291 @@
+package com.parallelsymmetry.service.product;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A product patch rebuilds the files of a new product release from the files of
+ * the installed release. The patch is a zip file with an index of every file in
+ * the new release. Each file is either kept from the installed release, added
+ * from the patch or, for jar files, rebuilt from the entries of the installed
+ * jar and the changed entries in the patch. Every kept file and entry is
+ * checked against the CRC recorded in the index so a patch never applies to
+ * modified files.
+ * <p>
+ * Index lines have the form: <code>action crc path</code>
+ */
+public final class ProductPatch {
+
+	static final String INDEX_ENTRY = "patch.index";
+
+	static final String FILE_PREFIX = "file/";
+
+	static final String JAR_PREFIX = "jar/";
+
+	private static final String JAR_INDEX_EXTENSION = ".index";
+
+	private static final String KEEP = "keep";
+
+	private static final String ADD = "add";
+
+	private static final String JAR = "jar";
+
+	private ProductPatch() {}
+
+	/**
+	 * Create a patch that rebuilds the target folder from the source folder.
+	 *
+	 * @param source The folder with the files of the old release.
+	 * @param target The folder with the files of the new release.
+	 * @param patch The patch file to create.
+	 */
+	public static void create( File source, File target, File patch ) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		listFiles( target, "", paths );
+
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( patch ) ) ) {
+			StringBuilder index = new StringBuilder();
+			for( String path : paths ) {
+				File newFile = new File( target, path );
+				File oldFile = new File( source, path );
+				long newCrc = crc( newFile );
+
+				if( oldFile.isFile() && oldFile.length() == newFile.length() && crc( oldFile ) == newCrc ) {
+					addLine( index, KEEP, newCrc, path );
+				} else if( oldFile.isFile() && isJar( path ) && isZip( oldFile ) && isZip( newFile ) ) {
+					addLine( index, JAR, crc( oldFile ), path );
+					createJarPatch( oldFile, newFile, path, output );
+				} else {
+					addLine( index, ADD, newCrc, path );
+					output.putNextEntry( new ZipEntry( FILE_PREFIX + path ) );
+					copy( newFile, output );
+					output.closeEntry();
+				}
+			}
+
+			writeEntry( output, INDEX_ENTRY, index.toString() );
+		}
+	}
+
+	/**
+	 * Apply the patch to the files in the source folder and write the files of
+	 * the new release to the target folder.
+	 *
+	 * @param patch The patch file.
+	 * @param source The folder with the files of the installed release.
+	 * @param target The folder to write the files of the new release to.
+	 * @throws IOException If the patch could not be applied.
+	 */
+	public static void apply( File patch, File source, File target ) throws IOException {
+		try( ZipFile zip = new ZipFile( patch ) ) {
+			for( String[] line : readIndex( zip, INDEX_ENTRY ) ) {
+				String action = line[0];
+				long crc = Long.parseLong( line[1], 16 );
+				String path = line[2];
+				File oldFile = new File( source, path );
+				File newFile = new File( target, path );
+				newFile.getParentFile().mkdirs();
+
+				if( KEEP.equals( action ) ) {
+					checkCrc( oldFile, crc );
+					try( InputStream input = new FileInputStream( oldFile ); OutputStream output = new FileOutputStream( newFile ) ) {
+						copy( input, output );
+					}
+				} else if( ADD.equals( action ) ) {
+					try( InputStream input = getInputStream( zip, FILE_PREFIX + path ); OutputStream output = new FileOutputStream( newFile ) ) {
+						copy( input, output );
+					}
+					checkCrc( newFile, crc );
+				} else if( JAR.equals( action ) ) {
+					checkCrc( oldFile, crc );
+					applyJarPatch( zip, path, oldFile, newFile );
+				} else {
+					throw new IOException( "Unknown patch action: " + action );
+				}
+			}
+		} catch( ZipException exception ) {
+			throw new IOException( "Invalid patch: " + patch, exception );
+		}
+	}
+
+	private static void createJarPatch( File oldJar, File newJar, String path, ZipOutputStream output ) throws IOException {
+		StringBuilder index = new StringBuilder();
+		try( ZipFile oldZip = new ZipFile( oldJar ); ZipFile newZip = new ZipFile( newJar ) ) {
+			Enumeration<? extends ZipEntry> entries = newZip.entries();
+			while( entries.hasMoreElements() ) {
+				ZipEntry entry = entries.nextElement();
+				ZipEntry oldEntry = oldZip.getEntry( entry.getName() );
+
+				if( oldEntry != null && oldEntry.getCrc() == entry.getCrc() && oldEntry.getSize() == entry.getSize() ) {
+					addLine( index, KEEP, entry.getCrc(), entry.getName() );
+				} else {
+					addLine( index, ADD, entry.getCrc(), entry.getName() );
+					output.putNextEntry( new ZipEntry( JAR_PREFIX + path + "/" + entry.getName() ) );
+					try( InputStream input = newZip.getInputStream( entry ) ) {
+						copy( input, output );
+					}
+					output.closeEntry();
+				}
+			}
+		}
+		writeEntry( output, JAR_PREFIX + path + JAR_INDEX_EXTENSION, index.toString() );
+	}
+
+	private static void applyJarPatch( ZipFile patch, String path, File oldJar, File newJar ) throws IOException {
+		try( ZipFile oldZip = new ZipFile( oldJar ); ZipOutputStream output = new ZipOutputStream( new FileOutputStream( newJar ) ) ) {
+			for( String[] line : readIndex( patch, JAR_PREFIX + path + JAR_INDEX_EXTENSION ) ) {
+				String action = line[0];
+				long crc = Long.parseLong( line[1], 16 );
+				String name = line[2];
+
+				InputStream input;
+				if( KEEP.equals( action ) ) {
+					ZipEntry entry = oldZip.getEntry( name );
+					if( entry == null || entry.getCrc() != crc ) throw new IOException( "Installed jar entry changed: " + path + "!" + name );
+					input = oldZip.getInputStream( entry );
+				} else if( ADD.equals( action ) ) {
+					input = getInputStream( patch, JAR_PREFIX + path + "/" + name );
+				} else {
+					throw new IOException( "Unknown patch action: " + action );
+				}
+
+				CRC32 check = new CRC32();
+				output.putNextEntry( new ZipEntry( name ) );
+				try {
+					byte[] buffer = new byte[8192];
+					int read;
+					while( ( read = input.read( buffer ) ) > -1 ) {
+						check.update( buffer, 0, read );
+						output.write( buffer, 0, read );
+					}
+				} finally {
+					input.close();
+				}
+				output.closeEntry();
+
+				if( check.getValue() != crc ) throw new IOException( "Patched jar entry CRC mismatch: " + path + "!" + name );
+			}
+		}
+	}
+
+	private static List<String[]> readIndex( ZipFile zip, String name ) throws IOException {
+		List<String[]> lines = new ArrayList<String[]>();
+		try( BufferedReader reader = new BufferedReader( new InputStreamReader( getInputStream( zip, name ), StandardCharsets.UTF_8 ) ) ) {
+			String line;
+			while( ( line = reader.readLine() ) != null ) {
+				if( line.length() == 0 ) continue;
+				String[] parts = line.split( " ", 3 );
+				if( parts.length < 3 ) throw new IOException( "Invalid patch index line: " + line );
+				checkPath( parts[2] );
+				lines.add( parts );
+			}
+		}
+		return lines;
+	}
+
+	private static InputStream getInputStream( ZipFile zip, String name ) throws IOException {
+		ZipEntry entry = zip.getEntry( name );
+		if( entry == null ) throw new IOException( "Patch entry not found: " + name );
+		return zip.getInputStream( entry );
+	}
+
+	private static void writeEntry( ZipOutputStream output, String name, String content ) throws IOException {
+		output.putNextEntry( new ZipEntry( name ) );
+		Writer writer = new BufferedWriter( new OutputStreamWriter( output, StandardCharsets.UTF_8 ) );
+		writer.write( content );
+		writer.flush();
+		output.closeEntry();
+	}
+
+	private static void addLine( StringBuilder index, String action, long crc, String path ) {
+		index.append( action ).append( " " ).append( Long.toHexString( crc ) ).append( " " ).append( path ).append( "\n" );
+	}
+
+	/**
+	 * Paths in a patch must stay inside the target folder.
+	 */
+	private static void checkPath( String path ) throws IOException {
+		if( path.startsWith( "/" ) || path.startsWith( "\\" ) ) throw new IOException( "Invalid patch path: " + path );
+		for( String name : path.split( "[/\\\\]" ) ) {
+			if( "..".equals( name ) ) throw new IOException( "Invalid patch path: " + path );
+		}
+	}
+
+	private static void checkCrc( File file, long crc ) throws IOException {
+		if( !file.isFile() ) throw new IOException( "Installed file missing: " + file );
+		if( crc( file ) != crc ) throw new IOException( "File CRC mismatch: " + file );
+	}
+
+	private static void listFiles( File folder, String prefix, List<String> paths ) {
+		File[] files = folder.listFiles();
+		if( files == null ) return;
+		for( File file : files ) {
+			String path = prefix + file.getName();
+			if( file.isDirectory() ) {
+				listFiles( file, path + "/", paths );
+			} else {
+				paths.add( path );
+			}
+		}
+	}
+
+	private static boolean isJar( String path ) {
+		String name = path.toLowerCase();
+		return name.endsWith( ".jar" ) || name.endsWith( ".zip" );
+	}
+
+	private static boolean isZip( File file ) {
+		// Open the whole archive so a corrupt archive is never patched.
+		try {
+			new ZipFile( file ).close();
+			return true;
+		} catch( IOException exception ) {
+			return false;
+		}
+	}
+
+	private static long crc( File file ) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		try( InputStream input = new FileInputStream( file ) ) {
+			int read;
+			while( ( read = input.read( buffer ) ) > -1 ) {
+				crc.update( buffer, 0, read );
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static void copy( File file, OutputStream output ) throws IOException {
+		try( InputStream input = new FileInputStream( file ) ) {
+			copy( input, output );
+		}
+	}
+
+	private static void copy( InputStream input, OutputStream output ) throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+		while( ( read = input.read( buffer ) ) > -1 ) {
+			output.write( buffer, 0, read );
+		}
+	}
+
+}
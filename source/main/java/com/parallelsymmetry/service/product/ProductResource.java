@@ -2,29 +2,50 @@ package com.parallelsymmetry.service.product;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.Future;
 
+import com.parallelsymmetry.service.task.DigestUtil;
 import com.parallelsymmetry.service.task.Download;
 
 public final class ProductResource {
 
 	public enum Type {
-		FILE, PACK
+		FILE, PACK, PATCH
 	};
 
 	private ProductResource.Type type;
 
 	private URI uri;
 
+	private Map<String, String> declaredDigests;
+
+	private String fromRelease;
+
 	private Future<Download> future;
 
 	private File file;
 
+	private Map<String, String> digests;
+
 	private Throwable throwable;
 
+	/**
+	 * Create a product resource. Digests declared in the URI fragment are
+	 * removed from the URI and verified when the resource is downloaded. Patch
+	 * resources declare the release version they apply to in the fragment with
+	 * the from parameter, for example: <code>patch.zip#from=1.2</code>
+	 *
+	 * @param type The resource type.
+	 * @param uri The resource URI.
+	 */
 	public ProductResource( ProductResource.Type type, URI uri ) {
 		this.type = type;
-		this.uri = uri;
+		this.uri = DigestUtil.removeFragment( uri );
+		this.declaredDigests = DigestUtil.getDeclaredDigests( uri );
+		this.fromRelease = getFragmentValue( uri, "from" );
+		this.digests = Collections.emptyMap();
 	}
 
 	public ProductResource.Type getType() {
@@ -35,14 +56,54 @@ public final class ProductResource {
 		return uri;
 	}
 
+	/**
+	 * Get the release version a patch resource applies to.
+	 *
+	 * @return The release version or null if not specified.
+	 */
+	public String getFromRelease() {
+		return fromRelease;
+	}
+
+	/**
+	 * Get the digests declared for the resource, keyed by upper case algorithm
+	 * name.
+	 */
+	public Map<String, String> getDeclaredDigests() {
+		return declaredDigests;
+	}
+
 	public void waitFor() throws Exception {
-		file = future.get().getTarget();
+		Download download = future.get();
+		file = download.getTarget();
+		digests = download.getDigests();
 	}
 
 	public File getLocalFile() {
 		return file;
 	}
 
+	/**
+	 * Get the SHA-256 digest of the local file computed while it was
+	 * downloaded.
+	 *
+	 * @return The hex encoded digest or null if the digest is not known.
+	 */
+	public String getDigest() {
+		return digests.get( DigestUtil.SHA_256 );
+	}
+
+	/**
+	 * Check if the local file was verified against the declared digests.
+	 */
+	public boolean isVerified() {
+		return file != null && !declaredDigests.isEmpty() && digests.keySet().containsAll( declaredDigests.keySet() );
+	}
+
+	Future<Download> getFuture() {
+		return future;
+	}
+
 	public void setFuture( Future<Download> future ) {
 		this.future = future;
 	}
@@ -59,6 +120,17 @@ public final class ProductResource {
 		return throwable == null;
 	}
 
+	private static String getFragmentValue( URI uri, String name ) {
+		String fragment = uri.getFragment();
+		if( fragment == null ) return null;
+
+		for( String part : fragment.split( "&" ) ) {
+			if( part.startsWith( name + "=" ) ) return part.substring( name.length() + 1 );
+		}
+
+		return null;
+	}
+
 	@Override
 	public String toString() {
 		return type.name() + ": " + uri;
@@ -0,0 +1,110 @@
+package com.parallelsymmetry.service.product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.parallelsymmetry.service.task.Download;
+
+/**
+ * Tracks the resource downloads of products and reports each product as soon
+ * as all of its downloads are done. The downloads add themselves to the
+ * completion queue when they finish, so no thread is parked waiting for a
+ * download that is still running. The tracker is used by one thread.
+ *
+ * @param <K> The product key type.
+ */
+final class ResourceTracker<K> {
+
+	private BlockingQueue<Future<Download>> queue;
+
+	private Map<Future<Download>, K> owners;
+
+	private Map<K, Integer> remaining;
+
+	private LinkedList<K> ready;
+
+	ResourceTracker() {
+		queue = new LinkedBlockingQueue<Future<Download>>();
+		owners = new HashMap<Future<Download>, K>();
+		remaining = new HashMap<K, Integer>();
+		ready = new LinkedList<K>();
+	}
+
+	/**
+	 * Get the queue the downloads are submitted with.
+	 */
+	BlockingQueue<Future<Download>> getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Track the downloads of a product. A product without downloads is ready
+	 * immediately.
+	 */
+	void add( K product, Collection<Future<Download>> downloads ) {
+		if( downloads.isEmpty() ) {
+			ready.add( product );
+			return;
+		}
+
+		remaining.put( product, downloads.size() );
+		for( Future<Download> download : downloads ) {
+			owners.put( download, product );
+		}
+	}
+
+	/**
+	 * Get the number of products that are not reported yet.
+	 */
+	int getPendingCount() {
+		return remaining.size() + ready.size();
+	}
+
+	/**
+	 * Get the products whose downloads are all done without waiting.
+	 */
+	List<K> poll() {
+		Future<Download> download;
+		while( ( download = queue.poll() ) != null ) {
+			finished( download );
+		}
+
+		List<K> products = new ArrayList<K>( ready );
+		ready.clear();
+		return products;
+	}
+
+	/**
+	 * Wait for the next product whose downloads are all done.
+	 *
+	 * @return The product or null if no products are pending.
+	 */
+	K take() throws InterruptedException {
+		while( ready.isEmpty() ) {
+			if( remaining.isEmpty() ) return null;
+			finished( queue.take() );
+		}
+		return ready.removeFirst();
+	}
+
+	private void finished( Future<Download> download ) {
+		K product = owners.remove( download );
+		if( product == null ) return;
+
+		int count = remaining.get( product ) - 1;
+		if( count > 0 ) {
+			remaining.put( product, count );
+		} else {
+			remaining.remove( product );
+			ready.add( product );
+		}
+	}
+
+}
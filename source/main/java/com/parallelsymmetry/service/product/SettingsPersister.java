@@ -0,0 +1,155 @@
+package com.parallelsymmetry.service.product;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * Writes settings behind the changes that make them dirty. Changes mark the
+ * nodes they touch as dirty and the dirty nodes are written together once per
+ * interval, or as soon as a batch of changes accumulates, so a burst of changes
+ * causes a single write. Until the persister is started, and after it is
+ * stopped, every change is written immediately. Stopping writes the pending
+ * changes.
+ */
+final class SettingsPersister {
+
+	/**
+	 * Writes the dirty nodes and flushes the settings.
+	 */
+	interface Writer {
+
+		void write( Set<String> nodes );
+
+	}
+
+	private Writer writer;
+
+	private long interval;
+
+	private int batch;
+
+	private Set<String> dirty;
+
+	private int changes;
+
+	private boolean scheduled;
+
+	private ScheduledExecutorService executor;
+
+	private Object writeLock = new Object();
+
+	SettingsPersister( Writer writer ) {
+		this.writer = writer;
+		this.dirty = new HashSet<String>();
+	}
+
+	/**
+	 * Start writing changes behind.
+	 *
+	 * @param interval The maximum time a change waits to be written in
+	 *          milliseconds.
+	 * @param batch The number of changes that are written without waiting for
+	 *          the interval.
+	 */
+	synchronized void start( long interval, int batch ) {
+		if( executor != null ) return;
+		this.interval = Math.max( 0, interval );
+		this.batch = Math.max( 1, batch );
+		executor = Executors.newSingleThreadScheduledExecutor( new PersisterThreadFactory() );
+	}
+
+	/**
+	 * Stop writing changes behind after writing the pending changes.
+	 */
+	void stop() {
+		ScheduledExecutorService executor;
+		synchronized( this ) {
+			executor = this.executor;
+			this.executor = null;
+		}
+		if( executor != null ) executor.shutdownNow();
+		flush();
+	}
+
+	synchronized boolean isStarted() {
+		return executor != null;
+	}
+
+	synchronized boolean isDirty() {
+		return !dirty.isEmpty();
+	}
+
+	/**
+	 * Mark the nodes as changed.
+	 */
+	void markDirty( String... nodes ) {
+		boolean flush;
+		synchronized( this ) {
+			for( String node : nodes ) {
+				dirty.add( node );
+			}
+			changes++;
+
+			flush = executor == null || changes >= batch;
+			if( !flush && !scheduled ) {
+				scheduled = true;
+				executor.schedule( new Runnable() {
+
+					@Override
+					public void run() {
+						flush();
+					}
+
+				}, interval, TimeUnit.MILLISECONDS );
+			}
+		}
+
+		if( flush ) flush();
+	}
+
+	/**
+	 * Write the dirty nodes now.
+	 */
+	void flush() {
+		// Writes are serialized so a later write is never overtaken.
+		synchronized( writeLock ) {
+			Set<String> nodes;
+			synchronized( this ) {
+				scheduled = false;
+				changes = 0;
+				if( dirty.isEmpty() ) return;
+				nodes = dirty;
+				dirty = new HashSet<String>();
+			}
+
+			try {
+				writer.write( nodes );
+			} catch( Throwable throwable ) {
+				Log.write( throwable );
+
+				// Keep the nodes dirty so the next flush writes them.
+				synchronized( this ) {
+					dirty.addAll( nodes );
+				}
+			}
+		}
+	}
+
+	private static final class PersisterThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Settings Persister" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.parallelsymmetry.service.product;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.parallelsymmetry.utility.log.Log;
+import com.parallelsymmetry.utility.product.ProductCard;
+
+/**
+ * The in-memory index of staged updates, keyed by product key. Queries never
+ * touch the file system. The index is kept current by the staging path and by
+ * watching the stage folder, so an update pack deleted from the stage folder is
+ * removed from the index. Every change produces new immutable snapshots that
+ * are returned directly from the query methods.
+ */
+final class StagedUpdateIndex {
+
+	/**
+	 * Notified when updates are removed because their pack was deleted.
+	 */
+	interface Listener {
+
+		void updatesRemoved( Set<ProductUpdate> updates );
+
+	}
+
+	private volatile Map<String, ProductUpdate> updates;
+
+	private volatile Set<ProductCard> cards;
+
+	private Listener listener;
+
+	private WatchService watchService;
+
+	private Thread watcher;
+
+	StagedUpdateIndex() {
+		updates = Collections.emptyMap();
+		cards = Collections.emptySet();
+	}
+
+	void setListener( Listener listener ) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Get an unmodifiable snapshot of the staged updates by product key.
+	 */
+	Map<String, ProductUpdate> getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * Get an unmodifiable snapshot of the staged update cards.
+	 */
+	Set<ProductCard> getCards() {
+		return cards;
+	}
+
+	ProductUpdate get( String productKey ) {
+		return updates.get( productKey );
+	}
+
+	int size() {
+		return updates.size();
+	}
+
+	boolean contains( ProductCard card ) {
+		return cards.contains( card );
+	}
+
+	/**
+	 * Check if the staged update of the product is the same release as the card.
+	 */
+	boolean isReleaseStaged( ProductCard card ) {
+		ProductUpdate update = updates.get( card.getProductKey() );
+		if( update == null ) return false;
+
+		ProductCard internal = update.getCard();
+		return internal != null && internal.getRelease().equals( card.getRelease() );
+	}
+
+	synchronized void put( ProductUpdate update ) {
+		Map<String, ProductUpdate> map = new HashMap<String, ProductUpdate>( updates );
+		map.put( update.getCard().getProductKey(), update );
+		publish( map );
+	}
+
+	synchronized void remove( String productKey ) {
+		Map<String, ProductUpdate> map = new HashMap<String, ProductUpdate>( updates );
+		if( map.remove( productKey ) != null ) publish( map );
+	}
+
+	synchronized void clear() {
+		publish( new HashMap<String, ProductUpdate>() );
+	}
+
+	/**
+	 * Replace the index with the updates loaded from the settings. Updates with
+	 * missing packs are dropped. This is the only time every pack is checked.
+	 *
+	 * @return The updates that were dropped.
+	 */
+	synchronized Set<ProductUpdate> load( Map<String, ProductUpdate> loaded ) {
+		Set<ProductUpdate> missing = new HashSet<ProductUpdate>();
+		Map<String, ProductUpdate> map = new HashMap<String, ProductUpdate>();
+		for( Map.Entry<String, ProductUpdate> entry : loaded.entrySet() ) {
+			ProductUpdate update = entry.getValue();
+			if( update.getSource() != null && update.getSource().exists() ) {
+				map.put( entry.getKey(), update );
+			} else {
+				missing.add( update );
+				Log.write( Log.WARN, "Staged update missing: " + update.getSource() );
+			}
+		}
+		publish( map );
+		return missing;
+	}
+
+	/**
+	 * Start watching the stage folder for deleted update packs.
+	 */
+	synchronized void watch( File folder ) {
+		if( watcher != null ) return;
+
+		try {
+			folder.mkdirs();
+			watchService = FileSystems.getDefault().newWatchService();
+			folder.toPath().register( watchService, StandardWatchEventKinds.ENTRY_DELETE );
+		} catch( IOException exception ) {
+			Log.write( Log.WARN, "Unable to watch stage folder: ", folder );
+			return;
+		}
+
+		final WatchService service = watchService;
+		final Path path = folder.getAbsoluteFile().toPath();
+		watcher = new Thread( "Staged Update Watcher" ) {
+
+			@Override
+			public void run() {
+				try {
+					while( true ) {
+						WatchKey key = service.take();
+						boolean rescan = false;
+						for( WatchEvent<?> event : key.pollEvents() ) {
+							// Events for a single file are not reliable after an overflow.
+							if( event.kind() == StandardWatchEventKinds.OVERFLOW ) rescan = true;
+							if( event.kind() == StandardWatchEventKinds.ENTRY_DELETE ) rescan = true;
+						}
+						if( rescan ) removeMissing( path );
+						if( !key.reset() ) break;
+					}
+				} catch( InterruptedException exception ) {
+					// Intentionally ignore exception.
+				} catch( ClosedWatchServiceException exception ) {
+					// Intentionally ignore exception.
+				}
+			}
+
+		};
+		watcher.setDaemon( true );
+		watcher.start();
+	}
+
+	synchronized void stopWatching() {
+		if( watcher == null ) return;
+		try {
+			watchService.close();
+		} catch( IOException exception ) {
+			Log.write( exception );
+		}
+		watcher.interrupt();
+		watcher = null;
+		watchService = null;
+	}
+
+	/**
+	 * Remove the updates in the folder whose packs no longer exist. Only called
+	 * when the folder changes.
+	 */
+	void removeMissing( Path folder ) {
+		Set<ProductUpdate> removed = new HashSet<ProductUpdate>();
+		synchronized( this ) {
+			Map<String, ProductUpdate> map = new HashMap<String, ProductUpdate>( updates );
+			for( ProductUpdate update : updates.values() ) {
+				File source = update.getSource();
+				if( source == null || !folder.equals( source.getAbsoluteFile().getParentFile().toPath() ) ) continue;
+				if( source.exists() ) continue;
+
+				map.remove( update.getCard().getProductKey() );
+				removed.add( update );
+				Log.write( Log.WARN, "Staged update removed: " + source );
+			}
+			if( removed.isEmpty() ) return;
+			publish( map );
+		}
+
+		if( listener != null ) listener.updatesRemoved( removed );
+	}
+
+	private void publish( Map<String, ProductUpdate> map ) {
+		Set<ProductCard> set = new HashSet<ProductCard>();
+		for( ProductUpdate update : map.values() ) {
+			set.add( update.getCard() );
+		}
+		updates = Collections.unmodifiableMap( map );
+		cards = Collections.unmodifiableSet( set );
+	}
+
+}
@@ -0,0 +1,63 @@
+package com.parallelsymmetry.service.product;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.parallelsymmetry.utility.product.ProductCard;
+
+/**
+ * The result of a posted update discovery. Discovery may end before every
+ * product descriptor arrives, in which case the result is partial and the
+ * products that did not finish have a TimeoutException as their error.
+ */
+public final class UpdateDiscovery {
+
+	private Set<ProductCard> updates;
+
+	private Map<ProductCard, Throwable> errors;
+
+	private boolean complete;
+
+	UpdateDiscovery() {
+		updates = new HashSet<ProductCard>();
+		errors = new HashMap<ProductCard, Throwable>();
+		complete = true;
+	}
+
+	/**
+	 * Get the cards of the posted releases newer than the installed releases.
+	 */
+	public Set<ProductCard> getUpdates() {
+		return Collections.unmodifiableSet( updates );
+	}
+
+	/**
+	 * Get the errors by installed product card.
+	 */
+	public Map<ProductCard, Throwable> getErrors() {
+		return Collections.unmodifiableMap( errors );
+	}
+
+	/**
+	 * Check if every product descriptor arrived before the deadline.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	void addUpdate( ProductCard card ) {
+		updates.add( card );
+	}
+
+	void addError( ProductCard card, Throwable throwable ) {
+		errors.put( card, throwable );
+	}
+
+	void setComplete( boolean complete ) {
+		this.complete = complete;
+	}
+
+}
@@ -0,0 +1,525 @@
+package com.parallelsymmetry.service.product;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * Writes an update pack in one pass from the downloaded product resources.
+ * Files are compressed straight into the pack and the entries of pack archives
+ * are copied without being decompressed and compressed again. Archives that
+ * cannot be copied raw, such as encrypted or ZIP64 archives, are recompressed
+ * entry by entry.
+ * <p>
+ * When resources have entries with the same name the last one wins, the same
+ * as unpacking the resources in order into one folder.
+ * <p>
+ * The pack is written with the plain zip format so it is limited to 65535
+ * entries and 4GB.
+ */
+final class UpdatePackWriter implements Closeable {
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+	private static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int LOCAL_HEADER_LENGTH = 30;
+
+	private static final int CENTRAL_HEADER_LENGTH = 46;
+
+	private static final int END_LENGTH = 22;
+
+	private static final int MAXIMUM_COMMENT_LENGTH = 0xffff;
+
+	private static final int VERSION = 20;
+
+	private static final int FLAG_ENCRYPTED = 0x0001;
+
+	private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+	private static final int FLAG_UTF8 = 0x0800;
+
+	private static final long MAXIMUM_SIZE = 0xffffffffL;
+
+	private static final int MAXIMUM_ENTRIES = 0xffff;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private FileChannel channel;
+
+	private List<Entry> entries;
+
+	private Set<String> names;
+
+	private Map<String, Long> winners;
+
+	private long candidate;
+
+	private ByteBuffer buffer;
+
+	private byte[] input;
+
+	private byte[] output;
+
+	UpdatePackWriter( File pack ) throws IOException {
+		channel = FileChannel.open( pack.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+		entries = new ArrayList<Entry>();
+		names = new HashSet<String>();
+		buffer = ByteBuffer.allocate( BUFFER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+		input = new byte[BUFFER_SIZE];
+		output = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Add the product resources to the pack. File resources are added by name
+	 * and the entries of pack resources are copied into the pack.
+	 */
+	void addResources( Set<ProductResource> resources ) throws IOException {
+		if( resources == null ) return;
+
+		// Find the last entry for each name so only that entry is written.
+		winners = new HashMap<String, Long>();
+		long ordinal = 0;
+		for( ProductResource resource : resources ) {
+			if( resource.getLocalFile() == null ) continue;
+			switch( resource.getType() ) {
+				case FILE: {
+					winners.put( getFileName( resource ), ordinal++ );
+					break;
+				}
+				case PACK: {
+					for( String name : listNames( resource.getLocalFile() ) ) {
+						winners.put( name, ordinal++ );
+					}
+					break;
+				}
+				default: {
+					break;
+				}
+			}
+		}
+
+		candidate = 0;
+		try {
+			writeResources( resources );
+		} finally {
+			winners = null;
+		}
+	}
+
+	private void writeResources( Set<ProductResource> resources ) throws IOException {
+		for( ProductResource resource : resources ) {
+			if( resource.getLocalFile() == null ) continue;
+			switch( resource.getType() ) {
+				case FILE: {
+					addFile( resource.getLocalFile(), getFileName( resource ) );
+					break;
+				}
+				case PACK: {
+					addArchive( resource.getLocalFile() );
+					break;
+				}
+				default: {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add a file to the pack as a compressed entry.
+	 */
+	void addFile( File file, String name ) throws IOException {
+		try( InputStream stream = new FileInputStream( file ) ) {
+			addStream( stream, name, toDosTime( file.lastModified() ) );
+		}
+	}
+
+	/**
+	 * Copy all the entries of the zip archive into the pack. The compressed
+	 * entry data is copied as is when possible.
+	 */
+	void addArchive( File archive ) throws IOException {
+		try( FileChannel source = FileChannel.open( archive.toPath(), StandardOpenOption.READ ) ) {
+			List<Entry> sourceEntries = null;
+			try {
+				sourceEntries = readCentralDirectory( source );
+			} catch( ZipException exception ) {
+				Log.write( Log.DEBUG, "Recompressing archive ", archive, ": ", exception.getMessage() );
+			}
+
+			if( sourceEntries != null ) {
+				for( Entry entry : sourceEntries ) {
+					copyRaw( source, entry );
+				}
+				return;
+			}
+		}
+
+		try( ZipFile zip = new ZipFile( archive ) ) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while( zipEntries.hasMoreElements() ) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				try( InputStream stream = zip.getInputStream( zipEntry ) ) {
+					addStream( stream, zipEntry.getName(), toDosTime( zipEntry.getTime() ) );
+				}
+			}
+		}
+	}
+
+	private static String getFileName( ProductResource resource ) {
+		String path = resource.getUri().getPath();
+		return path.substring( path.lastIndexOf( "/" ) + 1 );
+	}
+
+	/**
+	 * List the entry names of the archive in the order they are added to the
+	 * pack.
+	 */
+	private List<String> listNames( File archive ) throws IOException {
+		List<String> names = new ArrayList<String>();
+		try( FileChannel source = FileChannel.open( archive.toPath(), StandardOpenOption.READ ) ) {
+			try {
+				for( Entry entry : readCentralDirectory( source ) ) {
+					names.add( getName( entry ) );
+				}
+				return names;
+			} catch( ZipException exception ) {
+				// Fall back to the entries of the recompressed archive.
+			}
+		}
+
+		try( ZipFile zip = new ZipFile( archive ) ) {
+			Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while( zipEntries.hasMoreElements() ) {
+				names.add( zipEntries.nextElement().getName() );
+			}
+		}
+		return names;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			long start = channel.position();
+			for( Entry entry : entries ) {
+				writeCentralHeader( entry );
+			}
+			long size = channel.position() - start;
+			checkSize( start + size );
+
+			ByteBuffer end = allocate( END_LENGTH );
+			end.putInt( END_SIGNATURE );
+			end.putShort( (short)0 );
+			end.putShort( (short)0 );
+			end.putShort( (short)entries.size() );
+			end.putShort( (short)entries.size() );
+			end.putInt( (int)size );
+			end.putInt( (int)start );
+			end.putShort( (short)0 );
+			end.flip();
+			write( end );
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void addStream( InputStream stream, String name, long dosTime ) throws IOException {
+		if( !addName( name ) ) return;
+
+		boolean directory = name.endsWith( "/" );
+		Entry entry = new Entry();
+		entry.name = name.getBytes( StandardCharsets.UTF_8 );
+		entry.flags = FLAG_UTF8;
+		entry.method = directory ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		entry.dosTime = dosTime;
+		entry.extra = new byte[0];
+		entry.comment = new byte[0];
+		entry.offset = channel.position();
+		writeLocalHeader( entry );
+
+		if( !directory ) {
+			CRC32 crc = new CRC32();
+			Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+			try {
+				int read;
+				while( ( read = stream.read( input ) ) > -1 ) {
+					crc.update( input, 0, read );
+					entry.size += read;
+					deflater.setInput( input, 0, read );
+					while( !deflater.needsInput() ) {
+						writeDeflated( deflater );
+					}
+				}
+				deflater.finish();
+				while( !deflater.finished() ) {
+					writeDeflated( deflater );
+				}
+				entry.compressedSize = deflater.getBytesWritten();
+			} finally {
+				deflater.end();
+			}
+			entry.crc = crc.getValue();
+			checkSize( channel.position() );
+
+			// Update the header now that the sizes are known.
+			ByteBuffer sizes = allocate( 12 );
+			sizes.putInt( (int)entry.crc );
+			sizes.putInt( (int)entry.compressedSize );
+			sizes.putInt( (int)entry.size );
+			sizes.flip();
+			while( sizes.hasRemaining() ) {
+				channel.write( sizes, entry.offset + 14 + sizes.position() );
+			}
+		}
+
+		entries.add( entry );
+	}
+
+	private void copyRaw( FileChannel source, Entry sourceEntry ) throws IOException {
+		String name = getName( sourceEntry );
+		if( !addName( name ) ) return;
+
+		// The data follows the local header, which may have a different extra field.
+		ByteBuffer local = read( source, sourceEntry.offset, LOCAL_HEADER_LENGTH );
+		if( local.getInt( 0 ) != LOCAL_HEADER_SIGNATURE ) throw new ZipException( "Invalid local header: " + name );
+		long dataOffset = sourceEntry.offset + LOCAL_HEADER_LENGTH + ( local.getShort( 26 ) & 0xffff ) + ( local.getShort( 28 ) & 0xffff );
+
+		Entry entry = new Entry();
+		entry.name = sourceEntry.name;
+		entry.flags = sourceEntry.flags & ~FLAG_DATA_DESCRIPTOR;
+		entry.method = sourceEntry.method;
+		entry.dosTime = sourceEntry.dosTime;
+		entry.crc = sourceEntry.crc;
+		entry.compressedSize = sourceEntry.compressedSize;
+		entry.size = sourceEntry.size;
+		entry.extra = new byte[0];
+		entry.comment = sourceEntry.comment;
+		entry.internalAttributes = sourceEntry.internalAttributes;
+		entry.externalAttributes = sourceEntry.externalAttributes;
+		entry.offset = channel.position();
+		writeLocalHeader( entry );
+
+		source.position( dataOffset );
+		long remaining = entry.compressedSize;
+		while( remaining > 0 ) {
+			long count = channel.transferFrom( source, channel.position(), remaining );
+			if( count <= 0 ) throw new ZipException( "Truncated entry data: " + name );
+			channel.position( channel.position() + count );
+			remaining -= count;
+		}
+		checkSize( channel.position() );
+
+		entries.add( entry );
+	}
+
+	private List<Entry> readCentralDirectory( FileChannel source ) throws IOException {
+		long length = source.size();
+		int tail = (int)Math.min( length, END_LENGTH + MAXIMUM_COMMENT_LENGTH );
+		ByteBuffer end = read( source, length - tail, tail );
+
+		int index = tail - END_LENGTH;
+		while( index >= 0 && end.getInt( index ) != END_SIGNATURE ) {
+			index--;
+		}
+		if( index < 0 ) throw new ZipException( "End of central directory not found" );
+
+		int count = end.getShort( index + 10 ) & 0xffff;
+		long size = end.getInt( index + 12 ) & MAXIMUM_SIZE;
+		long offset = end.getInt( index + 16 ) & MAXIMUM_SIZE;
+		if( count == MAXIMUM_ENTRIES || size == MAXIMUM_SIZE || offset == MAXIMUM_SIZE ) throw new ZipException( "ZIP64 archives are not copied raw" );
+
+		ByteBuffer directory = read( source, offset, (int)size );
+		List<Entry> entries = new ArrayList<Entry>( count );
+		for( int entryIndex = 0; entryIndex < count; entryIndex++ ) {
+			if( directory.remaining() < CENTRAL_HEADER_LENGTH || directory.getInt() != CENTRAL_HEADER_SIGNATURE ) throw new ZipException( "Invalid central directory" );
+
+			Entry entry = new Entry();
+			directory.getShort();
+			directory.getShort();
+			entry.flags = directory.getShort() & 0xffff;
+			entry.method = directory.getShort() & 0xffff;
+			entry.dosTime = directory.getInt() & MAXIMUM_SIZE;
+			entry.crc = directory.getInt() & MAXIMUM_SIZE;
+			entry.compressedSize = directory.getInt() & MAXIMUM_SIZE;
+			entry.size = directory.getInt() & MAXIMUM_SIZE;
+			int nameLength = directory.getShort() & 0xffff;
+			int extraLength = directory.getShort() & 0xffff;
+			int commentLength = directory.getShort() & 0xffff;
+			directory.getShort();
+			entry.internalAttributes = directory.getShort() & 0xffff;
+			entry.externalAttributes = directory.getInt() & MAXIMUM_SIZE;
+			entry.offset = directory.getInt() & MAXIMUM_SIZE;
+
+			entry.name = new byte[nameLength];
+			directory.get( entry.name );
+			directory.position( directory.position() + extraLength );
+			entry.comment = new byte[commentLength];
+			directory.get( entry.comment );
+
+			if( ( entry.flags & FLAG_ENCRYPTED ) != 0 ) throw new ZipException( "Encrypted entries are not copied raw" );
+			if( entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED ) throw new ZipException( "Unsupported compression method: " + entry.method );
+			if( entry.compressedSize == MAXIMUM_SIZE || entry.size == MAXIMUM_SIZE || entry.offset == MAXIMUM_SIZE ) throw new ZipException( "ZIP64 entries are not copied raw" );
+
+			entries.add( entry );
+		}
+
+		return entries;
+	}
+
+	private static String getName( Entry entry ) {
+		return new String( entry.name, ( entry.flags & FLAG_UTF8 ) == 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Reserve the entry name. When the resources were scanned first only the
+	 * last entry with the name is added, otherwise the first one is.
+	 */
+	private boolean addName( String name ) throws IOException {
+		long ordinal = candidate++;
+		if( winners != null && winners.get( name ) != ordinal ) {
+			Log.write( Log.DEBUG, "Replaced update pack entry skipped: ", name );
+			return false;
+		}
+		if( !names.add( name ) ) {
+			Log.write( Log.DEBUG, "Duplicate update pack entry skipped: ", name );
+			return false;
+		}
+		if( names.size() >= MAXIMUM_ENTRIES ) throw new ZipException( "Too many update pack entries" );
+		return true;
+	}
+
+	private void writeLocalHeader( Entry entry ) throws IOException {
+		ByteBuffer header = allocate( LOCAL_HEADER_LENGTH + entry.name.length + entry.extra.length );
+		header.putInt( LOCAL_HEADER_SIGNATURE );
+		header.putShort( (short)VERSION );
+		header.putShort( (short)entry.flags );
+		header.putShort( (short)entry.method );
+		header.putInt( (int)entry.dosTime );
+		header.putInt( (int)entry.crc );
+		header.putInt( (int)entry.compressedSize );
+		header.putInt( (int)entry.size );
+		header.putShort( (short)entry.name.length );
+		header.putShort( (short)entry.extra.length );
+		header.put( entry.name );
+		header.put( entry.extra );
+		header.flip();
+		write( header );
+	}
+
+	private void writeCentralHeader( Entry entry ) throws IOException {
+		ByteBuffer header = allocate( CENTRAL_HEADER_LENGTH + entry.name.length + entry.extra.length + entry.comment.length );
+		header.putInt( CENTRAL_HEADER_SIGNATURE );
+		header.putShort( (short)VERSION );
+		header.putShort( (short)VERSION );
+		header.putShort( (short)entry.flags );
+		header.putShort( (short)entry.method );
+		header.putInt( (int)entry.dosTime );
+		header.putInt( (int)entry.crc );
+		header.putInt( (int)entry.compressedSize );
+		header.putInt( (int)entry.size );
+		header.putShort( (short)entry.name.length );
+		header.putShort( (short)entry.extra.length );
+		header.putShort( (short)entry.comment.length );
+		header.putShort( (short)0 );
+		header.putShort( (short)entry.internalAttributes );
+		header.putInt( (int)entry.externalAttributes );
+		header.putInt( (int)entry.offset );
+		header.put( entry.name );
+		header.put( entry.extra );
+		header.put( entry.comment );
+		header.flip();
+		write( header );
+	}
+
+	private void writeDeflated( Deflater deflater ) throws IOException {
+		int count = deflater.deflate( output );
+		if( count > 0 ) write( ByteBuffer.wrap( output, 0, count ) );
+	}
+
+	private ByteBuffer allocate( int size ) {
+		if( buffer.capacity() < size ) buffer = ByteBuffer.allocate( size ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.clear();
+		return buffer;
+	}
+
+	private void write( ByteBuffer data ) throws IOException {
+		while( data.hasRemaining() ) {
+			channel.write( data );
+		}
+	}
+
+	private static ByteBuffer read( FileChannel source, long position, int length ) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate( length ).order( ByteOrder.LITTLE_ENDIAN );
+		while( data.hasRemaining() ) {
+			if( source.read( data, position + data.position() ) < 0 ) throw new ZipException( "Unexpected end of archive" );
+		}
+		data.flip();
+		return data;
+	}
+
+	private static void checkSize( long size ) throws IOException {
+		if( size > MAXIMUM_SIZE ) throw new ZipException( "Update pack larger than 4GB" );
+	}
+
+	private static long toDosTime( long time ) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis( time );
+		int year = calendar.get( Calendar.YEAR );
+		if( year < 1980 ) return ( 1 << 21 ) | ( 1 << 16 );
+		return ( year - 1980 ) << 25 | ( calendar.get( Calendar.MONTH ) + 1 ) << 21 | calendar.get( Calendar.DAY_OF_MONTH ) << 16 | calendar.get( Calendar.HOUR_OF_DAY ) << 11 | calendar.get( Calendar.MINUTE ) << 5 | calendar.get( Calendar.SECOND ) >> 1;
+	}
+
+	private static final class Entry {
+
+		private byte[] name;
+
+		private byte[] extra;
+
+		private byte[] comment;
+
+		private int flags;
+
+		private int method;
+
+		private long dosTime;
+
+		private long crc;
+
+		private long compressedSize;
+
+		private long size;
+
+		private int internalAttributes;
+
+		private long externalAttributes;
+
+		private long offset;
+
+	}
+
+}
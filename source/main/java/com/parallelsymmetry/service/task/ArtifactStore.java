@@ -0,0 +1,441 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * A persistent, content addressed store of downloaded artifacts. Artifacts are
+ * stored once by SHA-256 digest and indexed by source URI along with the
+ * entity validators returned by the server. A download task with a store
+ * revalidates stored artifacts with a conditional request and only transfers
+ * data when the artifact changed. Identical artifacts from different URIs
+ * share one stored file.
+ * <p>
+ * Every index entry and object is published with an atomic move so a crash
+ * never leaves a partially written entry in the store.
+ * <p>
+ * A store may be shared by several processes on the same host. Downloads of a
+ * URI are serialized with a lock file so when one process is fetching an
+ * artifact the other processes wait for it and use the stored artifact
+ * instead of fetching it again.
+ */
+public class ArtifactStore {
+
+	private static final String OBJECTS_FOLDER_NAME = "objects";
+
+	private static final String INDEX_FOLDER_NAME = "index";
+
+	private static final String LOCKS_FOLDER_NAME = "locks";
+
+	private static final String INDEX_EXTENSION = ".properties";
+
+	private static final String LOCK_EXTENSION = ".lock";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final String URI_KEY = "uri";
+
+	private static final String DIGEST_KEY = "digest";
+
+	private static final String ETAG_KEY = "etag";
+
+	private static final String LAST_MODIFIED_KEY = "lastModified";
+
+	private static final String STORED_KEY = "stored";
+
+	/**
+	 * Objects used more recently than this are never pruned so artifacts in use
+	 * by a running download or install are kept.
+	 */
+	private static final long PRUNE_GRACE_PERIOD = 24 * 60 * 60 * 1000;
+
+	/**
+	 * The thread locks are shared by every store instance in the process. A
+	 * file lock is held by the process, so two instances for the same folder
+	 * must wait for each other before asking for the file lock.
+	 */
+	private static final ConcurrentMap<String, ReentrantLock> threadLocks = new ConcurrentHashMap<String, ReentrantLock>();
+
+	private File root;
+
+	private File objects;
+
+	private File index;
+
+	private File locks;
+
+	private boolean shared;
+
+	public ArtifactStore( File root ) {
+		this( root, false );
+	}
+
+	/**
+	 * Create an artifact store.
+	 *
+	 * @param root The store folder.
+	 * @param shared True if the store is shared with other processes.
+	 */
+	public ArtifactStore( File root, boolean shared ) {
+		this.root = root;
+		this.shared = shared;
+		this.objects = new File( root, OBJECTS_FOLDER_NAME );
+		this.index = new File( root, INDEX_FOLDER_NAME );
+		this.locks = new File( root, LOCKS_FOLDER_NAME );
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Lock the URI for downloading. The lock is exclusive between the threads
+	 * of this process and, for a shared store, between all the processes using
+	 * the store. The caller must close the lock. The lock file is left in place
+	 * because removing it would let another process lock a different file.
+	 *
+	 * @param uri The source URI.
+	 * @return The lock.
+	 * @throws IOException If the lock could not be acquired.
+	 */
+	public Lock lock( URI uri ) throws IOException {
+		String key = DigestUtil.getKey( uri.toString() );
+		String threadKey = root.getAbsoluteFile().toPath().normalize() + File.pathSeparator + key;
+
+		ReentrantLock threadLock = threadLocks.get( threadKey );
+		if( threadLock == null ) {
+			threadLock = new ReentrantLock();
+			ReentrantLock existing = threadLocks.putIfAbsent( threadKey, threadLock );
+			if( existing != null ) threadLock = existing;
+		}
+
+		try {
+			threadLock.lockInterruptibly();
+		} catch( InterruptedException exception ) {
+			throw new InterruptedIOException( "Interrupted waiting for artifact lock: " + uri );
+		}
+
+		if( !shared ) return new Lock( threadLock, null, null );
+
+		FileChannel channel = null;
+		try {
+			locks.mkdirs();
+			channel = FileChannel.open( new File( locks, key + LOCK_EXTENSION ).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+			return new Lock( threadLock, channel, channel.lock() );
+		} catch( IOException | RuntimeException exception ) {
+			if( channel != null ) channel.close();
+			threadLock.unlock();
+			throw exception;
+		}
+	}
+
+	/**
+	 * Get the stored file for the digest. The file may not exist.
+	 *
+	 * @param digest The hex encoded SHA-256 digest.
+	 * @return The object file.
+	 */
+	public File getObject( String digest ) {
+		return new File( new File( objects, digest.substring( 0, 2 ) ), digest );
+	}
+
+	/**
+	 * Look up the artifact stored for the URI.
+	 *
+	 * @param uri The source URI.
+	 * @return The entry or null if the artifact is not stored.
+	 */
+	public Entry lookup( URI uri ) {
+		File file = getIndexFile( uri );
+		if( !file.exists() ) return null;
+
+		Properties properties = new Properties();
+		try( InputStream input = new FileInputStream( file ) ) {
+			properties.load( input );
+		} catch( IOException exception ) {
+			Log.write( Log.WARN, "Unable to read artifact index: ", file );
+			return null;
+		}
+
+		if( !uri.toString().equals( properties.getProperty( URI_KEY ) ) ) return null;
+
+		String digest = properties.getProperty( DIGEST_KEY );
+		if( digest == null ) return null;
+
+		File object = getObject( digest );
+		if( !object.exists() ) return null;
+		touch( object );
+
+		long stored = 0;
+		try {
+			stored = Long.parseLong( properties.getProperty( STORED_KEY, "0" ) );
+		} catch( NumberFormatException exception ) {
+			// Intentionally ignore exception.
+		}
+
+		return new Entry( uri, digest, properties.getProperty( ETAG_KEY ), properties.getProperty( LAST_MODIFIED_KEY ), stored, object );
+	}
+
+	/**
+	 * Add a downloaded file to the store. The file is moved into the store
+	 * unless an identical artifact is already stored, in which case the file is
+	 * deleted and the stored artifact is used.
+	 *
+	 * @param uri The source URI.
+	 * @param file The downloaded file.
+	 * @param digest The hex encoded SHA-256 digest of the file.
+	 * @param etag The entity tag, may be null.
+	 * @param lastModified The last modified date, may be null.
+	 * @return The stored entry.
+	 * @throws IOException If the file could not be stored.
+	 */
+	public Entry store( URI uri, File file, String digest, String etag, String lastModified ) throws IOException {
+		File object = getObject( digest );
+		if( object.exists() ) {
+			Log.write( Log.DEBUG, "Artifact already stored: ", digest );
+			if( !file.equals( object ) ) file.delete();
+			touch( object );
+		} else {
+			object.getParentFile().mkdirs();
+			publish( file, object );
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty( URI_KEY, uri.toString() );
+		properties.setProperty( DIGEST_KEY, digest );
+		if( etag != null ) properties.setProperty( ETAG_KEY, etag );
+		if( lastModified != null ) properties.setProperty( LAST_MODIFIED_KEY, lastModified );
+		long stored = System.currentTimeMillis();
+		properties.setProperty( STORED_KEY, String.valueOf( stored ) );
+
+		File indexFile = getIndexFile( uri );
+		indexFile.getParentFile().mkdirs();
+		File temp = createTempFile( indexFile );
+		try( OutputStream output = new FileOutputStream( temp ) ) {
+			properties.store( output, null );
+		}
+		publish( temp, indexFile );
+
+		return new Entry( uri, digest, etag, lastModified, stored, object );
+	}
+
+	/**
+	 * Remove the index entry for the URI. The stored object is kept because
+	 * other URIs may refer to it.
+	 *
+	 * @param uri
+	 */
+	public void remove( URI uri ) {
+		getIndexFile( uri ).delete();
+	}
+
+	/**
+	 * Remove the least recently used objects until the stored objects fit in
+	 * the limit. The index entries of the removed objects are removed with them.
+	 * Objects used within the last day are kept even if the store is over the
+	 * limit.
+	 *
+	 * @param limit The maximum size of the stored objects in bytes.
+	 * @return The number of bytes removed.
+	 */
+	public long prune( long limit ) {
+		List<File> files = new ArrayList<File>();
+		File[] folders = objects.listFiles();
+		if( folders == null ) return 0;
+		for( File folder : folders ) {
+			File[] children = folder.listFiles();
+			if( children == null ) continue;
+			for( File child : children ) {
+				if( child.isFile() && !child.getName().endsWith( TEMP_EXTENSION ) ) files.add( child );
+			}
+		}
+
+		long size = 0;
+		for( File file : files ) {
+			size += file.length();
+		}
+		if( size <= limit ) return 0;
+
+		Collections.sort( files, new Comparator<File>() {
+
+			@Override
+			public int compare( File file1, File file2 ) {
+				return Long.compare( file1.lastModified(), file2.lastModified() );
+			}
+
+		} );
+
+		long removed = 0;
+		long threshold = System.currentTimeMillis() - PRUNE_GRACE_PERIOD;
+		Set<String> digests = new HashSet<String>();
+		for( File file : files ) {
+			if( size - removed <= limit || file.lastModified() > threshold ) break;
+			long length = file.length();
+			if( !file.delete() ) continue;
+			removed += length;
+			digests.add( file.getName() );
+		}
+		if( digests.isEmpty() ) return 0;
+
+		// Remove the index entries of the removed objects.
+		File[] entries = index.listFiles();
+		if( entries != null ) {
+			for( File entry : entries ) {
+				if( !entry.getName().endsWith( INDEX_EXTENSION ) ) continue;
+				Properties properties = new Properties();
+				try( InputStream input = new FileInputStream( entry ) ) {
+					properties.load( input );
+				} catch( IOException exception ) {
+					continue;
+				}
+				if( digests.contains( properties.getProperty( DIGEST_KEY ) ) ) entry.delete();
+			}
+		}
+
+		Log.write( Log.DEBUG, "Pruned ", digests.size(), " artifacts (", removed, " bytes) from: ", root );
+		return removed;
+	}
+
+	private File getIndexFile( URI uri ) {
+		return new File( index, DigestUtil.getKey( uri.toString() ) + INDEX_EXTENSION );
+	}
+
+	/**
+	 * Record the use of an object. The modification time of the object is its
+	 * last use time so pruning removes the least recently used objects first.
+	 */
+	private static void touch( File object ) {
+		object.setLastModified( System.currentTimeMillis() );
+	}
+
+	private static void publish( File source, File target ) throws IOException {
+		try {
+			Files.move( source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+		} catch( AtomicMoveNotSupportedException exception ) {
+			// The source is on a different file system, copy it next to the target first.
+			File temp = createTempFile( target );
+			Files.copy( source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			Files.move( temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+			source.delete();
+		}
+	}
+
+	/**
+	 * Create a temporary file next to the target. The name is unique so
+	 * processes sharing the store never write to the same temporary file.
+	 */
+	private static File createTempFile( File target ) throws IOException {
+		return File.createTempFile( target.getName() + ".", TEMP_EXTENSION, target.getParentFile() );
+	}
+
+	/**
+	 * A download lock for a URI.
+	 */
+	public static final class Lock implements Closeable {
+
+		private ReentrantLock threadLock;
+
+		private FileChannel channel;
+
+		private FileLock fileLock;
+
+		private Lock( ReentrantLock threadLock, FileChannel channel, FileLock fileLock ) {
+			this.threadLock = threadLock;
+			this.channel = channel;
+			this.fileLock = fileLock;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if( fileLock != null ) fileLock.release();
+				if( channel != null ) channel.close();
+			} finally {
+				threadLock.unlock();
+			}
+		}
+
+	}
+
+	public static final class Entry {
+
+		private URI uri;
+
+		private String digest;
+
+		private String etag;
+
+		private String lastModified;
+
+		private long stored;
+
+		private File file;
+
+		private Entry( URI uri, String digest, String etag, String lastModified, long stored, File file ) {
+			this.uri = uri;
+			this.digest = digest;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.stored = stored;
+			this.file = file;
+		}
+
+		public URI getUri() {
+			return uri;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Get the time the entry was stored or validated.
+		 */
+		public long getStoredTime() {
+			return stored;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that counts the bytes read from the underlying stream. This
+ * is used to count the bytes received on the wire when the data is decoded.
+ */
+final class CountingInputStream extends FilterInputStream {
+
+	private long count;
+
+	CountingInputStream( InputStream input ) {
+		super( input );
+	}
+
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int data = super.read();
+		if( data > -1 ) count++;
+		return data;
+	}
+
+	@Override
+	public int read( byte[] buffer, int offset, int length ) throws IOException {
+		int read = super.read( buffer, offset, length );
+		if( read > 0 ) count += read;
+		return read;
+	}
+
+	@Override
+	public long skip( long length ) throws IOException {
+		long skipped = super.skip( length );
+		if( skipped > 0 ) count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+}
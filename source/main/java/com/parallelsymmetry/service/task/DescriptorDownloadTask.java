@@ -1,6 +1,6 @@
 package com.parallelsymmetry.service.task;
 
-import java.io.FileInputStream;
+import java.io.InputStream;
 import java.net.URI;
 
 import com.parallelsymmetry.utility.BundleKey;
@@ -11,17 +11,66 @@ import com.parallelsymmetry.utility.task.TaskListener;
 
 public class DescriptorDownloadTask extends Task<Descriptor> {
 
+	/**
+	 * The default maximum size of a descriptor in bytes.
+	 */
+	public static final long DEFAULT_SIZE_LIMIT = 1024 * 1024;
+
 	private DownloadTask task;
 
+	private long sizeLimit = DEFAULT_SIZE_LIMIT;
+
 	public DescriptorDownloadTask( URI uri ) {
 		super( Bundles.getString( BundleKey.PROMPTS, "download" ) + uri.toString() );
 		this.task = new DownloadTask( uri );
+		this.task.setCategory( DownloadMetrics.DESCRIPTOR );
 	}
 
 	public URI getUri() {
 		return task.getUri();
 	}
 
+	public long getSizeLimit() {
+		return sizeLimit;
+	}
+
+	public void setSizeLimit( long sizeLimit ) {
+		this.sizeLimit = sizeLimit;
+	}
+
+	/**
+	 * Set the artifact store to keep the descriptor in. By default descriptors
+	 * are not stored.
+	 */
+	public void setArtifactStore( ArtifactStore store ) {
+		task.setArtifactStore( store );
+	}
+
+	/**
+	 * Set the validators of a descriptor the caller already has. The descriptor
+	 * is then requested conditionally and execute() returns null if it was not
+	 * modified, skipping both the transfer and the parsing.
+	 */
+	public void setValidators( String etag, String lastModified ) {
+		task.setValidators( etag, lastModified );
+	}
+
+	/**
+	 * Get the entity tag of the downloaded descriptor or null if the server did
+	 * not send one.
+	 */
+	public String getEtag() {
+		return task.getEtag();
+	}
+
+	/**
+	 * Get the last modified date of the downloaded descriptor or null if the
+	 * server did not send one.
+	 */
+	public String getLastModified() {
+		return task.getLastModified();
+	}
+
 	@Override
 	public long getMinimum() {
 		return task.getMinimum();
@@ -49,9 +98,16 @@ public class DescriptorDownloadTask extends Task<Descriptor> {
 
 	@Override
 	public Descriptor execute() throws Exception {
-		Download download = task.execute();
-		if( download == null ) return null;
-		return new Descriptor( new FileInputStream( download.getTarget() ) );
+		// Parse the descriptor directly from the response.
+		try( InputStream input = task.open( sizeLimit ) ) {
+			if( input == null ) return null;
+			try {
+				return new Descriptor( input );
+			} catch( Exception exception ) {
+				task.reject();
+				throw exception;
+			}
+		}
 	}
 
 }
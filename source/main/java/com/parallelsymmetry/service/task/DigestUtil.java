@@ -0,0 +1,134 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public final class DigestUtil {
+
+	public static final String SHA_1 = "SHA-1";
+
+	public static final String SHA_256 = "SHA-256";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private DigestUtil() {}
+
+	public static final MessageDigest create( String algorithm ) {
+		try {
+			return MessageDigest.getInstance( algorithm );
+		} catch( NoSuchAlgorithmException exception ) {
+			throw new IllegalArgumentException( "Unsupported digest algorithm: " + algorithm, exception );
+		}
+	}
+
+	public static final String toHex( byte[] data ) {
+		char[] chars = new char[data.length * 2];
+		for( int index = 0; index < data.length; index++ ) {
+			chars[index * 2] = HEX[( data[index] >> 4 ) & 0xf];
+			chars[index * 2 + 1] = HEX[data[index] & 0xf];
+		}
+		return new String( chars );
+	}
+
+	/**
+	 * Get the hex encoded SHA-1 digest of the text. This is used to derive
+	 * stable file names from URIs.
+	 */
+	public static final String getKey( String text ) {
+		return toHex( create( SHA_1 ).digest( text.getBytes( StandardCharsets.UTF_8 ) ) );
+	}
+
+	public static final String digest( File file, String algorithm ) throws IOException {
+		MessageDigest digest = create( algorithm );
+		update( digest, file, file.length() );
+		return toHex( digest.digest() );
+	}
+
+	/**
+	 * Update the digest with the first bytes of the file.
+	 */
+	public static final void update( MessageDigest digest, File file, long length ) throws IOException {
+		update( Collections.singleton( digest ), file, length );
+	}
+
+	/**
+	 * Update all the digests with the first bytes of the file, reading the file
+	 * only once.
+	 */
+	public static final void update( Collection<MessageDigest> digests, File file, long length ) throws IOException {
+		byte[] buffer = new byte[8192];
+		try( InputStream input = new FileInputStream( file ) ) {
+			long remaining = length;
+			int read = 0;
+			while( remaining > 0 && ( read = input.read( buffer, 0, (int)Math.min( buffer.length, remaining ) ) ) > -1 ) {
+				for( MessageDigest digest : digests ) {
+					digest.update( buffer, 0, read );
+				}
+				remaining -= read;
+			}
+		}
+	}
+
+	/**
+	 * Get the digests declared in the fragment of a resource URI. Digests are
+	 * declared as algorithm=hex pairs separated by ampersands, for example:
+	 * <code>pack.jar#sha-256=3a7bd3e2...&amp;sha-1=a94a8fe5...</code>. Parts of the
+	 * fragment that are not digests of a supported algorithm are ignored.
+	 *
+	 * @return A map of upper case algorithm names to lower case hex digests.
+	 */
+	public static final Map<String, String> getDeclaredDigests( URI uri ) {
+		Map<String, String> digests = new LinkedHashMap<String, String>();
+
+		String fragment = uri.getFragment();
+		if( fragment == null ) return digests;
+
+		for( String part : fragment.split( "&" ) ) {
+			int index = part.indexOf( '=' );
+			if( index < 1 ) continue;
+
+			String algorithm = part.substring( 0, index ).trim().toUpperCase( Locale.ROOT );
+			String value = part.substring( index + 1 ).trim().toLowerCase( Locale.ROOT );
+			if( value.length() == 0 || !isSupported( algorithm ) ) continue;
+
+			digests.put( algorithm, value );
+		}
+
+		return digests;
+	}
+
+	/**
+	 * Get the URI without the fragment. The fragment is never sent to the server
+	 * but some transports reject URIs with fragments.
+	 */
+	public static final URI removeFragment( URI uri ) {
+		if( uri.getFragment() == null ) return uri;
+		try {
+			return new URI( uri.getScheme(), uri.getSchemeSpecificPart(), null );
+		} catch( URISyntaxException exception ) {
+			throw new IllegalArgumentException( exception );
+		}
+	}
+
+	private static final boolean isSupported( String algorithm ) {
+		try {
+			MessageDigest.getInstance( algorithm );
+			return true;
+		} catch( NoSuchAlgorithmException exception ) {
+			return false;
+		}
+	}
+
+}
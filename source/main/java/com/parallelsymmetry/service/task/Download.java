@@ -6,38 +6,60 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class Download extends OutputStream {
 
 	private URI source;
 
-	private int length;
+	private long length;
 
 	private String encoding;
 
 	private File target;
 
+	private Map<String, String> digests;
+
 	private OutputStream output;
 
-	public Download( URI source, int length, String encoding ) {
+	private FileChannel channel;
+
+	private boolean append;
+
+	public Download( URI source, long length, String encoding ) {
 		this( source, length, encoding, null );
 	}
 
-	public Download( URI source, int length, String encoding, File target ) {
+	public Download( URI source, long length, String encoding, File target ) {
 		this.source = source;
 		this.length = length;
 		this.encoding = encoding;
 		this.target = target;
+		this.digests = new HashMap<String, String>();
 	}
 
 	public URI getSource() {
 		return source;
 	}
 
-	public int getLength() {
+	public long getLength() {
 		return length;
 	}
 
+	void setLength( long length ) {
+		this.length = length;
+	}
+
+	/**
+	 * Get the content encoding the data was transferred with. The downloaded
+	 * data is always decoded.
+	 */
 	public String getEncoding() {
 		return encoding;
 	}
@@ -46,6 +68,46 @@ public class Download extends OutputStream {
 		return target;
 	}
 
+	void setTarget( File target ) {
+		this.target = target;
+	}
+
+	/**
+	 * Get the hex encoded SHA-256 digest of the downloaded data. The digest is
+	 * computed when the download is kept in an artifact store or has declared
+	 * digests.
+	 *
+	 * @return The digest or null if the digest was not computed.
+	 */
+	public String getDigest() {
+		return getDigest( DigestUtil.SHA_256 );
+	}
+
+	/**
+	 * Get the hex encoded digest of the downloaded data for the algorithm.
+	 *
+	 * @return The digest or null if the digest was not computed.
+	 */
+	public String getDigest( String algorithm ) {
+		return digests.get( algorithm.toUpperCase( Locale.ROOT ) );
+	}
+
+	/**
+	 * Get all the digests computed while downloading, keyed by upper case
+	 * algorithm name.
+	 */
+	public Map<String, String> getDigests() {
+		return Collections.unmodifiableMap( digests );
+	}
+
+	void setDigest( String digest ) {
+		setDigest( DigestUtil.SHA_256, digest );
+	}
+
+	void setDigest( String algorithm, String digest ) {
+		digests.put( algorithm.toUpperCase( Locale.ROOT ), digest );
+	}
+
 	@Override
 	public void write( int data ) throws IOException {
 		getOutputStream().write( data );
@@ -63,21 +125,55 @@ public class Download extends OutputStream {
 
 	@Override
 	public void flush() throws IOException {
-		getOutputStream().flush();
+		if( output != null ) output.flush();
 	}
 
 	@Override
 	public void close() throws IOException {
-		getOutputStream().close();
+		if( output != null ) output.close();
+		if( channel != null ) channel.close();
 	}
 
-	private OutputStream getOutputStream() throws IOException {
+	/**
+	 * Get a file channel to write directly to the target file. This allows data
+	 * to be transferred to the target without the stream buffers.
+	 */
+	FileChannel getChannel() throws IOException {
+		if( channel == null ) {
+			Path path = getTargetFile().toPath();
+			if( append ) {
+				channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+			} else {
+				channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+			}
+		}
+		return channel;
+	}
+
+	/**
+	 * Set if data should be appended to the target file. This is used when a
+	 * partial download is resumed.
+	 */
+	void setAppend( boolean append ) {
+		this.append = append;
+	}
+
+	/**
+	 * Get the target file, creating a temporary file if a target was not
+	 * specified. This is used by segmented downloads that write directly to the
+	 * target file instead of through the output stream.
+	 */
+	File getTargetFile() throws IOException {
 		if( target == null ) {
 			target = File.createTempFile( "download", "data" );
 			target.deleteOnExit();
 		}
+		return target;
+	}
+
+	private OutputStream getOutputStream() throws IOException {
 		if( output == null ) {
-			output = new BufferedOutputStream( new FileOutputStream( target ) );
+			output = new BufferedOutputStream( new FileOutputStream( getTargetFile(), append ) );
 		}
 		return output;
 	}
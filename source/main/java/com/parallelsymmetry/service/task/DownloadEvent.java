@@ -1,22 +1,58 @@
 package com.parallelsymmetry.service.task;
 
+/**
+ * A download progress event. The progress and total are the number of decoded
+ * bytes. The wire progress and wire total are the number of bytes received,
+ * which differ from the decoded bytes when the data is transferred with a
+ * content encoding such as gzip.
+ */
 public class DownloadEvent {
 
-	private int progress;
+	private long progress;
 
-	private int total;
+	private long total;
 
-	public DownloadEvent( int progress, int total ) {
+	private long wireProgress;
+
+	private long wireTotal;
+
+	public DownloadEvent( long progress, long total ) {
+		this( progress, total, progress, total );
+	}
+
+	public DownloadEvent( long progress, long total, long wireProgress, long wireTotal ) {
 		this.progress = progress;
 		this.total = total;
+		this.wireProgress = wireProgress;
+		this.wireTotal = wireTotal;
 	}
 
-	public int getProgress() {
+	public long getProgress() {
 		return progress;
 	}
 
-	public int getTotal() {
+	/**
+	 * Get the total number of bytes to download or -1 if the length is unknown.
+	 * The decoded length is not known when the data is encoded.
+	 */
+	public long getTotal() {
 		return total;
 	}
 
+	public long getWireProgress() {
+		return wireProgress;
+	}
+
+	/**
+	 * Get the total number of bytes to receive or -1 if the length is unknown.
+	 */
+	public long getWireTotal() {
+		return wireTotal;
+	}
+
+	void setProgress( long progress, long wireProgress ) {
+		this.progress = progress;
+		this.wireProgress = wireProgress;
+	}
+
 }
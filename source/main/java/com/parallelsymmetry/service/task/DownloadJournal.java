@@ -0,0 +1,173 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * The sidecar journal of a partially downloaded resource. The journal records
+ * the source URI, the entity validators and the number of bytes safely written
+ * so an interrupted download can be resumed with a range request, even after
+ * the process restarts. When a mirror served the download the journal also
+ * records the mirror URI because the validators only match that mirror.
+ */
+final class DownloadJournal {
+
+	static final String EXTENSION = ".journal";
+
+	private static final String URI_KEY = "uri";
+
+	private static final String SOURCE_KEY = "source";
+
+	private static final String ETAG_KEY = "etag";
+
+	private static final String LAST_MODIFIED_KEY = "lastModified";
+
+	private static final String LENGTH_KEY = "length";
+
+	private static final String WRITTEN_KEY = "written";
+
+	private File file;
+
+	private URI uri;
+
+	private URI source;
+
+	private String etag;
+
+	private String lastModified;
+
+	private long length;
+
+	private long written;
+
+	DownloadJournal( File partial, URI uri, String etag, String lastModified, long length ) {
+		this.file = getJournalFile( partial );
+		this.uri = uri;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.length = length;
+	}
+
+	/**
+	 * Load the journal for the partial file. Returns null if there is no
+	 * journal or the journal belongs to a different resource.
+	 */
+	static DownloadJournal load( File partial, URI uri ) {
+		File file = getJournalFile( partial );
+		if( !file.exists() ) return null;
+
+		Properties properties = new Properties();
+		try( InputStream input = new FileInputStream( file ) ) {
+			properties.load( input );
+		} catch( IOException exception ) {
+			Log.write( Log.WARN, "Unable to read download journal: ", file );
+			return null;
+		}
+
+		if( !uri.toString().equals( properties.getProperty( URI_KEY ) ) ) return null;
+
+		try {
+			long length = Long.parseLong( properties.getProperty( LENGTH_KEY, "-1" ) );
+			DownloadJournal journal = new DownloadJournal( partial, uri, properties.getProperty( ETAG_KEY ), properties.getProperty( LAST_MODIFIED_KEY ), length );
+			journal.written = Long.parseLong( properties.getProperty( WRITTEN_KEY, "0" ) );
+			String source = properties.getProperty( SOURCE_KEY );
+			if( source != null ) journal.source = URI.create( source );
+			return journal;
+		} catch( NumberFormatException exception ) {
+			return null;
+		}
+	}
+
+	static File getJournalFile( File partial ) {
+		return new File( partial.getPath() + EXTENSION );
+	}
+
+	/**
+	 * Get the URI that served the download. This is the resource URI unless a
+	 * mirror served the download.
+	 */
+	URI getSource() {
+		return source == null ? uri : source;
+	}
+
+	void setSource( URI source ) {
+		this.source = uri.equals( source ) ? null : source;
+	}
+
+	/**
+	 * Get the validator to send with the If-Range header. The entity tag is
+	 * preferred over the last modified date.
+	 */
+	String getValidator() {
+		return etag == null ? lastModified : etag;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	long getWritten() {
+		return written;
+	}
+
+	void setWritten( long written ) {
+		this.written = written;
+	}
+
+	/**
+	 * Get the offset to resume the download from. Returns zero if the download
+	 * cannot be resumed safely.
+	 */
+	long getResumeOffset( File partial ) {
+		if( getValidator() == null ) return 0;
+		if( written <= 0 ) return 0;
+		if( length >= 0 && written >= length ) return 0;
+		if( !partial.exists() || partial.length() < written ) return 0;
+		return written;
+	}
+
+	/**
+	 * Save the journal. The journal is written to a temporary file and moved in
+	 * place so a crash never leaves a truncated journal behind.
+	 *
+	 * @return True if the journal was saved.
+	 */
+	boolean save() {
+		if( getValidator() == null ) return false;
+
+		Properties properties = new Properties();
+		properties.setProperty( URI_KEY, uri.toString() );
+		if( source != null ) properties.setProperty( SOURCE_KEY, source.toString() );
+		if( etag != null ) properties.setProperty( ETAG_KEY, etag );
+		if( lastModified != null ) properties.setProperty( LAST_MODIFIED_KEY, lastModified );
+		properties.setProperty( LENGTH_KEY, String.valueOf( length ) );
+		properties.setProperty( WRITTEN_KEY, String.valueOf( written ) );
+
+		File temp = new File( file.getPath() + ".tmp" );
+		try {
+			try( OutputStream output = new FileOutputStream( temp ) ) {
+				properties.store( output, null );
+			}
+			Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			return true;
+		} catch( IOException exception ) {
+			Log.write( Log.WARN, "Unable to save download journal: ", file );
+			return false;
+		}
+	}
+
+	void delete() {
+		file.delete();
+	}
+
+}
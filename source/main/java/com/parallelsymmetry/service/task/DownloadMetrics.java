@@ -0,0 +1,322 @@
+package com.parallelsymmetry.service.task;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregated download measurements. Every download records the number of bytes
+ * received, the response time, which is the time until the response headers
+ * arrive, and the total duration. The measurements are aggregated in total,
+ * per host and per resource category.
+ */
+public class DownloadMetrics {
+
+	/**
+	 * The category of product descriptors.
+	 */
+	public static final String DESCRIPTOR = "descriptor";
+
+	/**
+	 * The category of downloads without a specific category.
+	 */
+	public static final String RESOURCE = "resource";
+
+	private Statistics total;
+
+	private ConcurrentMap<String, Statistics> hosts;
+
+	private ConcurrentMap<String, Statistics> categories;
+
+	public DownloadMetrics() {
+		total = new Statistics();
+		hosts = new ConcurrentHashMap<String, Statistics>();
+		categories = new ConcurrentHashMap<String, Statistics>();
+	}
+
+	/**
+	 * Record a download.
+	 *
+	 * @param uri The download URI.
+	 * @param category The resource category.
+	 * @param bytes The number of bytes received.
+	 * @param responseTime The time until the response arrived in milliseconds or
+	 *          -1 if there was no response.
+	 * @param duration The total time of the download in milliseconds.
+	 * @param success True if the download completed successfully.
+	 */
+	public void record( URI uri, String category, long bytes, long responseTime, long duration, boolean success ) {
+		total.add( bytes, responseTime, duration, success );
+		getStatistics( hosts, MirrorSelector.getHost( uri ) ).add( bytes, responseTime, duration, success );
+		getStatistics( categories, category == null ? RESOURCE : category ).add( bytes, responseTime, duration, success );
+	}
+
+	/**
+	 * Get a snapshot of the statistics of all downloads.
+	 */
+	public Statistics getTotal() {
+		return total.copy();
+	}
+
+	/**
+	 * Get a snapshot of the statistics per host, sorted by host.
+	 */
+	public Map<String, Statistics> getHostStatistics() {
+		return copy( hosts );
+	}
+
+	/**
+	 * Get a snapshot of the statistics per resource category, sorted by
+	 * category.
+	 */
+	public Map<String, Statistics> getCategoryStatistics() {
+		return copy( categories );
+	}
+
+	public void reset() {
+		total = new Statistics();
+		hosts.clear();
+		categories.clear();
+	}
+
+	/**
+	 * Get a readable summary of the statistics, one line for the total followed
+	 * by one line per category and per host.
+	 */
+	public String getSummary() {
+		StringBuilder builder = new StringBuilder();
+		builder.append( "Downloads: " ).append( getTotal() );
+		for( Map.Entry<String, Statistics> entry : getCategoryStatistics().entrySet() ) {
+			builder.append( "\n  " ).append( entry.getKey() ).append( ": " ).append( entry.getValue() );
+		}
+		for( Map.Entry<String, Statistics> entry : getHostStatistics().entrySet() ) {
+			builder.append( "\n  " ).append( entry.getKey() ).append( ": " ).append( entry.getValue() );
+		}
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		return getSummary();
+	}
+
+	private static Statistics getStatistics( ConcurrentMap<String, Statistics> map, String key ) {
+		Statistics statistics = map.get( key );
+		if( statistics == null ) {
+			statistics = new Statistics();
+			Statistics existing = map.putIfAbsent( key, statistics );
+			if( existing != null ) statistics = existing;
+		}
+		return statistics;
+	}
+
+	private static Map<String, Statistics> copy( Map<String, Statistics> map ) {
+		Map<String, Statistics> copy = new TreeMap<String, Statistics>();
+		for( Map.Entry<String, Statistics> entry : map.entrySet() ) {
+			copy.put( entry.getKey(), entry.getValue().copy() );
+		}
+		return copy;
+	}
+
+	/**
+	 * The statistics of a set of downloads. Response times, throughput and sizes
+	 * are kept in histograms so percentiles can be estimated.
+	 */
+	public static final class Statistics {
+
+		private long count;
+
+		private long failures;
+
+		private long bytes;
+
+		private long duration;
+
+		private Histogram responseTimes;
+
+		private Histogram throughputs;
+
+		private Histogram sizes;
+
+		Statistics() {
+			// Response times from 1ms to 1min, throughput from 1KB/s to 1GB/s and sizes from 1KB to 1GB.
+			responseTimes = Histogram.exponential( 1, 2, 17 );
+			throughputs = Histogram.exponential( 1024, 2, 21 );
+			sizes = Histogram.exponential( 1024, 2, 21 );
+		}
+
+		synchronized void add( long bytes, long responseTime, long duration, boolean success ) {
+			count++;
+			if( !success ) failures++;
+			this.bytes += bytes;
+			this.duration += duration;
+
+			if( responseTime >= 0 ) responseTimes.add( responseTime );
+			if( success ) {
+				sizes.add( bytes );
+				if( duration > 0 && bytes > 0 ) throughputs.add( bytes * 1000 / duration );
+			}
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getFailureCount() {
+			return failures;
+		}
+
+		/**
+		 * Get the total number of bytes received.
+		 */
+		public synchronized long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * Get the total download time in milliseconds.
+		 */
+		public synchronized long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * Get the average throughput in bytes per second.
+		 */
+		public synchronized long getThroughput() {
+			return duration == 0 ? 0 : bytes * 1000 / duration;
+		}
+
+		/**
+		 * Get the histogram of response times in milliseconds.
+		 */
+		public synchronized Histogram getResponseTimes() {
+			return responseTimes.copy();
+		}
+
+		/**
+		 * Get the histogram of download throughput in bytes per second.
+		 */
+		public synchronized Histogram getThroughputs() {
+			return throughputs.copy();
+		}
+
+		/**
+		 * Get the histogram of download sizes in bytes.
+		 */
+		public synchronized Histogram getSizes() {
+			return sizes.copy();
+		}
+
+		synchronized Statistics copy() {
+			Statistics copy = new Statistics();
+			copy.count = count;
+			copy.failures = failures;
+			copy.bytes = bytes;
+			copy.duration = duration;
+			copy.responseTimes = responseTimes.copy();
+			copy.throughputs = throughputs.copy();
+			copy.sizes = sizes.copy();
+			return copy;
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append( "count=" ).append( count );
+			builder.append( " failures=" ).append( failures );
+			builder.append( " bytes=" ).append( bytes );
+			builder.append( " throughput=" ).append( getThroughput() ).append( "B/s" );
+			builder.append( " response.p50=" ).append( responseTimes.getPercentile( 0.5 ) ).append( "ms" );
+			builder.append( " response.p90=" ).append( responseTimes.getPercentile( 0.9 ) ).append( "ms" );
+			return builder.toString();
+		}
+
+	}
+
+	/**
+	 * A histogram with fixed bucket bounds. A value is counted in the first
+	 * bucket with an upper bound greater than or equal to the value. Values
+	 * larger than the last bound are counted in an overflow bucket.
+	 */
+	public static final class Histogram {
+
+		private long[] bounds;
+
+		private long[] counts;
+
+		private long count;
+
+		Histogram( long[] bounds ) {
+			this.bounds = bounds;
+			this.counts = new long[bounds.length + 1];
+		}
+
+		static Histogram exponential( long start, long factor, int bucketCount ) {
+			long[] bounds = new long[bucketCount];
+			long bound = start;
+			for( int index = 0; index < bucketCount; index++ ) {
+				bounds[index] = bound;
+				bound *= factor;
+			}
+			return new Histogram( bounds );
+		}
+
+		synchronized void add( long value ) {
+			int index = Arrays.binarySearch( bounds, value );
+			counts[index < 0 ? -index - 1 : index]++;
+			count++;
+		}
+
+		/**
+		 * Get the upper bounds of the buckets. The overflow bucket does not have
+		 * a bound.
+		 */
+		public long[] getBounds() {
+			return bounds.clone();
+		}
+
+		/**
+		 * Get the counts of the buckets. The last count is the overflow bucket.
+		 */
+		public synchronized long[] getCounts() {
+			return counts.clone();
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * Estimate the percentile as the upper bound of the bucket containing
+		 * it.
+		 *
+		 * @return The estimate, Long.MAX_VALUE if the percentile is in the
+		 *         overflow bucket or -1 if the histogram is empty.
+		 */
+		public synchronized long getPercentile( double percentile ) {
+			if( count == 0 ) return -1;
+
+			long rank = (long)Math.ceil( percentile * count );
+			long sum = 0;
+			for( int index = 0; index < bounds.length; index++ ) {
+				sum += counts[index];
+				if( sum >= rank ) return bounds[index];
+			}
+
+			return Long.MAX_VALUE;
+		}
+
+		synchronized Histogram copy() {
+			Histogram copy = new Histogram( bounds );
+			copy.counts = counts.clone();
+			copy.count = count;
+			return copy;
+		}
+
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.parallelsymmetry.service.task;
+
+import java.util.Set;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * Publishes download progress to the download listeners. Updates are merged so
+ * the listeners are notified at most once per interval unless the step number
+ * of bytes has been transferred since the last notification. The same event
+ * instance is reused for every notification so listeners must not keep a
+ * reference to the event after the update returns.
+ */
+final class DownloadProgress {
+
+	private Set<DownloadListener> listeners;
+
+	private DownloadEvent event;
+
+	private long total;
+
+	private long wireTotal;
+
+	private long interval;
+
+	private long step;
+
+	private long lastProgress = -1;
+
+	private long lastWireProgress = -1;
+
+	private long lastTime;
+
+	DownloadProgress( Set<DownloadListener> listeners, long total, long interval, long step ) {
+		this( listeners, total, total, interval, step );
+	}
+
+	/**
+	 * @param listeners The listeners to notify.
+	 * @param total The total number of decoded bytes or -1 if unknown.
+	 * @param wireTotal The total number of bytes to receive or -1 if unknown.
+	 * @param interval The minimum time between notifications in milliseconds.
+	 * @param step The number of received bytes that causes a notification
+	 *          regardless of the interval.
+	 */
+	DownloadProgress( Set<DownloadListener> listeners, long total, long wireTotal, long interval, long step ) {
+		this.listeners = listeners;
+		this.total = total;
+		this.wireTotal = wireTotal;
+		this.interval = interval * 1000000;
+		this.step = step;
+		this.event = new DownloadEvent( 0, total, 0, wireTotal );
+	}
+
+	/**
+	 * Update the progress of data that is not encoded. Safe to call from several
+	 * threads.
+	 *
+	 * @return True if the listeners were notified.
+	 */
+	boolean update( long progress ) {
+		return publish( progress, progress, false );
+	}
+
+	/**
+	 * Update the decoded and received progress. Safe to call from several
+	 * threads.
+	 *
+	 * @return True if the listeners were notified.
+	 */
+	boolean update( long progress, long wireProgress ) {
+		return publish( progress, wireProgress, false );
+	}
+
+	/**
+	 * Notify the listeners of the final progress if it was not already
+	 * published.
+	 */
+	boolean finish( long progress ) {
+		return publish( progress, progress, true );
+	}
+
+	boolean finish( long progress, long wireProgress ) {
+		return publish( progress, wireProgress, true );
+	}
+
+	private synchronized boolean publish( long progress, long wireProgress, boolean force ) {
+		if( progress <= lastProgress && wireProgress <= lastWireProgress ) return false;
+
+		long now = System.nanoTime();
+		boolean done = ( total >= 0 && progress >= total ) || ( wireTotal >= 0 && wireProgress >= wireTotal );
+		if( !force && !done && lastWireProgress >= 0 && wireProgress - lastWireProgress < step && now - lastTime < interval ) return false;
+
+		lastProgress = Math.max( lastProgress, progress );
+		lastWireProgress = Math.max( lastWireProgress, wireProgress );
+		lastTime = now;
+		event.setProgress( lastProgress, lastWireProgress );
+
+		for( DownloadListener listener : listeners ) {
+			try {
+				listener.update( event );
+			} catch( Throwable throwable ) {
+				Log.write( throwable );
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.parallelsymmetry.service.task;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DownloadRequest {
+
+	public static final String GET = "GET";
+
+	public static final String HEAD = "HEAD";
+
+	private URI uri;
+
+	private String method = GET;
+
+	private Map<String, String> headers;
+
+	private int connectTimeout = DownloadTask.DEFAULT_CONNECT_TIMEOUT;
+
+	private int readTimeout = DownloadTask.DEFAULT_READ_TIMEOUT;
+
+	public DownloadRequest( URI uri ) {
+		this.uri = uri;
+		this.headers = new LinkedHashMap<String, String>();
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public void setMethod( String method ) {
+		this.method = method;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public String getHeader( String name ) {
+		return headers.get( name );
+	}
+
+	public void setHeader( String name, String value ) {
+		if( value == null ) {
+			headers.remove( name );
+		} else {
+			headers.put( name, value );
+		}
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout( int connectTimeout ) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout( int readTimeout ) {
+		this.readTimeout = readTimeout;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + uri;
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * The response to a download request. Responses from non-HTTP sources report
+ * an HTTP OK status. Closing the response releases the underlying connection
+ * back to the transport.
+ */
+public interface DownloadResponse extends Closeable {
+
+	int getStatus();
+
+	/**
+	 * Get the URI that served the response. A mirrored request may be served by
+	 * a different URI than the one requested.
+	 */
+	URI getUri();
+
+	/**
+	 * Get the first value of the named header or null if the header is not
+	 * present. Header names are not case sensitive.
+	 */
+	String getHeader( String name );
+
+	/**
+	 * Get the content length or -1 if the length is unknown.
+	 */
+	long getContentLength();
+
+	InputStream getInputStream() throws IOException;
+
+}
@@ -0,0 +1,342 @@
+package com.parallelsymmetry.service.task;
+
+import java.net.URI;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import com.parallelsymmetry.utility.Descriptor;
+import com.parallelsymmetry.utility.log.Log;
+import com.parallelsymmetry.utility.task.Task;
+
+/**
+ * Schedules download tasks on dedicated threads so large downloads do not
+ * occupy the task manager. Queued tasks are started in priority order while the
+ * total number of running tasks, the number of running tasks for each host and
+ * the number of bytes being downloaded are under their limits. A task that is
+ * held back by a host limit does not hold back tasks for other hosts.
+ * Descriptor downloads are small and are not held back by the byte limit.
+ * <p>
+ * A download reserves an even share of the byte limit when it starts and the
+ * reservation is replaced by the length of the download once it is known. A
+ * task holds its slot until its thread exits, even when it is cancelled.
+ */
+public class DownloadScheduler {
+
+	/**
+	 * The download priority classes, from highest to lowest.
+	 */
+	public enum Priority {
+		DESCRIPTOR, SERVICE, MODULE
+	}
+
+	public static final int DEFAULT_TOTAL_LIMIT = 6;
+
+	public static final int DEFAULT_HOST_LIMIT = 2;
+
+	public static final long DEFAULT_BYTE_LIMIT = 256 * 1024 * 1024;
+
+	private int totalLimit;
+
+	private int hostLimit;
+
+	private long byteLimit;
+
+	private Object lock = new Object();
+
+	private TreeSet<Job<?>> queue;
+
+	private Map<String, Integer> hostCounts;
+
+	private int running;
+
+	private long inFlightBytes;
+
+	private long sequence;
+
+	private boolean shutdown;
+
+	private ExecutorService executor;
+
+	public DownloadScheduler() {
+		this( DEFAULT_TOTAL_LIMIT, DEFAULT_HOST_LIMIT, DEFAULT_BYTE_LIMIT );
+	}
+
+	public DownloadScheduler( int totalLimit, int hostLimit, long byteLimit ) {
+		this.totalLimit = Math.max( 1, totalLimit );
+		this.hostLimit = Math.max( 1, hostLimit );
+		this.byteLimit = Math.max( 1, byteLimit );
+		this.queue = new TreeSet<Job<?>>( new JobComparator() );
+		this.hostCounts = new HashMap<String, Integer>();
+		this.executor = Executors.newCachedThreadPool( new SchedulerThreadFactory() );
+	}
+
+	public Future<Descriptor> submit( DescriptorDownloadTask task ) {
+		return submit( task, task.getUri(), Priority.DESCRIPTOR );
+	}
+
+	public Future<Download> submit( DownloadTask task, Priority priority ) {
+		return submit( task, priority, null );
+	}
+
+	/**
+	 * Submit a download. When the download finishes the future is added to the
+	 * completion queue, if there is one.
+	 */
+	public Future<Download> submit( DownloadTask task, Priority priority, BlockingQueue<Future<Download>> completion ) {
+		Job<Download> job = new Job<Download>( task, task.getUri(), priority );
+		job.counted = true;
+		job.completion = completion;
+		task.addListener( new ByteCounter( job ) );
+		return enqueue( job );
+	}
+
+	public <T> Future<T> submit( Task<T> task, URI uri, Priority priority ) {
+		return enqueue( new Job<T>( task, uri, priority ) );
+	}
+
+	/**
+	 * Submit a descriptor download. When the download finishes the future is
+	 * added to the completion queue so results can be handled in the order they
+	 * finish, the same as with an ExecutorCompletionService.
+	 */
+	public Future<Descriptor> submit( DescriptorDownloadTask task, BlockingQueue<Future<Descriptor>> completion ) {
+		return submit( task, task.getUri(), Priority.DESCRIPTOR, completion );
+	}
+
+	public <T> Future<T> submit( Task<T> task, URI uri, Priority priority, BlockingQueue<Future<T>> completion ) {
+		Job<T> job = new Job<T>( task, uri, priority );
+		job.completion = completion;
+		return enqueue( job );
+	}
+
+	public int getQueuedCount() {
+		synchronized( lock ) {
+			return queue.size();
+		}
+	}
+
+	public int getRunningCount() {
+		synchronized( lock ) {
+			return running;
+		}
+	}
+
+	public long getInFlightBytes() {
+		synchronized( lock ) {
+			return inFlightBytes;
+		}
+	}
+
+	/**
+	 * Cancel the queued and running tasks and stop the scheduler threads.
+	 */
+	public void shutdown() {
+		Job<?>[] jobs;
+		synchronized( lock ) {
+			shutdown = true;
+			jobs = queue.toArray( new Job<?>[queue.size()] );
+		}
+		for( Job<?> job : jobs ) {
+			job.cancel( true );
+		}
+		executor.shutdownNow();
+	}
+
+	private <T> Future<T> enqueue( Job<T> job ) {
+		synchronized( lock ) {
+			if( shutdown ) throw new RejectedExecutionException( "Download scheduler shutdown" );
+			job.sequence = sequence++;
+			queue.add( job );
+		}
+		dispatch();
+		return job;
+	}
+
+	private void dispatch() {
+		synchronized( lock ) {
+			Iterator<Job<?>> iterator = queue.iterator();
+			while( iterator.hasNext() && running < totalLimit ) {
+				Job<?> job = iterator.next();
+				if( getHostCount( job.host ) >= hostLimit ) continue;
+				if( job.priority != Priority.DESCRIPTOR && running > 0 && inFlightBytes >= byteLimit ) continue;
+
+				iterator.remove();
+				job.started = true;
+				running++;
+				hostCounts.put( job.host, getHostCount( job.host ) + 1 );
+				if( job.counted ) {
+					job.bytes = byteLimit / totalLimit;
+					inFlightBytes += job.bytes;
+				}
+				executor.execute( job );
+			}
+		}
+	}
+
+	/**
+	 * Remove a job that finished before it was started.
+	 */
+	private void dequeue( Job<?> job ) {
+		synchronized( lock ) {
+			if( job.started ) return;
+			queue.remove( job );
+		}
+		dispatch();
+	}
+
+	/**
+	 * Release the slot and bytes of a started job after its thread exits.
+	 */
+	private void release( Job<?> job ) {
+		synchronized( lock ) {
+			running--;
+			int count = getHostCount( job.host ) - 1;
+			if( count == 0 ) {
+				hostCounts.remove( job.host );
+			} else {
+				hostCounts.put( job.host, count );
+			}
+			inFlightBytes -= job.bytes;
+			job.bytes = 0;
+			job.released = true;
+		}
+		dispatch();
+	}
+
+	private void reserve( Job<?> job, long bytes ) {
+		synchronized( lock ) {
+			if( !job.started || job.released || job.measured ) return;
+			inFlightBytes += bytes - job.bytes;
+			job.bytes = bytes;
+			job.measured = true;
+		}
+	}
+
+	private int getHostCount( String host ) {
+		Integer count = hostCounts.get( host );
+		return count == null ? 0 : count;
+	}
+
+	private static String getHost( URI uri ) {
+		String host = uri.getHost();
+		return host == null ? uri.getScheme() : host.toLowerCase();
+	}
+
+	private final class Job<T> extends FutureTask<T> {
+
+		private Task<T> task;
+
+		private String host;
+
+		private Priority priority;
+
+		private long sequence;
+
+		private boolean started;
+
+		private boolean released;
+
+		private boolean counted;
+
+		private boolean measured;
+
+		private long bytes;
+
+		private BlockingQueue<Future<T>> completion;
+
+		public Job( final Task<T> task, URI uri, Priority priority ) {
+			super( new Callable<T>() {
+
+				@Override
+				public T call() throws Exception {
+					return task.execute();
+				}
+
+			} );
+			this.task = task;
+			this.host = getHost( uri );
+			this.priority = priority;
+		}
+
+		@Override
+		public boolean cancel( boolean interrupt ) {
+			task.cancel( interrupt );
+			return super.cancel( interrupt );
+		}
+
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				release( this );
+			}
+		}
+
+		@Override
+		protected void done() {
+			try {
+				dequeue( this );
+			} catch( Throwable throwable ) {
+				Log.write( throwable );
+			}
+			if( completion != null ) completion.add( this );
+		}
+
+	}
+
+	/**
+	 * Reserves the length of a download against the byte limit once the length
+	 * is known. Encoded downloads have no decoded length so the length of the
+	 * encoded response is reserved instead.
+	 */
+	private final class ByteCounter implements DownloadListener {
+
+		private Job<?> job;
+
+		public ByteCounter( Job<?> job ) {
+			this.job = job;
+		}
+
+		@Override
+		public void update( DownloadEvent event ) {
+			long total = event.getTotal() > 0 ? event.getTotal() : event.getWireTotal();
+			if( total > 0 ) reserve( job, total );
+		}
+
+	}
+
+	private static final class JobComparator implements Comparator<Job<?>> {
+
+		@Override
+		public int compare( Job<?> job1, Job<?> job2 ) {
+			int result = job1.priority.compareTo( job2.priority );
+			if( result != 0 ) return result;
+			return job1.sequence < job2.sequence ? -1 : ( job1.sequence == job2.sequence ? 0 : 1 );
+		}
+
+	}
+
+	private static final class SchedulerThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Download Scheduler" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
+}
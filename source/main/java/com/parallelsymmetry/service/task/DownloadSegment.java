@@ -0,0 +1,85 @@
+package com.parallelsymmetry.service.task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a resource fetched independently during a segmented
+ * download. The end offset is inclusive to match the HTTP Range header.
+ */
+final class DownloadSegment {
+
+	private long start;
+
+	private long end;
+
+	private long written;
+
+	DownloadSegment( long start, long end ) {
+		this.start = start;
+		this.end = end;
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	long getEnd() {
+		return end;
+	}
+
+	long getLength() {
+		return end - start + 1;
+	}
+
+	long getWritten() {
+		return written;
+	}
+
+	void addWritten( long count ) {
+		written += count;
+	}
+
+	boolean isComplete() {
+		return written == getLength();
+	}
+
+	String getRangeHeader() {
+		return "bytes=" + start + "-" + end;
+	}
+
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+
+	/**
+	 * Split a resource of the specified length into at most the specified number
+	 * of segments. Segments are never smaller than the minimum length, except
+	 * the last segment which receives the remainder.
+	 *
+	 * @param length The resource length.
+	 * @param count The maximum number of segments.
+	 * @param minimum The minimum segment length.
+	 * @return The list of segments in offset order.
+	 */
+	static List<DownloadSegment> split( long length, int count, long minimum ) {
+		List<DownloadSegment> segments = new ArrayList<DownloadSegment>();
+		if( length <= 0 ) return segments;
+
+		if( minimum < 1 ) minimum = 1;
+		long limit = Math.max( 1, length / minimum );
+		int segmentCount = (int)Math.max( 1, Math.min( count, limit ) );
+		long size = length / segmentCount;
+
+		long start = 0;
+		for( int index = 0; index < segmentCount; index++ ) {
+			long end = index == segmentCount - 1 ? length - 1 : start + size - 1;
+			segments.add( new DownloadSegment( start, end ) );
+			start = end + 1;
+		}
+
+		return segments;
+	}
+
+}
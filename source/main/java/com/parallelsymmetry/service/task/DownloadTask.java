@@ -1,13 +1,39 @@
 package com.parallelsymmetry.service.task;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URLConnection;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import com.parallelsymmetry.utility.BundleKey;
 import com.parallelsymmetry.utility.Bundles;
@@ -20,6 +46,41 @@ public class DownloadTask extends Task<Download> {
 
 	public static final int DEFAULT_READ_TIMEOUT = 10000;
 
+	/**
+	 * Resources smaller than this are always downloaded with a single request.
+	 */
+	public static final long DEFAULT_SEGMENT_THRESHOLD = 4 * 1024 * 1024;
+
+	private static final long MINIMUM_SEGMENT_LENGTH = 1024 * 1024;
+
+	/**
+	 * The default minimum time between progress notifications in milliseconds.
+	 */
+	public static final long DEFAULT_PROGRESS_INTERVAL = 100;
+
+	/**
+	 * The default number of bytes that causes a progress notification regardless
+	 * of the progress interval.
+	 */
+	public static final long DEFAULT_PROGRESS_STEP = 1024 * 1024;
+
+	private static final int TRANSFER_SIZE = 64 * 1024;
+
+	private static final long JOURNAL_INTERVAL = 1024 * 1024;
+
+	private static final String PARTIAL_EXTENSION = ".part";
+
+	/**
+	 * The content encodings that can be decoded while downloading.
+	 */
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final String IDENTITY = "identity";
+
+	private static DownloadTransport defaultTransport;
+
+	private static DownloadMetrics defaultMetrics = new DownloadMetrics();
+
 	private URI uri;
 
 	private File target;
@@ -28,64 +89,805 @@ public class DownloadTask extends Task<Download> {
 
 	private int readTimeout = DEFAULT_READ_TIMEOUT;
 
+	private int segmentCount = 1;
+
+	private long segmentThreshold = DEFAULT_SEGMENT_THRESHOLD;
+
+	private File resumeFolder;
+
+	private ArtifactStore store;
+
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+	private long progressStep = DEFAULT_PROGRESS_STEP;
+
+	private DownloadTransport transport;
+
+	private Map<String, String> expectedDigests;
+
 	private Set<DownloadListener> listeners;
 
+	private DownloadMetrics metrics;
+
+	private String category = DownloadMetrics.RESOURCE;
+
+	private String ifNoneMatch;
+
+	private String ifModifiedSince;
+
+	private volatile String etag;
+
+	private volatile String lastModified;
+
+	private long startTime;
+
+	private volatile long responseTime;
+
+	private volatile boolean rejected;
+
+	private AtomicLong received = new AtomicLong();
+
 	public DownloadTask( URI uri ) {
 		this( uri, null );
-		listeners = new CopyOnWriteArraySet<DownloadListener>();
 	}
 
 	public DownloadTask( URI uri, File target ) {
 		super( Bundles.getString( BundleKey.PROMPTS, "download" ) + " " + uri.toString() );
 		this.uri = uri;
 		this.target = target;
+		listeners = new CopyOnWriteArraySet<DownloadListener>();
+		expectedDigests = new LinkedHashMap<String, String>();
 	}
 
 	public URI getUri() {
 		return uri;
 	}
 
+	public int getSegmentCount() {
+		return segmentCount;
+	}
+
+	/**
+	 * Set the maximum number of byte ranges requested concurrently. The default
+	 * of one disables segmented downloads. Segmented downloads are only used
+	 * when the server advertises byte range support and the resource is at
+	 * least as large as the segment threshold.
+	 *
+	 * @param segmentCount
+	 */
+	public void setSegmentCount( int segmentCount ) {
+		this.segmentCount = Math.max( 1, segmentCount );
+	}
+
+	public long getSegmentThreshold() {
+		return segmentThreshold;
+	}
+
+	public void setSegmentThreshold( long segmentThreshold ) {
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	public File getResumeFolder() {
+		return resumeFolder;
+	}
+
+	/**
+	 * Set the folder used to keep partial downloads. When set, an interrupted
+	 * download leaves its partial file and a journal in this folder and the next
+	 * attempt for the same URI resumes with a range request. If the task has an
+	 * explicit target the partial data is kept in the target instead.
+	 *
+	 * @param folder
+	 */
+	public void setResumeFolder( File folder ) {
+		this.resumeFolder = folder;
+	}
+
+	public ArtifactStore getArtifactStore() {
+		return store;
+	}
+
+	/**
+	 * Set the artifact store used to keep downloaded resources. When set, and the
+	 * task does not have an explicit target, a stored artifact is revalidated
+	 * with a conditional request and reused if not modified. New downloads are
+	 * added to the store.
+	 *
+	 * @param store
+	 */
+	public void setArtifactStore( ArtifactStore store ) {
+		this.store = store;
+	}
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * Set the minimum time between progress notifications in milliseconds.
+	 * Progress updates in between are merged into the next notification.
+	 *
+	 * @param interval
+	 */
+	public void setProgressInterval( long interval ) {
+		this.progressInterval = Math.max( 0, interval );
+	}
+
+	public long getProgressStep() {
+		return progressStep;
+	}
+
+	/**
+	 * Set the number of bytes that causes a progress notification regardless of
+	 * the progress interval.
+	 *
+	 * @param step
+	 */
+	public void setProgressStep( long step ) {
+		this.progressStep = Math.max( 1, step );
+	}
+
+	public Map<String, String> getExpectedDigests() {
+		return Collections.unmodifiableMap( expectedDigests );
+	}
+
+	/**
+	 * Set the digest the downloaded data is expected to have. The digest is
+	 * computed while the data is transferred and the download fails, and the
+	 * data is removed, if the digest does not match.
+	 *
+	 * @param algorithm The digest algorithm name, for example SHA-256.
+	 * @param digest The hex encoded digest.
+	 */
+	public void setExpectedDigest( String algorithm, String digest ) {
+		expectedDigests.put( algorithm.toUpperCase( Locale.ROOT ), digest.toLowerCase( Locale.ROOT ) );
+	}
+
+	/**
+	 * Get the transport used to send requests. If a transport was not set on the
+	 * task the shared default transport is used.
+	 */
+	public DownloadTransport getTransport() {
+		return transport == null ? getDefaultTransport() : transport;
+	}
+
+	public void setTransport( DownloadTransport transport ) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Get the transport shared by all download tasks that do not have their own
+	 * transport.
+	 */
+	public static synchronized DownloadTransport getDefaultTransport() {
+		if( defaultTransport == null ) defaultTransport = new HttpClientTransport();
+		return defaultTransport;
+	}
+
+	public static synchronized void setDefaultTransport( DownloadTransport transport ) {
+		defaultTransport = transport;
+	}
+
+	public DownloadMetrics getMetrics() {
+		return metrics == null ? getDefaultMetrics() : metrics;
+	}
+
+	public void setMetrics( DownloadMetrics metrics ) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the metrics shared by all download tasks that do not have their own
+	 * metrics.
+	 */
+	public static synchronized DownloadMetrics getDefaultMetrics() {
+		return defaultMetrics;
+	}
+
+	public static synchronized void setDefaultMetrics( DownloadMetrics metrics ) {
+		defaultMetrics = metrics;
+	}
+
+	/**
+	 * Get the category the download is aggregated under in the metrics.
+	 */
+	public String getCategory() {
+		return category;
+	}
+
+	public void setCategory( String category ) {
+		this.category = category;
+	}
+
+	/**
+	 * Set the validators of a copy of the resource the caller already has. When
+	 * set, open() sends a conditional request and returns null if the resource
+	 * was not modified. Stored resources are revalidated by the artifact store
+	 * instead.
+	 *
+	 * @param etag The entity tag of the copy or null.
+	 * @param lastModified The last modified date of the copy or null.
+	 */
+	public void setValidators( String etag, String lastModified ) {
+		this.ifNoneMatch = etag;
+		this.ifModifiedSince = lastModified;
+	}
+
+	/**
+	 * Get the entity tag of the last response or null if the server did not
+	 * send one.
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Get the last modified date of the last response or null if the server did
+	 * not send one.
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Remove partial downloads from the resume folder that have not been
+	 * touched for the specified amount of time.
+	 *
+	 * @param folder The resume folder.
+	 * @param age The maximum age in milliseconds.
+	 */
+	public static void cleanResumeFolder( File folder, long age ) {
+		File[] files = folder.listFiles();
+		if( files == null ) return;
+
+		long limit = System.currentTimeMillis() - age;
+		for( File file : files ) {
+			if( file.lastModified() < limit ) file.delete();
+		}
+	}
+
 	@Override
 	public Download execute() throws IOException {
-		return download();
+		startMeasurement();
+		boolean success = false;
+		try {
+			Download download = download();
+			success = download != null;
+			return download;
+		} finally {
+			recordMeasurement( success );
+		}
+	}
+
+	/**
+	 * Open the resource as a stream instead of downloading it to a file. This is
+	 * intended for small documents that are parsed directly from the response.
+	 * The task progress is updated as the stream is read. The caller must close
+	 * the stream.
+	 *
+	 * @param limit The maximum number of bytes that may be read.
+	 * @return The resource data stream or null if validators were set and the
+	 *         resource was not modified.
+	 * @throws IOException If the resource could not be opened or is larger than
+	 *           the limit.
+	 */
+	public InputStream open( long limit ) throws IOException {
+		// Stored resources are read from the artifact store.
+		if( isStored() ) {
+			Download download = execute();
+			if( download == null ) throw new InterruptedIOException( "Download cancelled: " + uri );
+			if( download.getTarget().length() > limit ) throw new IOException( "Resource larger than limit " + limit + ": " + uri );
+			return new FileInputStream( download.getTarget() );
+		}
+
+		startMeasurement();
+		DownloadRequest request = createRequest();
+		request.setHeader( "Accept-Encoding", ACCEPT_ENCODING );
+		request.setHeader( "If-None-Match", ifNoneMatch );
+		request.setHeader( "If-Modified-Since", ifModifiedSince );
+
+		DownloadResponse response;
+		try {
+			response = send( request );
+		} catch( IOException | RuntimeException exception ) {
+			recordMeasurement( false );
+			throw exception;
+		}
+
+		try {
+			if( isConditional() && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+				Log.write( Log.TRACE, "Resource not modified: " + uri );
+				response.close();
+				recordMeasurement( true );
+				return null;
+			}
+
+			checkStatus( response );
+			etag = response.getHeader( "ETag" );
+			lastModified = response.getHeader( "Last-Modified" );
+
+			long length = response.getContentLength();
+			if( length > limit ) throw new IOException( "Resource larger than limit " + limit + ": " + uri );
+
+			setMinimum( 0 );
+			setMaximum( length );
+
+			String encoding = response.getHeader( "Content-Encoding" );
+			CountingInputStream wire = new CountingInputStream( response.getInputStream() );
+			DownloadProgress publisher = new DownloadProgress( listeners, isEncoded( encoding ) ? -1 : length, length, progressInterval, progressStep );
+			return new LimitedInputStream( response, decode( wire, encoding ), wire, limit, publisher );
+		} catch( IOException | RuntimeException exception ) {
+			response.close();
+			recordMeasurement( false );
+			throw exception;
+		}
 	}
 
 	private Download download() throws IOException {
-		URLConnection connection = uri.toURL().openConnection();
-		connection.setConnectTimeout( connectTimeout );
-		connection.setReadTimeout( readTimeout );
-		connection.setUseCaches( false );
-		connection.connect();
+		if( !isStored() ) return download( null );
+
+		// Only one thread or process downloads a stored resource at a time.
+		long requested = System.currentTimeMillis();
+		ArtifactStore.Lock lock = store.lock( uri );
+		try {
+			ArtifactStore.Entry stored = store.lookup( uri );
+
+			// Use an artifact stored while waiting for the lock without revalidating it.
+			if( stored != null && stored.getStoredTime() >= requested ) {
+				Log.write( Log.TRACE, "Resource stored by another download: " + uri );
+				Download download = new Download( uri, stored.getFile().length(), null, stored.getFile() );
+				download.setDigest( stored.getDigest() );
+				verify( download, false );
+				return download;
+			}
+
+			return download( stored );
+		} finally {
+			lock.close();
+		}
+	}
+
+	private Download download( ArtifactStore.Entry stored ) throws IOException {
+		File partial = getPartialFile();
+		DownloadJournal journal = partial == null ? null : DownloadJournal.load( partial, uri );
+		long resumeOffset = journal == null ? 0 : journal.getResumeOffset( partial );
+
+		// Stored artifacts are revalidated and partial downloads continued with a single request.
+		RangeProbe probe = segmentCount > 1 && resumeOffset == 0 && stored == null ? probe() : null;
+		if( probe != null ) return downloadSegmented( probe, partial );
+
+		// Byte ranges are only requested for the identity encoding, from the URI that served the partial download.
+		DownloadRequest request = resumeOffset > 0 ? createRequest( journal.getSource() ) : createRequest();
+		if( resumeOffset > 0 ) {
+			request.setHeader( "Accept-Encoding", IDENTITY );
+			request.setHeader( "Range", "bytes=" + resumeOffset + "-" );
+			request.setHeader( "If-Range", journal.getValidator() );
+		} else {
+			request.setHeader( "Accept-Encoding", ACCEPT_ENCODING );
+			if( stored != null ) {
+				request.setHeader( "If-None-Match", stored.getEtag() );
+				request.setHeader( "If-Modified-Since", stored.getLastModified() );
+			}
+		}
+
+		DownloadResponse response = send( request );
+		try {
+			return download( response, partial, journal, resumeOffset, stored );
+		} finally {
+			response.close();
+		}
+	}
+
+	private Download download( DownloadResponse response, File partial, DownloadJournal journal, long resumeOffset, ArtifactStore.Entry stored ) throws IOException {
+		if( stored != null && response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED ) {
+			Log.write( Log.TRACE, "Resource not modified: " + uri );
+			Log.write( Log.DEBUG, "         at location: " + stored.getFile() );
+			Download download = new Download( uri, stored.getFile().length(), null, stored.getFile() );
+			download.setDigest( stored.getDigest() );
+			try {
+				verify( download, false );
+			} catch( IOException exception ) {
+				// Forget the stored artifact so the next attempt downloads it again.
+				store.remove( uri );
+				throw exception;
+			}
+
+			// Record the validation so downloads waiting on a shared store use it.
+			if( store.isShared() ) store.store( uri, stored.getFile(), stored.getDigest(), stored.getEtag(), stored.getLastModified() );
+			return download;
+		}
+
+		checkStatus( response );
 
-		int length = connection.getContentLength();
-		String encoding = connection.getContentEncoding();
-		InputStream input = connection.getInputStream();
+		String encoding = response.getHeader( "Content-Encoding" );
+		boolean encoded = isEncoded( encoding );
+
+		long offset = 0;
+		if( isResumed( response, resumeOffset ) && !encoded ) {
+			offset = resumeOffset;
+			Log.write( Log.DEBUG, "Resuming download at ", offset, ": ", uri );
+		} else if( response.getStatus() == HttpURLConnection.HTTP_PARTIAL ) {
+			throw new IOException( "Unexpected partial response: " + response.getHeader( "Content-Range" ) + ": " + uri );
+		} else if( resumeOffset > 0 ) {
+			Log.write( Log.DEBUG, "Resource changed, restarting download: ", uri );
+		}
+
+		// The wire length includes the data already written when resuming.
+		long wireLength = response.getContentLength();
+		if( wireLength >= 0 ) wireLength += offset;
+		long length = encoded ? -1 : wireLength;
+		String etag = response.getHeader( "ETag" );
+		String lastModified = response.getHeader( "Last-Modified" );
 
 		setMinimum( 0 );
-		setMaximum( length );
+		setMaximum( wireLength );
 
-		byte[] buffer = new byte[8192];
-		Download download = new Download( uri, length, encoding, target );
+		if( partial != null ) {
+			truncate( partial, offset );
+			if( encoded ) {
+				// Decoded data cannot be resumed with a byte range request.
+				if( journal != null ) journal.delete();
+				journal = null;
+			} else {
+				journal = new DownloadJournal( partial, uri, etag, lastModified, length );
+				journal.setSource( response.getUri() );
+				journal.setWritten( offset );
+			}
+		}
 
+		// The digests of a resumed download include the data already written.
+		Map<String, MessageDigest> digests = createDigests();
+		if( offset > 0 ) DigestUtil.update( digests.values(), partial, offset );
+
+		Download download = new Download( uri, length, encoding, partial == null ? target : partial );
+		download.setAppend( offset > 0 );
+
+		boolean complete = false;
+		long start = offset;
+		DownloadProgress publisher = new DownloadProgress( listeners, length, wireLength, progressInterval, progressStep );
+		CountingInputStream wire = new CountingInputStream( response.getInputStream() );
+		ReadableByteChannel source = encoded ? Channels.newChannel( decode( wire, encoding ) ) : openChannel( wire );
+		ByteBuffer buffer = digests.isEmpty() ? null : ByteBuffer.allocateDirect( TRANSFER_SIZE );
 		try {
-			int read = 0;
-			int offset = 0;
-			while( ( read = input.read( buffer ) ) > -1 ) {
+			FileChannel channel = download.getChannel();
+			long count = 0;
+			long journalOffset = offset;
+			while( ( count = transfer( source, channel, offset, buffer, digests.values() ) ) > 0 ) {
 				if( isCancelled() ) return null;
-				download.write( buffer, 0, read );
-				offset += read;
-				setProgress( offset );
-				fireEvent( new DownloadEvent( offset, length ) );
+				offset += count;
+				long wireOffset = encoded ? wire.getCount() : offset;
+				if( publisher.update( offset, wireOffset ) ) setProgress( wireOffset );
+
+				if( journal != null && offset - journalOffset >= JOURNAL_INTERVAL ) {
+					journal.setWritten( offset );
+					journal.save();
+					journalOffset = offset;
+				}
 			}
 			if( isCancelled() ) return null;
+			long wireOffset = encoded ? wire.getCount() : offset;
+			if( publisher.finish( offset, wireOffset ) ) setProgress( wireOffset );
+			complete = true;
 		} finally {
+			received.addAndGet( encoded ? wire.getCount() : offset - start );
+			source.close();
 			download.close();
+			if( journal != null ) {
+				if( complete ) {
+					journal.delete();
+				} else {
+					journal.setWritten( offset );
+					journal.save();
+				}
+			}
+		}
+
+		if( encoded ) {
+			download.setLength( offset );
+			Log.write( Log.DEBUG, "Decoded ", encoding, " download: ", wire.getCount(), " to ", offset, " bytes: ", uri );
+		}
+
+		setDigests( download, digests );
+		verify( download, true );
+		complete( download, etag, lastModified );
+
+		return download;
+	}
+
+	/**
+	 * Probe the resource with a HEAD request to determine if it can be
+	 * downloaded in segments. Returns null if the resource should be downloaded
+	 * with a single request.
+	 */
+	private RangeProbe probe() {
+		String scheme = uri.getScheme();
+		if( !"http".equals( scheme ) && !"https".equals( scheme ) ) return null;
+
+		DownloadRequest request = createRequest();
+		request.setMethod( DownloadRequest.HEAD );
+		request.setHeader( "Accept-Encoding", IDENTITY );
+		try( DownloadResponse response = send( request ) ) {
+			if( response.getStatus() != HttpURLConnection.HTTP_OK ) return null;
+			if( !"bytes".equalsIgnoreCase( response.getHeader( "Accept-Ranges" ) ) ) return null;
+
+			long length = response.getContentLength();
+			if( length < segmentThreshold ) return null;
+
+			// Without a validator the segments could mix two versions of the resource.
+			String etag = response.getHeader( "ETag" );
+			String lastModified = response.getHeader( "Last-Modified" );
+			if( etag == null && lastModified == null ) return null;
+
+			// The segments are requested from the URI that served the probe so the validators match.
+			return new RangeProbe( response.getUri(), length, response.getHeader( "Content-Encoding" ), etag, lastModified );
+		} catch( IOException exception ) {
+			Log.write( Log.DEBUG, "Range probe failed, using single request: ", uri );
+			return null;
+		}
+	}
+
+	private Download downloadSegmented( RangeProbe probe, File partial ) throws IOException {
+		List<DownloadSegment> segments = DownloadSegment.split( probe.length, segmentCount, MINIMUM_SEGMENT_LENGTH );
+
+		setMinimum( 0 );
+		setMaximum( probe.length );
+
+		Download download = new Download( uri, probe.length, probe.encoding, partial == null ? target : partial );
+		File file = download.getTargetFile();
+		DownloadJournal journal = partial == null ? null : new DownloadJournal( partial, uri, probe.etag, probe.lastModified, probe.length );
+		if( journal != null ) journal.setSource( probe.source );
+
+		Log.write( Log.DEBUG, "Segmented download: ", uri, " (", segments.size(), " segments)" );
+
+		AtomicLong progress = new AtomicLong();
+		DownloadProgress publisher = new DownloadProgress( listeners, probe.length, progressInterval, progressStep );
+		ExecutorService executor = Executors.newFixedThreadPool( segments.size(), new SegmentThreadFactory() );
+		try( RandomAccessFile random = new RandomAccessFile( file, "rw" ) ) {
+			random.setLength( probe.length );
+			FileChannel channel = random.getChannel();
+
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for( DownloadSegment segment : segments ) {
+				futures.add( executor.submit( new SegmentWorker( segment, probe, channel, progress, publisher ) ) );
+			}
+
+			for( Future<Void> future : futures ) {
+				try {
+					future.get();
+				} catch( InterruptedException exception ) {
+					throw new InterruptedIOException( "Segmented download interrupted: " + uri );
+				} catch( ExecutionException exception ) {
+					Throwable cause = exception.getCause();
+					if( cause instanceof IOException ) throw (IOException)cause;
+					throw new IOException( cause );
+				}
+			}
+		} finally {
+			received.addAndGet( progress.get() );
+			executor.shutdownNow();
+			if( journal != null ) {
+				// Only the contiguous prefix of the segments can be resumed.
+				journal.setWritten( getContiguousLength( segments ) );
+				journal.save();
+			}
+		}
+
+		if( isCancelled() ) return null;
+
+		// Verify the reassembled resource.
+		for( DownloadSegment segment : segments ) {
+			if( !segment.isComplete() ) throw new IOException( "Incomplete segment " + segment + ": " + uri );
+		}
+		if( file.length() != probe.length ) throw new IOException( "Download length mismatch: " + file.length() + " != " + probe.length + ": " + uri );
+
+		if( journal != null ) journal.delete();
+
+		// Segments arrive out of order so the digests require another pass.
+		Map<String, MessageDigest> digests = createDigests();
+		if( !digests.isEmpty() ) DigestUtil.update( digests.values(), file, probe.length );
+		setDigests( download, digests );
+		verify( download, true );
+		complete( download, probe.etag, probe.lastModified );
+
+		return download;
+	}
+
+	/**
+	 * Send a request with the task transport, noting when the first response of
+	 * the download arrives.
+	 */
+	private DownloadResponse send( DownloadRequest request ) throws IOException {
+		DownloadResponse response = getTransport().send( request );
+		if( responseTime < 0 ) responseTime = System.currentTimeMillis() - startTime;
+		return response;
+	}
+
+	private boolean isConditional() {
+		return ifNoneMatch != null || ifModifiedSince != null;
+	}
+
+	private void startMeasurement() {
+		startTime = System.currentTimeMillis();
+		responseTime = -1;
+		received.set( 0 );
+		rejected = false;
+	}
+
+	private void recordMeasurement( boolean success ) {
+		long duration = System.currentTimeMillis() - startTime;
+		getMetrics().record( uri, category, received.get(), responseTime, duration, success );
+		Log.write( Log.DEBUG, "Download ", success ? "complete" : "failed", ": ", received.get(), " bytes in ", duration, "ms (response ", responseTime, "ms): ", uri );
+	}
+
+	/**
+	 * Complete a successful download by adding it to the artifact store, if
+	 * there is one, or marking the temporary file for removal.
+	 */
+	private void complete( Download download, String etag, String lastModified ) throws IOException {
+		if( isStored() ) {
+			ArtifactStore.Entry entry = store.store( uri, download.getTargetFile(), download.getDigest(), etag, lastModified );
+			download.setTarget( entry.getFile() );
+		} else if( target == null && resumeFolder != null ) {
+			download.getTarget().deleteOnExit();
 		}
 
 		Log.write( Log.TRACE, "Resource downloaded: " + uri );
 		Log.write( Log.DEBUG, "        to location: " + download.getTarget() );
+	}
 
-		return download;
+	/**
+	 * Create the digests to compute while downloading. The SHA-256 digest is
+	 * needed by the artifact store and is always computed when digests are
+	 * expected so it can be recorded with the download.
+	 */
+	private Map<String, MessageDigest> createDigests() {
+		Map<String, MessageDigest> digests = new LinkedHashMap<String, MessageDigest>();
+		if( isStored() || !expectedDigests.isEmpty() ) digests.put( DigestUtil.SHA_256, DigestUtil.create( DigestUtil.SHA_256 ) );
+		for( String algorithm : expectedDigests.keySet() ) {
+			if( !digests.containsKey( algorithm ) ) digests.put( algorithm, DigestUtil.create( algorithm ) );
+		}
+		return digests;
+	}
+
+	private static void setDigests( Download download, Map<String, MessageDigest> digests ) {
+		for( Map.Entry<String, MessageDigest> entry : digests.entrySet() ) {
+			download.setDigest( entry.getKey(), DigestUtil.toHex( entry.getValue().digest() ) );
+		}
+	}
+
+	/**
+	 * Verify the download digests against the expected digests. Digests that
+	 * were not computed while downloading are computed from the file. If the
+	 * digests do not match and the data is not shared, the file is removed.
+	 */
+	private void verify( Download download, boolean remove ) throws IOException {
+		for( Map.Entry<String, String> entry : expectedDigests.entrySet() ) {
+			String algorithm = entry.getKey();
+			String actual = download.getDigest( algorithm );
+			if( actual == null ) {
+				actual = DigestUtil.digest( download.getTargetFile(), algorithm );
+				download.setDigest( algorithm, actual );
+			}
+
+			if( !entry.getValue().equals( actual ) ) {
+				if( remove ) download.getTargetFile().delete();
+				throw new IOException( algorithm + " digest mismatch: expected " + entry.getValue() + " but was " + actual + ": " + uri );
+			}
+		}
+
+		if( !expectedDigests.isEmpty() ) Log.write( Log.DEBUG, "Resource verified: ", uri );
+	}
+
+	private boolean isStored() {
+		return store != null && target == null;
+	}
+
+	private DownloadRequest createRequest() {
+		return createRequest( uri );
+	}
+
+	private DownloadRequest createRequest( URI uri ) {
+		DownloadRequest request = new DownloadRequest( uri );
+		request.setConnectTimeout( connectTimeout );
+		request.setReadTimeout( readTimeout );
+		return request;
+	}
+
+	private void checkStatus( DownloadResponse response ) throws IOException {
+		int status = response.getStatus();
+		if( status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE ) throw new FileNotFoundException( uri.toString() );
+		if( status < 200 || status >= 300 ) throw new IOException( "Server returned HTTP response code: " + status + " for URI: " + uri );
+	}
+
+	/**
+	 * Get the file that holds the partial download. Returns null if the
+	 * download is not resumable.
+	 */
+	private File getPartialFile() {
+		if( resumeFolder == null ) return null;
+		if( target != null ) return target;
+		resumeFolder.mkdirs();
+		return new File( resumeFolder, DigestUtil.getKey( uri.toString() ) + PARTIAL_EXTENSION );
+	}
+
+	private boolean isResumed( DownloadResponse response, long offset ) {
+		if( offset <= 0 ) return false;
+		if( response.getStatus() != HttpURLConnection.HTTP_PARTIAL ) return false;
+		String contentRange = response.getHeader( "Content-Range" );
+		return contentRange != null && contentRange.startsWith( "bytes " + offset + "-" );
+	}
+
+	private static void truncate( File file, long length ) throws IOException {
+		if( !file.exists() ) return;
+		try( RandomAccessFile random = new RandomAccessFile( file, "rw" ) ) {
+			random.setLength( length );
+		}
+	}
+
+	private static boolean isEncoded( String encoding ) {
+		return encoding != null && encoding.trim().length() > 0 && !IDENTITY.equalsIgnoreCase( encoding.trim() );
+	}
+
+	/**
+	 * Wrap the response stream to decode the content encoding.
+	 */
+	private InputStream decode( InputStream input, String encoding ) throws IOException {
+		if( !isEncoded( encoding ) ) return input;
+
+		String name = encoding.trim().toLowerCase( Locale.ROOT );
+		if( "gzip".equals( name ) || "x-gzip".equals( name ) ) return new GZIPInputStream( input, TRANSFER_SIZE );
+		if( "deflate".equals( name ) ) return new InflaterInputStream( input );
+
+		throw new IOException( "Unsupported content encoding: " + encoding + ": " + uri );
+	}
+
+	/**
+	 * Open the channel to read the resource data from. Local files are read
+	 * through a file channel so the data can be transferred without copying it
+	 * through the heap.
+	 */
+	private ReadableByteChannel openChannel( InputStream input ) throws IOException {
+		if( !"file".equals( uri.getScheme() ) ) return Channels.newChannel( input );
+		input.close();
+		return FileChannel.open( new File( uri ).toPath(), StandardOpenOption.READ );
+	}
+
+	/**
+	 * Transfer the next chunk of data from the source to the target channel at
+	 * the specified position. When digests are not required the data is moved
+	 * with FileChannel.transferFrom(), which avoids copying through user space
+	 * for file channels. Otherwise the data passes through the direct buffer so
+	 * the digests can be updated.
+	 *
+	 * @return The number of bytes transferred or zero at the end of the data.
+	 */
+	private static long transfer( ReadableByteChannel source, FileChannel target, long position, ByteBuffer buffer, Collection<MessageDigest> digests ) throws IOException {
+		if( digests.isEmpty() ) return target.transferFrom( source, position, TRANSFER_SIZE );
+
+		buffer.clear();
+		int read = source.read( buffer );
+		if( read < 0 ) return 0;
+		buffer.flip();
+
+		for( MessageDigest digest : digests ) {
+			digest.update( buffer );
+			buffer.rewind();
+		}
+
+		long written = 0;
+		while( buffer.hasRemaining() ) {
+			written += target.write( buffer, position + written );
+		}
+		return written;
+	}
+
+	private static long getContiguousLength( List<DownloadSegment> segments ) {
+		long length = 0;
+		for( DownloadSegment segment : segments ) {
+			length += segment.getWritten();
+			if( !segment.isComplete() ) break;
+		}
+		return length;
 	}
 
 	public void addListener( DownloadListener listener ) {
@@ -96,14 +898,202 @@ public class DownloadTask extends Task<Download> {
 		listeners.remove( listener );
 	}
 
-	private void fireEvent( DownloadEvent event ) {
-		for( DownloadListener listener : new HashSet<DownloadListener>( listeners ) ) {
+	/**
+	 * Report that the data read from the stream returned by open() could not be
+	 * used, for example because it could not be parsed. The download is then
+	 * measured as failed when the stream is closed.
+	 */
+	public void reject() {
+		rejected = true;
+	}
+
+	/**
+	 * A stream of response data that enforces the size limit, reports progress
+	 * and closes the response when closed. The download is measured as
+	 * successful only if the data was read to the end without an error and was
+	 * not rejected.
+	 */
+	private final class LimitedInputStream extends FilterInputStream {
+
+		private DownloadResponse response;
+
+		private CountingInputStream wire;
+
+		private long limit;
+
+		private long count;
+
+		private DownloadProgress publisher;
+
+		private boolean closed;
+
+		private boolean ended;
+
+		private boolean failed;
+
+		public LimitedInputStream( DownloadResponse response, InputStream input, CountingInputStream wire, long limit, DownloadProgress publisher ) {
+			super( input );
+			this.response = response;
+			this.wire = wire;
+			this.limit = limit;
+			this.publisher = publisher;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				int data = super.read();
+				if( data > -1 ) update( 1 );
+				if( data < 0 ) ended = true;
+				return data;
+			} catch( IOException | RuntimeException exception ) {
+				failed = true;
+				throw exception;
+			}
+		}
+
+		@Override
+		public int read( byte[] buffer, int offset, int length ) throws IOException {
+			try {
+				int read = super.read( buffer, offset, length );
+				if( read > 0 ) update( read );
+				if( read < 0 ) ended = true;
+				return read;
+			} catch( IOException | RuntimeException exception ) {
+				failed = true;
+				throw exception;
+			}
+		}
+
+		@Override
+		public long skip( long length ) throws IOException {
 			try {
-				listener.update( event );
-			} catch( Throwable throwable ) {
-				Log.write( throwable );
+				long skipped = super.skip( length );
+				if( skipped > 0 ) update( skipped );
+				return skipped;
+			} catch( IOException | RuntimeException exception ) {
+				failed = true;
+				throw exception;
+			}
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if( closed ) return;
+			closed = true;
+			try {
+				publisher.finish( count, wire.getCount() );
+				super.close();
+			} finally {
+				response.close();
+				received.addAndGet( wire.getCount() );
+				recordMeasurement( ended && !failed && !rejected );
+			}
+		}
+
+		private void update( long read ) throws IOException {
+			count += read;
+			if( count > limit ) throw new IOException( "Resource larger than limit " + limit + ": " + uri );
+			if( publisher.update( count, wire.getCount() ) ) setProgress( wire.getCount() );
+		}
+
+	}
+
+	private static final class RangeProbe {
+
+		private URI source;
+
+		private long length;
+
+		private String encoding;
+
+		private String etag;
+
+		private String lastModified;
+
+		public RangeProbe( URI source, long length, String encoding, String etag, String lastModified ) {
+			this.source = source;
+			this.length = length;
+			this.encoding = encoding;
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+	}
+
+	private final class SegmentWorker implements Callable<Void> {
+
+		private DownloadSegment segment;
+
+		private RangeProbe probe;
+
+		private FileChannel channel;
+
+		private AtomicLong progress;
+
+		private DownloadProgress publisher;
+
+		public SegmentWorker( DownloadSegment segment, RangeProbe probe, FileChannel channel, AtomicLong progress, DownloadProgress publisher ) {
+			this.segment = segment;
+			this.probe = probe;
+			this.channel = channel;
+			this.progress = progress;
+			this.publisher = publisher;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			DownloadRequest request = createRequest( probe.source );
+			request.setHeader( "Accept-Encoding", IDENTITY );
+			request.setHeader( "Range", segment.getRangeHeader() );
+			request.setHeader( "If-Range", probe.etag == null ? probe.lastModified : probe.etag );
+
+			try( DownloadResponse response = send( request ) ) {
+				// A full response means the entity changed or the range was ignored.
+				if( response.getStatus() != HttpURLConnection.HTTP_PARTIAL ) throw new IOException( "Range request not honored: " + segment.getRangeHeader() + ": " + uri );
+
+				String contentRange = response.getHeader( "Content-Range" );
+				if( contentRange == null || !contentRange.startsWith( "bytes " + segment.getStart() + "-" ) ) throw new IOException( "Unexpected content range: " + contentRange + ": " + uri );
+
+				receive( response );
+			}
+
+			return null;
+		}
+
+		private void receive( DownloadResponse response ) throws IOException {
+			long position = segment.getStart();
+			try( ReadableByteChannel source = Channels.newChannel( response.getInputStream() ) ) {
+				long count = 0;
+				while( ( count = transfer( source, channel, position, null, Collections.<MessageDigest> emptySet() ) ) > 0 ) {
+					if( isCancelled() ) return;
+					if( segment.getWritten() + count > segment.getLength() ) throw new IOException( "Segment overrun " + segment + ": " + uri );
+
+					position += count;
+					segment.addWritten( count );
+
+					long offset = progress.addAndGet( count );
+					if( publisher.update( offset ) ) setProgress( offset );
+				}
 			}
 		}
+
+	}
+
+	private static final class SegmentThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Download Segment" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
 	}
 
 }
@@ -0,0 +1,21 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.IOException;
+
+/**
+ * The transport used by download tasks to request resources. A transport may be
+ * shared by many tasks so implementations must be thread safe.
+ */
+public interface DownloadTransport {
+
+	/**
+	 * Send the request and return the response once the response headers are
+	 * available. The caller must close the response.
+	 *
+	 * @param request The request to send.
+	 * @return The response.
+	 * @throws IOException If the request could not be sent.
+	 */
+	DownloadResponse send( DownloadRequest request ) throws IOException;
+
+}
@@ -0,0 +1,171 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.PasswordAuthentication;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * A download transport backed by a shared HttpClient. Connections are kept
+ * alive and reused between requests and HTTP/2 is used when the server
+ * supports it, so many requests to the same host share a few connections. The
+ * number of concurrent requests to each host is limited. Requests for other
+ * schemes, such as file and jar URIs, are sent with the fallback transport.
+ */
+public class HttpClientTransport implements DownloadTransport {
+
+	public static final int DEFAULT_HOST_CONNECTION_LIMIT = 4;
+
+	private HttpClient client;
+
+	private DownloadTransport fallback;
+
+	private int hostConnectionLimit;
+
+	private ConcurrentMap<String, Semaphore> hostPermits;
+
+	public HttpClientTransport() {
+		this( DEFAULT_HOST_CONNECTION_LIMIT );
+	}
+
+	public HttpClientTransport( int hostConnectionLimit ) {
+		this.hostConnectionLimit = Math.max( 1, hostConnectionLimit );
+		this.hostPermits = new ConcurrentHashMap<String, Semaphore>();
+		this.fallback = new UrlConnectionTransport();
+		this.client = HttpClient.newBuilder().version( HttpClient.Version.HTTP_2 ).followRedirects( HttpClient.Redirect.NORMAL ).connectTimeout( Duration.ofMillis( DownloadTask.DEFAULT_CONNECT_TIMEOUT ) ).authenticator( new DefaultAuthenticator() ).build();
+	}
+
+	public int getHostConnectionLimit() {
+		return hostConnectionLimit;
+	}
+
+	@Override
+	public DownloadResponse send( DownloadRequest request ) throws IOException {
+		URI uri = request.getUri();
+		String scheme = uri.getScheme();
+		if( !"http".equals( scheme ) && !"https".equals( scheme ) ) return fallback.send( request );
+
+		HttpRequest.Builder builder = HttpRequest.newBuilder( uri );
+		builder.method( request.getMethod(), HttpRequest.BodyPublishers.noBody() );
+		// The request timeout only bounds the response headers, the body is read with a read timeout.
+		builder.timeout( Duration.ofMillis( request.getConnectTimeout() + request.getReadTimeout() ) );
+		for( Map.Entry<String, String> entry : request.getHeaders().entrySet() ) {
+			builder.header( entry.getKey(), entry.getValue() );
+		}
+
+		Semaphore permits = getHostPermits( uri );
+		try {
+			permits.acquire();
+		} catch( InterruptedException exception ) {
+			throw new InterruptedIOException( "Interrupted waiting for connection: " + uri );
+		}
+
+		try {
+			HttpResponse<InputStream> response = client.send( builder.build(), HttpResponse.BodyHandlers.ofInputStream() );
+			Log.write( Log.DEBUG, request, " (", response.version(), "): ", response.statusCode() );
+			return new Response( uri, response, permits, request.getReadTimeout() );
+		} catch( InterruptedException exception ) {
+			permits.release();
+			throw new InterruptedIOException( "Request interrupted: " + uri );
+		} catch( IOException | RuntimeException exception ) {
+			permits.release();
+			throw exception;
+		}
+	}
+
+	private Semaphore getHostPermits( URI uri ) {
+		String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+		Semaphore permits = hostPermits.get( key );
+		if( permits == null ) {
+			Semaphore created = new Semaphore( hostConnectionLimit );
+			permits = hostPermits.putIfAbsent( key, created );
+			if( permits == null ) permits = created;
+		}
+		return permits;
+	}
+
+	/**
+	 * Asks the default authenticator for credentials when they are requested.
+	 * The default authenticator, such as the proxy authenticator installed by
+	 * the service, may be set after the client is created.
+	 */
+	private static final class DefaultAuthenticator extends Authenticator {
+
+		@Override
+		protected PasswordAuthentication getPasswordAuthentication() {
+			return Authenticator.requestPasswordAuthentication( getRequestingHost(), getRequestingSite(), getRequestingPort(), getRequestingProtocol(), getRequestingPrompt(), getRequestingScheme(), getRequestingURL(), getRequestorType() );
+		}
+
+	}
+
+	private static final class Response implements DownloadResponse {
+
+		private URI uri;
+
+		private HttpResponse<InputStream> response;
+
+		private InputStream body;
+
+		private Semaphore permits;
+
+		private AtomicBoolean closed;
+
+		public Response( URI uri, HttpResponse<InputStream> response, Semaphore permits, int readTimeout ) {
+			this.uri = uri;
+			this.response = response;
+			this.body = new ReadTimeoutInputStream( response.body(), readTimeout );
+			this.permits = permits;
+			this.closed = new AtomicBoolean();
+		}
+
+		@Override
+		public int getStatus() {
+			return response.statusCode();
+		}
+
+		@Override
+		public URI getUri() {
+			return uri;
+		}
+
+		@Override
+		public String getHeader( String name ) {
+			return response.headers().firstValue( name ).orElse( null );
+		}
+
+		@Override
+		public long getContentLength() {
+			return response.headers().firstValueAsLong( "Content-Length" ).orElse( -1 );
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return body;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if( !closed.compareAndSet( false, true ) ) return;
+			try {
+				body.close();
+			} finally {
+				permits.release();
+			}
+		}
+
+	}
+
+}
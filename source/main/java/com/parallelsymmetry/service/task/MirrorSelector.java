@@ -0,0 +1,284 @@
+package com.parallelsymmetry.service.task;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.parallelsymmetry.utility.setting.Persistent;
+import com.parallelsymmetry.utility.setting.Settings;
+
+/**
+ * Ranks equivalent mirrors of download sources by latency. A mirror group is a
+ * base URI and the base URIs of its mirrors. A URI under any base in a group can
+ * be fetched from every other base in the group. Each host keeps an
+ * exponentially weighted moving average of the request latency, which is
+ * persisted between runs, and a window of recent samples used to determine when
+ * a request should be hedged.
+ */
+public class MirrorSelector implements Persistent {
+
+	/**
+	 * The latency assumed for hosts that have not been measured.
+	 */
+	public static final long DEFAULT_LATENCY = 500;
+
+	/**
+	 * The hedge delay used until enough samples have been collected.
+	 */
+	public static final long DEFAULT_HEDGE_DELAY = 1000;
+
+	/**
+	 * The shortest hedge delay so fast hosts are not hedged needlessly.
+	 */
+	public static final long MINIMUM_HEDGE_DELAY = 100;
+
+	/**
+	 * The latency percentile after which a request is hedged.
+	 */
+	public static final double HEDGE_PERCENTILE = 0.9;
+
+	private static final double WEIGHT = 0.3;
+
+	private static final int SAMPLE_COUNT = 32;
+
+	private static final int MINIMUM_SAMPLE_COUNT = 5;
+
+	private static final String HOSTS_KEY = "hosts";
+
+	private List<List<URI>> groups;
+
+	private ConcurrentMap<String, HostLatency> latencies;
+
+	public MirrorSelector() {
+		groups = new CopyOnWriteArrayList<List<URI>>();
+		latencies = new ConcurrentHashMap<String, HostLatency>();
+	}
+
+	/**
+	 * Add a mirror group. If the base already belongs to a group the mirrors are
+	 * added to that group.
+	 *
+	 * @param base The base URI of the primary source.
+	 * @param mirrors The base URIs of the mirrors.
+	 */
+	public synchronized void addMirrors( URI base, Collection<URI> mirrors ) {
+		if( base == null || mirrors == null || mirrors.isEmpty() ) return;
+
+		List<URI> group = findGroup( base );
+		if( group == null ) {
+			group = new CopyOnWriteArrayList<URI>();
+			group.add( getBase( base ) );
+			groups.add( group );
+		}
+
+		for( URI mirror : mirrors ) {
+			URI mirrorBase = getBase( mirror );
+			if( !group.contains( mirrorBase ) ) group.add( mirrorBase );
+		}
+	}
+
+	/**
+	 * Get the URIs the resource can be fetched from, ordered from the lowest
+	 * expected latency to the highest. The specified URI is always included and
+	 * is first when the latencies are equal.
+	 */
+	public List<URI> getCandidates( URI uri ) {
+		final List<URI> candidates = new ArrayList<URI>();
+		candidates.add( uri );
+
+		String text = uri.toString();
+		for( List<URI> group : groups ) {
+			for( URI base : group ) {
+				String prefix = base.toString();
+				if( !text.startsWith( prefix ) ) continue;
+
+				String suffix = text.substring( prefix.length() );
+				for( URI mirror : group ) {
+					URI candidate = URI.create( mirror.toString() + suffix );
+					if( !candidates.contains( candidate ) ) candidates.add( candidate );
+				}
+				break;
+			}
+		}
+
+		if( candidates.size() > 1 ) {
+			Collections.sort( candidates, new Comparator<URI>() {
+
+				@Override
+				public int compare( URI uri1, URI uri2 ) {
+					int result = Long.compare( getLatency( uri1 ), getLatency( uri2 ) );
+					if( result != 0 ) return result;
+					return Integer.compare( candidates.indexOf( uri1 ), candidates.indexOf( uri2 ) );
+				}
+
+			} );
+		}
+
+		return candidates;
+	}
+
+	/**
+	 * Get the expected latency of requests to the host of the URI in
+	 * milliseconds.
+	 */
+	public long getLatency( URI uri ) {
+		HostLatency latency = latencies.get( getHost( uri ) );
+		return latency == null ? DEFAULT_LATENCY : latency.getAverage();
+	}
+
+	/**
+	 * Get the time to wait for a response from the host of the URI before a
+	 * duplicate request is sent to a mirror.
+	 */
+	public long getHedgeDelay( URI uri ) {
+		HostLatency latency = latencies.get( getHost( uri ) );
+		if( latency == null ) return DEFAULT_HEDGE_DELAY;
+
+		long percentile = latency.getPercentile( HEDGE_PERCENTILE );
+		if( percentile < 0 ) return DEFAULT_HEDGE_DELAY;
+		return Math.max( MINIMUM_HEDGE_DELAY, percentile );
+	}
+
+	/**
+	 * Record the latency of a request to the host of the URI.
+	 *
+	 * @param uri The request URI.
+	 * @param latency The time until the response was received in milliseconds.
+	 */
+	public void record( URI uri, long latency ) {
+		getHostLatency( getHost( uri ) ).add( Math.max( 0, latency ) );
+	}
+
+	/**
+	 * Record a failed request. Failures are recorded as twice the current
+	 * average latency so the host is ranked behind its mirrors.
+	 */
+	public void recordFailure( URI uri, long elapsed ) {
+		HostLatency latency = getHostLatency( getHost( uri ) );
+		latency.add( Math.max( elapsed, 2 * latency.getAverage() ) );
+	}
+
+	@Override
+	public void loadSettings( Settings settings ) {
+		if( settings == null ) return;
+
+		Set<Settings> hostSettings = settings.getChildNodes( HOSTS_KEY );
+		if( hostSettings == null ) return;
+
+		for( Settings node : hostSettings ) {
+			HostLatency latency = new HostLatency();
+			latency.loadSettings( node );
+			if( latency.host != null ) latencies.put( latency.host, latency );
+		}
+	}
+
+	@Override
+	public void saveSettings( Settings settings ) {
+		if( settings == null ) return;
+		settings.putNodeSet( HOSTS_KEY, new HashSet<HostLatency>( latencies.values() ) );
+	}
+
+	private List<URI> findGroup( URI base ) {
+		URI key = getBase( base );
+		for( List<URI> group : groups ) {
+			if( group.contains( key ) ) return group;
+		}
+		return null;
+	}
+
+	private HostLatency getHostLatency( String host ) {
+		HostLatency latency = latencies.get( host );
+		if( latency == null ) {
+			latency = new HostLatency( host );
+			HostLatency existing = latencies.putIfAbsent( host, latency );
+			if( existing != null ) latency = existing;
+		}
+		return latency;
+	}
+
+	/**
+	 * Base URIs always end with a slash so a base never matches part of a path
+	 * segment.
+	 */
+	private static URI getBase( URI uri ) {
+		String text = uri.toString();
+		return text.endsWith( "/" ) ? uri : URI.create( text + "/" );
+	}
+
+	static String getHost( URI uri ) {
+		String authority = uri.getAuthority();
+		return authority == null ? String.valueOf( uri.getScheme() ) : authority.toLowerCase( Locale.ROOT );
+	}
+
+	/**
+	 * The latency statistics for a host.
+	 */
+	public static final class HostLatency implements Persistent {
+
+		private String host;
+
+		private long average = -1;
+
+		private long[] samples = new long[SAMPLE_COUNT];
+
+		private int sampleCount;
+
+		private int sampleIndex;
+
+		/*
+		 * This constructor is required for the Settings API.
+		 */
+		public HostLatency() {}
+
+		HostLatency( String host ) {
+			this.host = host;
+		}
+
+		synchronized long getAverage() {
+			return average < 0 ? DEFAULT_LATENCY : average;
+		}
+
+		synchronized void add( long latency ) {
+			average = average < 0 ? latency : Math.round( WEIGHT * latency + ( 1 - WEIGHT ) * average );
+			samples[sampleIndex] = latency;
+			sampleIndex = ( sampleIndex + 1 ) % samples.length;
+			if( sampleCount < samples.length ) sampleCount++;
+		}
+
+		/**
+		 * Get the latency percentile of the recent samples or -1 if there are not
+		 * enough samples.
+		 */
+		synchronized long getPercentile( double percentile ) {
+			if( sampleCount < MINIMUM_SAMPLE_COUNT ) return -1;
+			long[] sorted = Arrays.copyOf( samples, sampleCount );
+			Arrays.sort( sorted );
+			int index = (int)Math.ceil( percentile * sampleCount ) - 1;
+			return sorted[Math.max( 0, Math.min( sampleCount - 1, index ) )];
+		}
+
+		@Override
+		public synchronized void loadSettings( Settings settings ) {
+			host = settings.get( "host", null );
+			average = settings.getLong( "latency", -1 );
+		}
+
+		@Override
+		public synchronized void saveSettings( Settings settings ) {
+			settings.put( "host", host );
+			settings.putLong( "latency", getAverage() );
+		}
+
+	}
+
+}
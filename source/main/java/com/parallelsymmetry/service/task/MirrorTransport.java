@@ -0,0 +1,233 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.parallelsymmetry.utility.log.Log;
+
+/**
+ * A download transport that sends requests to the fastest mirror of the
+ * resource. If the response does not arrive within the hedge delay of the
+ * mirror a duplicate request is sent to the next mirror and the first response
+ * wins. The losing request is cancelled. Failed requests, including client
+ * errors such as a mirror missing the resource, fail over to the next mirror.
+ * Byte range requests are only sent to the requested URI because the entity
+ * validators of different mirrors do not match, so range requests that
+ * continue a download are sent to the URI of the response that started it.
+ */
+public class MirrorTransport implements DownloadTransport {
+
+	private DownloadTransport transport;
+
+	private MirrorSelector selector;
+
+	private ExecutorService executor;
+
+	public MirrorTransport( DownloadTransport transport, MirrorSelector selector ) {
+		this.transport = transport;
+		this.selector = selector;
+		this.executor = Executors.newCachedThreadPool( new HedgeThreadFactory() );
+	}
+
+	public MirrorSelector getSelector() {
+		return selector;
+	}
+
+	@Override
+	public DownloadResponse send( DownloadRequest request ) throws IOException {
+		List<URI> candidates = request.getHeader( "Range" ) == null ? selector.getCandidates( request.getUri() ) : null;
+		if( candidates == null || candidates.size() < 2 ) return new Attempt( request, request.getUri() ).call();
+		return sendHedged( request, candidates );
+	}
+
+	private DownloadResponse sendHedged( DownloadRequest request, List<URI> candidates ) throws IOException {
+		CompletionService<DownloadResponse> service = new ExecutorCompletionService<DownloadResponse>( executor );
+		List<Attempt> attempts = new ArrayList<Attempt>();
+		List<Future<DownloadResponse>> futures = new ArrayList<Future<DownloadResponse>>();
+
+		Future<DownloadResponse> winner = null;
+		Future<DownloadResponse> rejected = null;
+		DownloadResponse rejection = null;
+		IOException failure = null;
+		int pending = 0;
+		boolean hedged = false;
+		long delay = selector.getHedgeDelay( candidates.get( 0 ) );
+
+		try {
+			start( service, new Attempt( request, candidates.get( 0 ) ), attempts, futures );
+			pending++;
+
+			while( pending > 0 ) {
+				Future<DownloadResponse> future = hedged ? service.take() : service.poll( delay, TimeUnit.MILLISECONDS );
+
+				// The first request is slow so send a duplicate to the next mirror.
+				if( future == null ) {
+					hedged = true;
+					if( attempts.size() < candidates.size() ) {
+						URI uri = candidates.get( attempts.size() );
+						Log.write( Log.DEBUG, "Hedging request after ", delay, "ms: ", uri );
+						start( service, new Attempt( request, uri ), attempts, futures );
+						pending++;
+					}
+					continue;
+				}
+
+				pending--;
+				try {
+					DownloadResponse response = future.get();
+					if( isSuccess( response.getStatus() ) ) {
+						winner = future;
+						return response;
+					}
+
+					// Keep the last rejection so the caller sees its status if every mirror fails.
+					if( rejection != null ) rejection.close();
+					rejected = future;
+					rejection = response;
+				} catch( ExecutionException exception ) {
+					Throwable cause = exception.getCause();
+					failure = cause instanceof IOException ? (IOException)cause : new IOException( cause );
+				}
+
+				// Fail over to the next mirror.
+				if( attempts.size() < candidates.size() ) {
+					URI uri = candidates.get( attempts.size() );
+					Log.write( Log.DEBUG, "Request failed, trying mirror: ", uri );
+					start( service, new Attempt( request, uri ), attempts, futures );
+					pending++;
+				}
+			}
+			if( rejection != null ) {
+				winner = rejected;
+				return rejection;
+			}
+		} catch( InterruptedException exception ) {
+			throw new InterruptedIOException( "Request interrupted: " + request.getUri() );
+		} finally {
+			// Cancel the requests that did not win.
+			for( int index = 0; index < attempts.size(); index++ ) {
+				if( futures.get( index ) != winner ) attempts.get( index ).abandon( futures.get( index ) );
+			}
+		}
+
+		throw failure;
+	}
+
+	private static boolean isSuccess( int status ) {
+		return status >= 200 && status < 400;
+	}
+
+	private void start( CompletionService<DownloadResponse> service, Attempt attempt, List<Attempt> attempts, List<Future<DownloadResponse>> futures ) {
+		attempts.add( attempt );
+		futures.add( service.submit( attempt ) );
+	}
+
+	/**
+	 * A request to one mirror. The latency of the request is recorded with the
+	 * mirror selector.
+	 */
+	private final class Attempt implements Callable<DownloadResponse> {
+
+		private DownloadRequest request;
+
+		private URI uri;
+
+		private long start;
+
+		private DownloadResponse response;
+
+		private boolean finished;
+
+		private boolean abandoned;
+
+		public Attempt( DownloadRequest request, URI uri ) {
+			this.request = request;
+			this.uri = uri;
+		}
+
+		@Override
+		public DownloadResponse call() throws IOException {
+			start = System.currentTimeMillis();
+			DownloadResponse response;
+			try {
+				response = transport.send( copy( request, uri ) );
+			} catch( IOException | RuntimeException exception ) {
+				synchronized( this ) {
+					finished = true;
+					if( !abandoned ) selector.recordFailure( uri, System.currentTimeMillis() - start );
+				}
+				throw exception;
+			}
+
+			synchronized( this ) {
+				finished = true;
+				if( abandoned ) {
+					response.close();
+					return response;
+				}
+				this.response = response;
+			}
+
+			long latency = System.currentTimeMillis() - start;
+			if( !isSuccess( response.getStatus() ) ) {
+				selector.recordFailure( uri, latency );
+			} else {
+				selector.record( uri, latency );
+			}
+			return response;
+		}
+
+		/**
+		 * Abandon the attempt because another attempt won. A request still in
+		 * progress is interrupted and the time waited is recorded as its latency
+		 * so the mirror is ranked lower.
+		 */
+		void abandon( Future<DownloadResponse> future ) throws IOException {
+			DownloadResponse response;
+			synchronized( this ) {
+				abandoned = true;
+				response = this.response;
+				if( !finished && start > 0 ) selector.record( uri, System.currentTimeMillis() - start );
+			}
+			future.cancel( true );
+			if( response != null ) response.close();
+		}
+
+	}
+
+	private static DownloadRequest copy( DownloadRequest request, URI uri ) {
+		DownloadRequest copy = new DownloadRequest( uri );
+		copy.setMethod( request.getMethod() );
+		copy.setConnectTimeout( request.getConnectTimeout() );
+		copy.setReadTimeout( request.getReadTimeout() );
+		for( Map.Entry<String, String> entry : request.getHeaders().entrySet() ) {
+			copy.setHeader( entry.getKey(), entry.getValue() );
+		}
+		return copy;
+	}
+
+	private static final class HedgeThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Download Mirror" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
+}
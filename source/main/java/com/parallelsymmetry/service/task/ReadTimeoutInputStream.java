@@ -0,0 +1,134 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An input stream that limits the time a single read may block. Streams that
+ * have no read timeout of their own, such as HttpClient response bodies, are
+ * closed by a watchdog when a read blocks longer than the timeout and the read
+ * fails with a SocketTimeoutException, the same as a socket read timeout.
+ */
+final class ReadTimeoutInputStream extends FilterInputStream {
+
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor( new WatchdogThreadFactory() );
+
+	private long timeout;
+
+	private volatile long readStart;
+
+	private volatile boolean timedOut;
+
+	private ScheduledFuture<?> check;
+
+	/**
+	 * @param input The stream to read.
+	 * @param timeout The read timeout in milliseconds. Zero or less disables the
+	 *          timeout.
+	 */
+	ReadTimeoutInputStream( InputStream input, long timeout ) {
+		super( input );
+		this.timeout = timeout;
+		if( timeout > 0 ) {
+			long period = Math.max( 10, timeout / 4 );
+			check = WATCHDOG.scheduleWithFixedDelay( new Runnable() {
+
+				@Override
+				public void run() {
+					checkTimeout();
+				}
+
+			}, period, period, TimeUnit.MILLISECONDS );
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		begin();
+		try {
+			return super.read();
+		} catch( IOException exception ) {
+			throw timedOut( exception );
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public int read( byte[] buffer, int offset, int length ) throws IOException {
+		begin();
+		try {
+			return super.read( buffer, offset, length );
+		} catch( IOException exception ) {
+			throw timedOut( exception );
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public long skip( long length ) throws IOException {
+		begin();
+		try {
+			return super.skip( length );
+		} catch( IOException exception ) {
+			throw timedOut( exception );
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if( check != null ) check.cancel( false );
+		super.close();
+	}
+
+	private void begin() throws IOException {
+		if( timedOut ) throw new SocketTimeoutException( "Read timed out" );
+		readStart = System.currentTimeMillis();
+	}
+
+	private void end() {
+		readStart = 0;
+	}
+
+	private IOException timedOut( IOException exception ) {
+		if( !timedOut ) return exception;
+		SocketTimeoutException timeout = new SocketTimeoutException( "Read timed out" );
+		timeout.initCause( exception );
+		return timeout;
+	}
+
+	private void checkTimeout() {
+		long start = readStart;
+		if( start == 0 || System.currentTimeMillis() - start < timeout ) return;
+
+		// Closing the stream unblocks the read.
+		timedOut = true;
+		try {
+			close();
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	private static final class WatchdogThreadFactory implements ThreadFactory {
+
+		@Override
+		public Thread newThread( Runnable runnable ) {
+			Thread thread = new Thread( runnable, "Read Timeout Watchdog" );
+			thread.setDaemon( true );
+			return thread;
+		}
+
+	}
+
+}
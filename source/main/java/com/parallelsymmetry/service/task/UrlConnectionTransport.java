@@ -0,0 +1,88 @@
+package com.parallelsymmetry.service.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * A download transport that uses URLConnection. This transport supports every
+ * scheme the platform supports, such as file and jar URIs, but opens a new
+ * connection for each request.
+ */
+public class UrlConnectionTransport implements DownloadTransport {
+
+	@Override
+	public DownloadResponse send( DownloadRequest request ) throws IOException {
+		URLConnection connection = request.getUri().toURL().openConnection();
+		connection.setConnectTimeout( request.getConnectTimeout() );
+		connection.setReadTimeout( request.getReadTimeout() );
+		connection.setUseCaches( false );
+		if( connection instanceof HttpURLConnection ) ( (HttpURLConnection)connection ).setRequestMethod( request.getMethod() );
+		for( Map.Entry<String, String> entry : request.getHeaders().entrySet() ) {
+			connection.setRequestProperty( entry.getKey(), entry.getValue() );
+		}
+		connection.connect();
+
+		return new Response( request.getUri(), connection );
+	}
+
+	private static final class Response implements DownloadResponse {
+
+		private URI uri;
+
+		private URLConnection connection;
+
+		private InputStream input;
+
+		public Response( URI uri, URLConnection connection ) {
+			this.uri = uri;
+			this.connection = connection;
+		}
+
+		@Override
+		public URI getUri() {
+			return uri;
+		}
+
+		@Override
+		public int getStatus() {
+			if( !( connection instanceof HttpURLConnection ) ) return HttpURLConnection.HTTP_OK;
+			try {
+				return ( (HttpURLConnection)connection ).getResponseCode();
+			} catch( IOException exception ) {
+				return -1;
+			}
+		}
+
+		@Override
+		public String getHeader( String name ) {
+			return connection.getHeaderField( name );
+		}
+
+		@Override
+		public long getContentLength() {
+			return connection.getContentLengthLong();
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			if( input == null ) input = connection.getInputStream();
+			return input;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// Closing the stream lets the platform keep the connection alive.
+			if( input != null ) {
+				input.close();
+			} else if( connection instanceof HttpURLConnection ) {
+				( (HttpURLConnection)connection ).disconnect();
+			}
+		}
+
+	}
+
+}
@@ -5,6 +5,7 @@ module com.parallelsymmetry.service {
 	requires com.parallelsymmetry.updater;
 	requires com.parallelsymmetry.utility;
 	requires java.management;
+	requires java.net.http;
 	requires java.logging;
 	requires java.desktop;
 
@@ -0,0 +1,29 @@
+package com.parallelsymmetry.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RestartShutdownHookTest extends BaseTestCase {
+
+	@Test
+	public void testHandoffCommand() throws Exception {
+		MockService service = new MockService();
+		service.processInternal( ServiceFlag.EXECMODE, ServiceFlagValue.TEST, ServiceFlag.SETTINGS_RESET, ServiceFlag.STOP );
+
+		assertFalse( new RestartShutdownHook( service ).getCommand().contains( ServiceFlag.HANDOFF ) );
+		assertTrue( new RestartShutdownHook( service, ServiceFlag.HANDOFF ).getCommand().contains( ServiceFlag.HANDOFF ) );
+	}
+
+	@Test
+	public void testHandoffNotCarried() throws Exception {
+		MockService service = new MockService();
+		service.processInternal( ServiceFlag.EXECMODE, ServiceFlagValue.TEST, ServiceFlag.SETTINGS_RESET, ServiceFlag.HANDOFF, ServiceFlag.STOP );
+		assertTrue( service.getParameters().isTrue( ServiceFlag.HANDOFF ) );
+
+		// A replacement process restarts without handing off again.
+		assertFalse( new RestartShutdownHook( service ).getCommand().contains( ServiceFlag.HANDOFF ) );
+		assertFalse( new RestartShutdownHook( service, ServiceFlag.NOUPDATECHECK ).getCommand().contains( ServiceFlag.HANDOFF ) );
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CatalogIndexTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/catalog" );
+
+	private static final File INDEX = new File( SANDBOX, "catalog.index" );
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		SANDBOX.mkdirs();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		assertEquals( 0, CatalogIndex.empty().size() );
+		assertEquals( 0, CatalogIndex.empty().find( "com", null, null, null ).size() );
+
+		CatalogIndex.write( INDEX, new ArrayList<CatalogIndex.Entry>() );
+		assertEquals( 0, CatalogIndex.open( INDEX ).size() );
+	}
+
+	@Test
+	public void testWriteAndOpen() throws Exception {
+		List<CatalogIndex.Entry> entries = new ArrayList<CatalogIndex.Entry>();
+		entries.add( createEntry( "org.example", "zeta", "Zeta", "2.0" ) );
+		entries.add( createEntry( "com.example", "beta", "Beta", "1.1" ) );
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "1.0" ) );
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "1.0" ) );
+		CatalogIndex.write( INDEX, entries );
+
+		CatalogIndex index = CatalogIndex.open( INDEX );
+		assertEquals( 3, index.size() );
+		assertEquals( "com.example.alpha", index.get( 0 ).getProductKey() );
+		assertEquals( "com.example.beta", index.get( 1 ).getProductKey() );
+		assertEquals( "org.example.zeta", index.get( 2 ).getProductKey() );
+
+		CatalogIndex.Entry entry = index.get( 1 );
+		assertEquals( "Beta", entry.getName() );
+		assertEquals( "1.1", entry.getVersion() );
+		assertEquals( URI.create( "http://example.com/com.example/beta/1.1/product.xml" ), entry.getSource() );
+		assertEquals( "\"1.1\"", entry.getEtag() );
+		assertNull( entry.getLastModified() );
+	}
+
+	@Test
+	public void testFind() throws Exception {
+		List<CatalogIndex.Entry> entries = new ArrayList<CatalogIndex.Entry>();
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "1.0" ) );
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "2.0" ) );
+		entries.add( createEntry( "com.example", "beta", "Beta", "1.0" ) );
+		entries.add( createEntry( "com.other", "gamma", "Gamma", "1.0" ) );
+		entries.add( createEntry( "org.example", "alpine", "Alpine", "1.0" ) );
+		CatalogIndex.write( INDEX, entries );
+		CatalogIndex index = CatalogIndex.open( INDEX );
+
+		assertEquals( 5, index.getEntries().size() );
+		assertEquals( 4, index.find( "com.", null, null, null ).size() );
+		assertEquals( 3, index.find( "com.example", null, null, null ).size() );
+		assertEquals( 3, index.find( null, "al", null, null ).size() );
+		assertEquals( 2, index.find( "com", "al", null, null ).size() );
+		assertEquals( 1, index.find( null, null, "Alpi", null ).size() );
+		assertEquals( 1, index.find( null, "alpha", null, "2." ).size() );
+		assertEquals( 0, index.find( "net", null, null, null ).size() );
+		assertEquals( 0, index.find( "org.example.z", null, null, null ).size() );
+	}
+
+	@Test
+	public void testGetEntry() throws Exception {
+		List<CatalogIndex.Entry> entries = new ArrayList<CatalogIndex.Entry>();
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "1.0" ) );
+		entries.add( createEntry( "com.example", "beta", "Beta", "1.0" ) );
+		CatalogIndex.write( INDEX, entries );
+		CatalogIndex index = CatalogIndex.open( INDEX );
+
+		assertEquals( "com.example.beta", index.getEntry( URI.create( "http://example.com/com.example/beta/1.0/product.xml" ) ).getProductKey() );
+		assertNull( index.getEntry( URI.create( "http://example.com/missing.xml" ) ) );
+	}
+
+	@Test
+	public void testWriteVersion() throws Exception {
+		assertNull( CatalogIndex.getLatestVersion( INDEX ) );
+
+		List<CatalogIndex.Entry> entries = new ArrayList<CatalogIndex.Entry>();
+		entries.add( createEntry( "com.example", "alpha", "Alpha", "1.0" ) );
+		CatalogIndex.write( INDEX, entries );
+		assertEquals( INDEX.getAbsoluteFile(), CatalogIndex.getLatestVersion( INDEX ) );
+
+		File version1 = CatalogIndex.writeVersion( INDEX, entries );
+		assertEquals( new File( SANDBOX, "catalog.index.1" ).getAbsoluteFile(), version1 );
+		CatalogIndex index1 = CatalogIndex.open( version1 );
+
+		// The mapped version is not replaced by the next version.
+		entries.add( createEntry( "com.example", "beta", "Beta", "1.0" ) );
+		File version2 = CatalogIndex.writeVersion( INDEX, entries );
+		assertEquals( new File( SANDBOX, "catalog.index.2" ).getAbsoluteFile(), version2 );
+		assertEquals( version2, CatalogIndex.getLatestVersion( INDEX ) );
+		assertEquals( 1, index1.size() );
+		assertEquals( 2, CatalogIndex.open( version2 ).size() );
+
+		CatalogIndex.removeVersions( INDEX, version2 );
+		assertFalse( INDEX.exists() );
+		assertTrue( version2.exists() );
+		assertEquals( version2, CatalogIndex.getLatestVersion( INDEX ) );
+	}
+
+	@Test
+	public void testOpenInvalid() throws Exception {
+		Files.write( INDEX.toPath(), "Not an index file".getBytes( "UTF-8" ) );
+		try {
+			CatalogIndex.open( INDEX );
+			fail( "CatalogIndex should throw an exception when the file is not an index." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	private CatalogIndex.Entry createEntry( String group, String artifact, String name, String version ) {
+		URI source = URI.create( "http://example.com/" + group + "/" + artifact + "/" + version + "/product.xml" );
+		return new CatalogIndex.Entry( group, artifact, name, version, source, "\"" + version + "\"", null );
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackExtractorTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/extract" );
+
+	private static final File TARGET = new File( SANDBOX, "target" );
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		TARGET.mkdirs();
+	}
+
+	@Test
+	public void testExtract() throws Exception {
+		File pack1 = createPack( "pack1.zip", "lib/a.jar", "a1", "lib/b.jar", "b1", "readme.txt", "one" );
+		File pack2 = createPack( "pack2.zip", "bin/c.so", "c2", "readme.txt", "two" );
+
+		new PackExtractor( 4 ).extract( Arrays.asList( pack1, pack2 ), TARGET );
+
+		assertEquals( "a1", read( new File( TARGET, "lib/a.jar" ) ) );
+		assertEquals( "b1", read( new File( TARGET, "lib/b.jar" ) ) );
+		assertEquals( "c2", read( new File( TARGET, "bin/c.so" ) ) );
+
+		// The last pack wins.
+		assertEquals( "two", read( new File( TARGET, "readme.txt" ) ) );
+	}
+
+	@Test
+	public void testExtractOutsideFolder() throws Exception {
+		File pack = createPack( "evil.zip", "../evil.txt", "evil" );
+
+		try {
+			new PackExtractor( 2 ).extract( Arrays.asList( pack ), TARGET );
+			fail( "PackExtractor should throw an exception for entries outside the target folder." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+		assertFalse( new File( SANDBOX, "evil.txt" ).exists() );
+	}
+
+	private File createPack( String name, String... entries ) throws IOException {
+		File pack = new File( SANDBOX, name );
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( pack ) ) ) {
+			for( int index = 0; index < entries.length; index += 2 ) {
+				output.putNextEntry( new ZipEntry( entries[index] ) );
+				output.write( entries[index + 1].getBytes( StandardCharsets.UTF_8 ) );
+				output.closeEntry();
+			}
+		}
+		return pack;
+	}
+
+	private String read( File file ) throws IOException {
+		return new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+	}
+
+}
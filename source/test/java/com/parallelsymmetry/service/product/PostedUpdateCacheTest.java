@@ -0,0 +1,49 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.product.ProductCard;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PostedUpdateCacheTest extends BaseTestCase {
+
+	@Test
+	public void testEmpty() throws Exception {
+		PostedUpdateCache cache = new PostedUpdateCache();
+		assertTrue( cache.isEmpty() );
+		assertFalse( cache.isFresh( Long.MAX_VALUE ) );
+		assertEquals( 0, cache.getCards().size() );
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		PostedUpdateCache cache = new PostedUpdateCache();
+		Set<ProductCard> cards = new HashSet<ProductCard>();
+		cards.add( new ProductCard( "group", "artifact" ) );
+
+		cache.update( cards );
+		cards.clear();
+
+		assertFalse( cache.isEmpty() );
+		assertTrue( cache.isFresh( 60000 ) );
+		assertFalse( cache.isFresh( 0 ) );
+		assertTrue( cache.getCards().contains( new ProductCard( "group", "artifact" ) ) );
+	}
+
+	@Test
+	public void testSnapshotUnmodifiable() throws Exception {
+		PostedUpdateCache cache = new PostedUpdateCache();
+		cache.update( new HashSet<ProductCard>() );
+		try {
+			cache.getCards().add( new ProductCard( "group", "artifact" ) );
+			fail( "The cached updates should not be modifiable." );
+		} catch( UnsupportedOperationException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+}
@@ -14,14 +14,21 @@ import org.w3c.dom.Node;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -53,6 +60,10 @@ public class ProductManagerTest extends BaseServiceTest {
 
 	private static final String TEST_PRODUCT = "/META-INF/product.test.xml";
 
+	private static final String HOT_MODULE_KEY = "com.parallelsymmetry.hot-module";
+
+	private static final String HOT_MODULE_JAR_NAME = "module.jar";
+
 	private ProductManager manager;
 
 	@BeforeEach
@@ -308,6 +319,55 @@ public class ProductManagerTest extends BaseServiceTest {
 		assertEquals( installedProductB.hashCode(), installedProductA.hashCode() );
 	}
 
+	@Test
+	public void testApplyStagedModuleUpdate() throws Exception {
+		File target = createHotModule( "1.0.0" );
+		ProductCard card = manager.getProduct( HOT_MODULE_KEY ).getCard();
+		manager.setEnabled( card, true );
+
+		ProductCard updateCard = stageHotModuleUpdate( target, "2.0.0", MockModule.class.getName() );
+
+		ProductManagerWatcher watcher = new ProductManagerWatcher();
+		manager.addProductManagerListener( watcher );
+
+		assertEquals( 1, manager.applyStagedModuleUpdates() );
+
+		List<ProductManagerEvent> events = watcher.getEvents();
+		assertEquals( ProductManagerEvent.Type.PRODUCT_UPDATED, events.get( events.size() - 1 ).getType() );
+
+		ServiceProduct product = manager.getProduct( HOT_MODULE_KEY );
+		assertEquals( "2.0.0", product.getCard().getRelease().getVersion().toString() );
+		assertTrue( product.getClass().getClassLoader() instanceof ProductClassLoader );
+		assertTrue( manager.isEnabled( product.getCard() ) );
+		assertFalse( manager.isStaged( updateCard ) );
+	}
+
+	@Test
+	public void testApplyStagedModuleUpdateFailure() throws Exception {
+		File target = createHotModule( "1.0.0" );
+		ProductCard card = manager.getProduct( HOT_MODULE_KEY ).getCard();
+		manager.setEnabled( card, true );
+
+		// The update names a module class that does not exist so it can not load.
+		ProductCard updateCard = stageHotModuleUpdate( target, "2.0.0", "com.parallelsymmetry.service.product.MissingModule" );
+
+		ProductManagerWatcher watcher = new ProductManagerWatcher();
+		manager.addProductManagerListener( watcher );
+
+		assertEquals( 0, manager.applyStagedModuleUpdates() );
+
+		for( ProductManagerEvent event : watcher.getEvents() ) {
+			assertNotEquals( ProductManagerEvent.Type.PRODUCT_UPDATED, event.getType() );
+		}
+
+		ServiceProduct product = manager.getProduct( HOT_MODULE_KEY );
+		assertNotNull( product );
+		assertEquals( "1.0.0", product.getCard().getRelease().getVersion().toString() );
+		assertTrue( manager.isEnabled( product.getCard() ) );
+		assertTrue( manager.isStaged( updateCard ) );
+		assertTrue( new File( target, HOT_MODULE_JAR_NAME ).exists() );
+	}
+
 	@Test
 	public void testGetNextIntervalTime() {
 		long hour = 3600000;
@@ -340,6 +400,87 @@ public class ProductManagerTest extends BaseServiceTest {
 		}
 	}
 
+	/**
+	 * Create a normal module in its own folder and load it.
+	 */
+	private File createHotModule( String version ) throws Exception {
+		File folder = new File( SANDBOX, "hot" );
+		FileUtil.delete( folder );
+		File target = new File( folder, "module" );
+		target.mkdirs();
+
+		try( OutputStream output = new FileOutputStream( new File( target, HOT_MODULE_JAR_NAME ) ) ) {
+			output.write( createHotModuleJar( version, MockModule.class.getName() ) );
+		}
+		manager.loadProducts( folder );
+
+		assertNotNull( manager.getProduct( HOT_MODULE_KEY ) );
+		return target;
+	}
+
+	/**
+	 * Stage an update pack of the module created by createHotModule().
+	 */
+	private ProductCard stageHotModuleUpdate( File target, String version, String className ) throws Exception {
+		File descriptor = new File( target.getParentFile(), "update.xml" );
+		Files.write( descriptor.toPath(), createHotModuleDescriptor( version, className ).getBytes( "UTF-8" ) );
+		ProductCard card = new ProductCard( descriptor.toURI(), new Descriptor( descriptor.toURI() ) );
+
+		File pack = new File( target.getParentFile(), "module.pak" );
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( pack ) ) ) {
+			output.putNextEntry( new ZipEntry( HOT_MODULE_JAR_NAME ) );
+			output.write( createHotModuleJar( version, className ) );
+			output.closeEntry();
+		}
+
+		manager.addStagedUpdate( new ProductUpdate( card, pack, target ) );
+		assertTrue( manager.isStaged( card ) );
+		return card;
+	}
+
+	/**
+	 * Create a module jar with the product descriptor and the module class. The
+	 * module class is loaded from the jar by the module class loader.
+	 */
+	private byte[] createHotModuleJar( String version, String className ) throws Exception {
+		String classPath = MockModule.class.getName().replace( '.', '/' ) + ".class";
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try( ZipOutputStream output = new ZipOutputStream( bytes ) ) {
+			output.putNextEntry( new ZipEntry( ProductManager.PRODUCT_DESCRIPTOR_PATH ) );
+			output.write( createHotModuleDescriptor( version, className ).getBytes( "UTF-8" ) );
+			output.closeEntry();
+
+			output.putNextEntry( new ZipEntry( classPath ) );
+			try( InputStream input = MockModule.class.getClassLoader().getResourceAsStream( classPath ) ) {
+				byte[] buffer = new byte[4096];
+				int read;
+				while( ( read = input.read( buffer ) ) >= 0 ) {
+					output.write( buffer, 0, read );
+				}
+			}
+			output.closeEntry();
+		}
+		return bytes.toByteArray();
+	}
+
+	private String createHotModuleDescriptor( String version, String className ) {
+		StringBuilder builder = new StringBuilder();
+		builder.append( "<?xml version=\"1.0\"?>\n" );
+		builder.append( "<product version=\"1\">\n" );
+		builder.append( "\t<group>com.parallelsymmetry</group>\n" );
+		builder.append( "\t<artifact>hot-module</artifact>\n" );
+		builder.append( "\t<version>" + version + "</version>\n" );
+		builder.append( "\t<timestamp>114215340000</timestamp>\n" );
+		builder.append( "\t<name>Hot Module</name>\n" );
+		builder.append( "\t<provider>Parallel Symmetry</provider>\n" );
+		builder.append( "\t<resources>\n" );
+		builder.append( "\t\t<module class=\"" + className + "\"/>\n" );
+		builder.append( "\t</resources>\n" );
+		builder.append( "</product>\n" );
+		return builder.toString();
+	}
+
 	private void fixProductCardData( File descriptor ) throws Exception {
 		// Update the timestamp in the descriptor file.
 		if( descriptor.exists() ) {
@@ -0,0 +1,126 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProductPatchTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/patch" );
+
+	private static final File OLD = new File( SANDBOX, "old" );
+
+	private static final File NEW = new File( SANDBOX, "new" );
+
+	private static final File PATCHED = new File( SANDBOX, "patched" );
+
+	private static final File PATCH = new File( SANDBOX, "patch.zip" );
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		OLD.mkdirs();
+		NEW.mkdirs();
+		PATCHED.mkdirs();
+
+		writeFile( new File( OLD, "readme.txt" ), "readme" );
+		writeFile( new File( OLD, "config/settings.txt" ), "old settings" );
+		writeFile( new File( OLD, "removed.txt" ), "removed" );
+		writeJar( new File( OLD, "lib/module.jar" ), "a.class", "class a", "b.class", "old class b", "c.class", "class c" );
+
+		writeFile( new File( NEW, "readme.txt" ), "readme" );
+		writeFile( new File( NEW, "config/settings.txt" ), "new settings" );
+		writeFile( new File( NEW, "added.txt" ), "added" );
+		writeJar( new File( NEW, "lib/module.jar" ), "a.class", "class a", "b.class", "new class b", "d.class", "class d" );
+	}
+
+	@Test
+	public void testCreateAndApply() throws Exception {
+		ProductPatch.create( OLD, NEW, PATCH );
+
+		try( ZipFile zip = new ZipFile( PATCH ) ) {
+			assertNull( zip.getEntry( ProductPatch.FILE_PREFIX + "readme.txt" ) );
+			assertNotNull( zip.getEntry( ProductPatch.FILE_PREFIX + "config/settings.txt" ) );
+			assertNull( zip.getEntry( ProductPatch.JAR_PREFIX + "lib/module.jar/a.class" ) );
+			assertNotNull( zip.getEntry( ProductPatch.JAR_PREFIX + "lib/module.jar/b.class" ) );
+		}
+
+		ProductPatch.apply( PATCH, OLD, PATCHED );
+
+		assertFileEquals( new File( NEW, "readme.txt" ), new File( PATCHED, "readme.txt" ) );
+		assertFileEquals( new File( NEW, "config/settings.txt" ), new File( PATCHED, "config/settings.txt" ) );
+		assertFileEquals( new File( NEW, "added.txt" ), new File( PATCHED, "added.txt" ) );
+		assertFalse( new File( PATCHED, "removed.txt" ).exists() );
+
+		try( ZipFile jar = new ZipFile( new File( PATCHED, "lib/module.jar" ) ) ) {
+			assertEquals( "class a", readEntry( jar, "a.class" ) );
+			assertEquals( "new class b", readEntry( jar, "b.class" ) );
+			assertEquals( "class d", readEntry( jar, "d.class" ) );
+			assertNull( jar.getEntry( "c.class" ) );
+		}
+	}
+
+	@Test
+	public void testApplyToModifiedFiles() throws Exception {
+		ProductPatch.create( OLD, NEW, PATCH );
+		writeFile( new File( OLD, "readme.txt" ), "modified" );
+
+		try {
+			ProductPatch.apply( PATCH, OLD, PATCHED );
+			fail( "ProductPatch should throw an exception when an installed file was modified." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	private void assertFileEquals( File expected, File actual ) throws IOException {
+		assertTrue( Arrays.equals( Files.readAllBytes( expected.toPath() ), Files.readAllBytes( actual.toPath() ) ) );
+	}
+
+	private String readEntry( ZipFile zip, String name ) throws IOException {
+		try( InputStream input = zip.getInputStream( zip.getEntry( name ) ) ) {
+			byte[] buffer = new byte[256];
+			int length = 0;
+			int read;
+			while( ( read = input.read( buffer, length, buffer.length - length ) ) > 0 ) {
+				length += read;
+			}
+			return new String( buffer, 0, length, StandardCharsets.UTF_8 );
+		}
+	}
+
+	private void writeFile( File file, String content ) throws IOException {
+		file.getParentFile().mkdirs();
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( content.getBytes( StandardCharsets.UTF_8 ) );
+		}
+	}
+
+	private void writeJar( File file, String... entries ) throws IOException {
+		file.getParentFile().mkdirs();
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( file ) ) ) {
+			for( int index = 0; index < entries.length; index += 2 ) {
+				output.putNextEntry( new ZipEntry( entries[index] ) );
+				output.write( entries[index + 1].getBytes( StandardCharsets.UTF_8 ) );
+				output.closeEntry();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.service.task.Download;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceTrackerTest extends BaseTestCase {
+
+	private ResourceTracker<String> tracker = new ResourceTracker<String>();
+
+	@Test
+	public void testProductWithoutDownloads() throws Exception {
+		tracker.add( "a", new ArrayList<Future<Download>>() );
+		assertEquals( 1, tracker.getPendingCount() );
+		assertEquals( Arrays.asList( "a" ), tracker.poll() );
+		assertEquals( 0, tracker.getPendingCount() );
+	}
+
+	@Test
+	public void testReadyWhenAllDownloadsDone() throws Exception {
+		FutureTask<Download> a1 = createDownload();
+		FutureTask<Download> a2 = createDownload();
+		FutureTask<Download> b1 = createDownload();
+		tracker.add( "a", Arrays.<Future<Download>> asList( a1, a2 ) );
+		tracker.add( "b", Arrays.<Future<Download>> asList( b1 ) );
+		assertEquals( 2, tracker.getPendingCount() );
+
+		finish( a1 );
+		assertTrue( tracker.poll().isEmpty() );
+
+		finish( b1 );
+		assertEquals( Arrays.asList( "b" ), tracker.poll() );
+
+		finish( a2 );
+		assertEquals( Arrays.asList( "a" ), tracker.poll() );
+		assertEquals( 0, tracker.getPendingCount() );
+	}
+
+	@Test
+	public void testTake() throws Exception {
+		final FutureTask<Download> a1 = createDownload();
+		tracker.add( "a", Arrays.<Future<Download>> asList( a1 ) );
+
+		Thread thread = new Thread( new Runnable() {
+
+			@Override
+			public void run() {
+				finish( a1 );
+			}
+
+		} );
+		thread.start();
+
+		assertEquals( "a", tracker.take() );
+		assertNull( tracker.take() );
+		thread.join();
+	}
+
+	@Test
+	public void testUnknownDownloadIgnored() throws Exception {
+		FutureTask<Download> a1 = createDownload();
+		tracker.add( "a", Arrays.<Future<Download>> asList( a1 ) );
+
+		finish( createDownload() );
+		List<String> ready = tracker.poll();
+		assertTrue( ready.isEmpty() );
+		assertEquals( 1, tracker.getPendingCount() );
+	}
+
+	private FutureTask<Download> createDownload() {
+		return new FutureTask<Download>( new Callable<Download>() {
+
+			@Override
+			public Download call() throws Exception {
+				return null;
+			}
+
+		} );
+	}
+
+	private void finish( FutureTask<Download> download ) {
+		download.run();
+		tracker.getQueue().add( download );
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SettingsPersisterTest extends BaseTestCase {
+
+	private List<Set<String>> writes;
+
+	private SettingsPersister persister;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		writes = new CopyOnWriteArrayList<Set<String>>();
+		persister = new SettingsPersister( new SettingsPersister.Writer() {
+
+			@Override
+			public void write( Set<String> nodes ) {
+				writes.add( new HashSet<String>( nodes ) );
+			}
+
+		} );
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() throws Exception {
+		persister.stop();
+		super.teardown();
+	}
+
+	@Test
+	public void testWriteThroughWhenNotStarted() throws Exception {
+		persister.markDirty( "catalogs" );
+		persister.markDirty( "updates" );
+
+		assertEquals( 2, writes.size() );
+		assertTrue( writes.get( 0 ).contains( "catalogs" ) );
+		assertTrue( writes.get( 1 ).contains( "updates" ) );
+		assertFalse( persister.isDirty() );
+	}
+
+	@Test
+	public void testCoalesce() throws Exception {
+		persister.start( 100, 1000 );
+		for( int index = 0; index < 50; index++ ) {
+			persister.markDirty( "catalogs" );
+		}
+		persister.markDirty( "update" );
+		assertEquals( 0, writes.size() );
+		assertTrue( persister.isDirty() );
+
+		long limit = System.currentTimeMillis() + 5000;
+		while( writes.isEmpty() && System.currentTimeMillis() < limit ) {
+			Thread.sleep( 10 );
+		}
+
+		assertEquals( 1, writes.size() );
+		assertEquals( 2, writes.get( 0 ).size() );
+		assertFalse( persister.isDirty() );
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		persister.start( 60000, 3 );
+		persister.markDirty( "catalogs" );
+		persister.markDirty( "catalogs" );
+		assertEquals( 0, writes.size() );
+
+		persister.markDirty( "updates" );
+		assertEquals( 1, writes.size() );
+		assertEquals( 2, writes.get( 0 ).size() );
+	}
+
+	@Test
+	public void testStopFlushes() throws Exception {
+		persister.start( 60000, 1000 );
+		persister.markDirty( "posted" );
+		assertEquals( 0, writes.size() );
+
+		persister.stop();
+		assertEquals( 1, writes.size() );
+		assertTrue( writes.get( 0 ).contains( "posted" ) );
+
+		// Changes after stopping are written immediately.
+		persister.markDirty( "catalogs" );
+		assertEquals( 2, writes.size() );
+	}
+
+}
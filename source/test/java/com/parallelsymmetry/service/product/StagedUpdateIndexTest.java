@@ -0,0 +1,114 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import com.parallelsymmetry.utility.product.ProductCard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StagedUpdateIndexTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/staged" );
+
+	private StagedUpdateIndex index;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		SANDBOX.mkdirs();
+		index = new StagedUpdateIndex();
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() throws Exception {
+		index.stopWatching();
+		super.teardown();
+	}
+
+	@Test
+	public void testPut() throws Exception {
+		ProductCard card = new ProductCard( "com.example", "module" );
+		assertFalse( index.contains( card ) );
+
+		index.put( new ProductUpdate( card, createPack( "module.pak" ), SANDBOX ) );
+		assertTrue( index.contains( card ) );
+		assertEquals( 1, index.size() );
+		assertEquals( 1, index.getCards().size() );
+
+		index.clear();
+		assertFalse( index.contains( card ) );
+		assertEquals( 0, index.size() );
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		ProductCard card1 = new ProductCard( "com.example", "module1" );
+		ProductCard card2 = new ProductCard( "com.example", "module2" );
+		index.put( new ProductUpdate( card1, createPack( "module1.pak" ), SANDBOX ) );
+		index.put( new ProductUpdate( card2, createPack( "module2.pak" ), SANDBOX ) );
+
+		Map<String, ProductUpdate> snapshot = index.getUpdates();
+		index.remove( card1.getProductKey() );
+
+		assertFalse( index.contains( card1 ) );
+		assertTrue( index.contains( card2 ) );
+		assertEquals( 1, index.size() );
+		assertEquals( 2, snapshot.size() );
+	}
+
+	@Test
+	public void testLoadDropsMissingPacks() throws Exception {
+		ProductCard card1 = new ProductCard( "com.example", "module1" );
+		ProductCard card2 = new ProductCard( "com.example", "module2" );
+
+		Map<String, ProductUpdate> loaded = new HashMap<String, ProductUpdate>();
+		loaded.put( card1.getProductKey(), new ProductUpdate( card1, createPack( "module1.pak" ), SANDBOX ) );
+		loaded.put( card2.getProductKey(), new ProductUpdate( card2, new File( SANDBOX, "module2.pak" ), SANDBOX ) );
+
+		assertEquals( 1, index.load( loaded ).size() );
+		assertTrue( index.contains( card1 ) );
+		assertFalse( index.contains( card2 ) );
+	}
+
+	@Test
+	public void testWatchRemovesDeletedPack() throws Exception {
+		ProductCard card = new ProductCard( "com.example", "module" );
+		File pack = createPack( "module.pak" );
+		index.put( new ProductUpdate( card, pack, SANDBOX ) );
+
+		final CountDownLatch latch = new CountDownLatch( 1 );
+		index.setListener( new StagedUpdateIndex.Listener() {
+
+			@Override
+			public void updatesRemoved( Set<ProductUpdate> updates ) {
+				latch.countDown();
+			}
+
+		} );
+		index.watch( SANDBOX );
+
+		assertTrue( pack.delete() );
+		assertTrue( latch.await( 30, TimeUnit.SECONDS ) );
+		assertFalse( index.contains( card ) );
+	}
+
+	private File createPack( String name ) throws Exception {
+		File pack = new File( SANDBOX, name );
+		assertTrue( pack.createNewFile() );
+		return pack;
+	}
+
+}
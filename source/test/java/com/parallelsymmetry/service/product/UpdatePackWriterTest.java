@@ -0,0 +1,144 @@
+package com.parallelsymmetry.service.product;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.service.task.Download;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.FutureTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdatePackWriterTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/pack" );
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		SANDBOX.mkdirs();
+	}
+
+	@Test
+	public void testWritePack() throws Exception {
+		File file = new File( SANDBOX, "readme.txt" );
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( "Read me".getBytes( StandardCharsets.UTF_8 ) );
+		}
+
+		File archive = new File( SANDBOX, "module.zip" );
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( archive ) ) ) {
+			output.putNextEntry( new ZipEntry( "lib/" ) );
+			output.closeEntry();
+			output.putNextEntry( new ZipEntry( "lib/module.jar" ) );
+			for( int index = 0; index < 1000; index++ ) {
+				output.write( ( "Module data " + index + "\n" ).getBytes( StandardCharsets.UTF_8 ) );
+			}
+			output.closeEntry();
+			output.putNextEntry( new ZipEntry( "readme.txt" ) );
+			output.write( "Duplicate".getBytes( StandardCharsets.UTF_8 ) );
+			output.closeEntry();
+		}
+
+		File pack = new File( SANDBOX, "update.pak" );
+		try( UpdatePackWriter writer = new UpdatePackWriter( pack ) ) {
+			writer.addFile( file, "readme.txt" );
+			writer.addArchive( archive );
+		}
+
+		try( ZipFile zip = new ZipFile( pack ) ) {
+			assertEquals( 3, zip.size() );
+			assertTrue( zip.getEntry( "lib/" ).isDirectory() );
+			assertEquals( "Read me", read( zip, "readme.txt" ) );
+
+			String data = read( zip, "lib/module.jar" );
+			assertTrue( data.startsWith( "Module data 0\n" ) );
+			assertTrue( data.endsWith( "Module data 999\n" ) );
+
+			// The compressed entry data is copied from the archive.
+			try( ZipFile source = new ZipFile( archive ) ) {
+				assertEquals( source.getEntry( "lib/module.jar" ).getCompressedSize(), zip.getEntry( "lib/module.jar" ).getCompressedSize() );
+				assertEquals( source.getEntry( "lib/module.jar" ).getCrc(), zip.getEntry( "lib/module.jar" ).getCrc() );
+			}
+		}
+	}
+
+	@Test
+	public void testLastResourceWins() throws Exception {
+		File file = new File( SANDBOX, "readme.txt" );
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( "Read me".getBytes( StandardCharsets.UTF_8 ) );
+		}
+
+		File archive = new File( SANDBOX, "module.zip" );
+		try( ZipOutputStream output = new ZipOutputStream( new FileOutputStream( archive ) ) ) {
+			output.putNextEntry( new ZipEntry( "readme.txt" ) );
+			output.write( "Duplicate".getBytes( StandardCharsets.UTF_8 ) );
+			output.closeEntry();
+		}
+
+		Set<ProductResource> resources = new LinkedHashSet<ProductResource>();
+		resources.add( createResource( ProductResource.Type.FILE, file ) );
+		resources.add( createResource( ProductResource.Type.PACK, archive ) );
+		File pack = new File( SANDBOX, "update.pak" );
+		try( UpdatePackWriter writer = new UpdatePackWriter( pack ) ) {
+			writer.addResources( resources );
+		}
+		try( ZipFile zip = new ZipFile( pack ) ) {
+			assertEquals( 1, zip.size() );
+			assertEquals( "Duplicate", read( zip, "readme.txt" ) );
+		}
+
+		resources = new LinkedHashSet<ProductResource>();
+		resources.add( createResource( ProductResource.Type.PACK, archive ) );
+		resources.add( createResource( ProductResource.Type.FILE, file ) );
+		try( UpdatePackWriter writer = new UpdatePackWriter( pack ) ) {
+			writer.addResources( resources );
+		}
+		try( ZipFile zip = new ZipFile( pack ) ) {
+			assertEquals( 1, zip.size() );
+			assertEquals( "Read me", read( zip, "readme.txt" ) );
+		}
+	}
+
+	private ProductResource createResource( ProductResource.Type type, File file ) throws Exception {
+		ProductResource resource = new ProductResource( type, file.toURI() );
+		FutureTask<Download> future = new FutureTask<Download>( new Runnable() {
+
+			@Override
+			public void run() {}
+
+		}, new Download( file.toURI(), file.length(), null, file ) );
+		future.run();
+		resource.setFuture( future );
+		resource.waitFor();
+		return resource;
+	}
+
+	private String read( ZipFile zip, String name ) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try( InputStream input = zip.getInputStream( zip.getEntry( name ) ) ) {
+			byte[] buffer = new byte[4096];
+			int read;
+			while( ( read = input.read( buffer ) ) > -1 ) {
+				output.write( buffer, 0, read );
+			}
+		}
+		return new String( output.toByteArray(), StandardCharsets.UTF_8 );
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArtifactStoreTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox" );
+
+	private static final File ROOT = new File( SANDBOX, "artifacts" );
+
+	private ArtifactStore store;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( ROOT );
+		SANDBOX.mkdirs();
+		store = new ArtifactStore( ROOT );
+	}
+
+	@Test
+	public void testStoreAndLookup() throws Exception {
+		URI uri = URI.create( "http://localhost/a.jar" );
+		File file = createFile( "a.jar", "content" );
+		String digest = DigestUtil.digest( file, DigestUtil.SHA_256 );
+
+		assertNull( store.lookup( uri ) );
+		ArtifactStore.Entry entry = store.store( uri, file, digest, "\"1\"", null );
+		assertFalse( file.exists() );
+		assertTrue( entry.getFile().exists() );
+
+		ArtifactStore.Entry found = store.lookup( uri );
+		assertNotNull( found );
+		assertEquals( digest, found.getDigest() );
+		assertEquals( "\"1\"", found.getEtag() );
+		assertNull( found.getLastModified() );
+		assertEquals( entry.getFile(), found.getFile() );
+	}
+
+	@Test
+	public void testStoreDuplicate() throws Exception {
+		URI uriA = URI.create( "http://localhost/a.jar" );
+		URI uriB = URI.create( "http://mirror/b.jar" );
+		File fileA = createFile( "a.jar", "same" );
+		File fileB = createFile( "b.jar", "same" );
+		String digest = DigestUtil.digest( fileA, DigestUtil.SHA_256 );
+
+		ArtifactStore.Entry entryA = store.store( uriA, fileA, digest, null, null );
+		ArtifactStore.Entry entryB = store.store( uriB, fileB, digest, null, null );
+		assertFalse( fileB.exists() );
+		assertEquals( entryA.getFile(), entryB.getFile() );
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		URI uri = URI.create( "http://localhost/a.jar" );
+		File file = createFile( "a.jar", "content" );
+		ArtifactStore.Entry entry = store.store( uri, file, DigestUtil.digest( file, DigestUtil.SHA_256 ), null, null );
+
+		store.remove( uri );
+		assertNull( store.lookup( uri ) );
+		assertTrue( entry.getFile().exists() );
+	}
+
+	@Test
+	public void testPrune() throws Exception {
+		URI uriA = URI.create( "http://localhost/a.jar" );
+		URI uriB = URI.create( "http://localhost/b.jar" );
+		URI uriC = URI.create( "http://localhost/c.jar" );
+		File fileA = createFile( "a.jar", "aaaa" );
+		File fileB = createFile( "b.jar", "bbbb" );
+		File fileC = createFile( "c.jar", "cccc" );
+		ArtifactStore.Entry entryA = store.store( uriA, fileA, DigestUtil.digest( fileA, DigestUtil.SHA_256 ), null, null );
+		ArtifactStore.Entry entryB = store.store( uriB, fileB, DigestUtil.digest( fileB, DigestUtil.SHA_256 ), null, null );
+		ArtifactStore.Entry entryC = store.store( uriC, fileC, DigestUtil.digest( fileC, DigestUtil.SHA_256 ), null, null );
+
+		// Make A the least recently used and B the next.
+		long old = System.currentTimeMillis() - 7L * 24L * 3600000L;
+		entryA.getFile().setLastModified( old );
+		entryB.getFile().setLastModified( old + 1000 );
+
+		assertEquals( 0, store.prune( 12 ) );
+		assertEquals( 4, store.prune( 8 ) );
+		assertNull( store.lookup( uriA ) );
+		assertFalse( entryA.getFile().exists() );
+		assertNotNull( store.lookup( uriB ) );
+
+		// Recently used objects are kept even over the limit.
+		assertEquals( 0, store.prune( 0 ) );
+		assertTrue( entryB.getFile().exists() );
+		assertTrue( entryC.getFile().exists() );
+	}
+
+	@Test
+	public void testSharedLock() throws Exception {
+		final ArtifactStore shared = new ArtifactStore( ROOT, true );
+		final URI uri = URI.create( "http://localhost/a.jar" );
+		final CountDownLatch locked = new CountDownLatch( 1 );
+
+		ArtifactStore.Lock lock = shared.lock( uri );
+		Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					ArtifactStore.Lock lock = shared.lock( uri );
+					locked.countDown();
+					lock.close();
+				} catch( IOException exception ) {
+					// Intentionally ignore exception.
+				}
+			}
+
+		};
+		thread.start();
+
+		// The second lock waits until the first lock is closed.
+		assertFalse( locked.await( 200, TimeUnit.MILLISECONDS ) );
+		lock.close();
+		assertTrue( locked.await( 5, TimeUnit.SECONDS ) );
+		thread.join();
+
+		assertTrue( new File( ROOT, "locks" ).isDirectory() );
+	}
+
+	@Test
+	public void testSharedLockBetweenInstances() throws Exception {
+		final URI uri = URI.create( "http://localhost/a.jar" );
+		final ArtifactStore other = new ArtifactStore( ROOT, true );
+		final CountDownLatch locked = new CountDownLatch( 1 );
+		final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+		// A second store for the same folder in this process waits instead of failing.
+		ArtifactStore.Lock lock = new ArtifactStore( ROOT, true ).lock( uri );
+		Thread thread = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					ArtifactStore.Lock lock = other.lock( uri );
+					locked.countDown();
+					lock.close();
+				} catch( IOException exception ) {
+					failure.set( exception );
+				} catch( RuntimeException exception ) {
+					failure.set( new IOException( exception ) );
+				}
+			}
+
+		};
+		thread.start();
+
+		assertFalse( locked.await( 200, TimeUnit.MILLISECONDS ) );
+		lock.close();
+		assertTrue( locked.await( 5, TimeUnit.SECONDS ) );
+		thread.join();
+		assertNull( failure.get() );
+	}
+
+	@Test
+	public void testStoredTime() throws Exception {
+		URI uri = URI.create( "http://localhost/a.jar" );
+		File file = createFile( "a.jar", "content" );
+
+		long time = System.currentTimeMillis();
+		store.store( uri, file, DigestUtil.digest( file, DigestUtil.SHA_256 ), null, null );
+		assertTrue( store.lookup( uri ).getStoredTime() >= time );
+	}
+
+	private File createFile( String name, String content ) throws IOException {
+		File file = new File( SANDBOX, name );
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( content.getBytes( "UTF-8" ) );
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DigestUtilTest extends BaseTestCase {
+
+	@Test
+	public void testGetDeclaredDigests() {
+		URI uri = URI.create( "http://localhost/pack.jar#sha-256=ABCD&sha-1=1234&unknown=5678&other" );
+		Map<String, String> digests = DigestUtil.getDeclaredDigests( uri );
+
+		assertEquals( 2, digests.size() );
+		assertEquals( "abcd", digests.get( DigestUtil.SHA_256 ) );
+		assertEquals( "1234", digests.get( DigestUtil.SHA_1 ) );
+	}
+
+	@Test
+	public void testGetDeclaredDigestsWithoutFragment() {
+		assertTrue( DigestUtil.getDeclaredDigests( URI.create( "http://localhost/pack.jar" ) ).isEmpty() );
+	}
+
+	@Test
+	public void testRemoveFragment() {
+		assertEquals( URI.create( "http://localhost/pack.jar?a=b" ), DigestUtil.removeFragment( URI.create( "http://localhost/pack.jar?a=b#sha-256=abcd" ) ) );
+		assertEquals( URI.create( "lib/pack.jar" ), DigestUtil.removeFragment( URI.create( "lib/pack.jar#sha-256=abcd" ) ) );
+	}
+
+}
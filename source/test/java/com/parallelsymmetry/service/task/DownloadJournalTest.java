@@ -0,0 +1,87 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadJournalTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox" );
+
+	private static final URI SOURCE = URI.create( "http://localhost/test/resource.jar" );
+
+	private File partial;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		SANDBOX.mkdirs();
+		partial = new File( SANDBOX, "journal.part" );
+		partial.delete();
+		DownloadJournal.getJournalFile( partial ).delete();
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		writePartial( 100 );
+		DownloadJournal journal = new DownloadJournal( partial, SOURCE, "\"abc\"", null, 1000 );
+		journal.setWritten( 100 );
+		assertTrue( journal.save() );
+
+		DownloadJournal loaded = DownloadJournal.load( partial, SOURCE );
+		assertNotNull( loaded );
+		assertEquals( "\"abc\"", loaded.getValidator() );
+		assertEquals( 1000, loaded.getLength() );
+		assertEquals( 100, loaded.getResumeOffset( partial ) );
+	}
+
+	@Test
+	public void testSource() throws Exception {
+		URI mirror = URI.create( "http://mirror/source.jar" );
+		DownloadJournal journal = new DownloadJournal( partial, SOURCE, "\"abc\"", null, 1000 );
+		assertEquals( SOURCE, journal.getSource() );
+
+		journal.setSource( mirror );
+		journal.save();
+		assertEquals( mirror, DownloadJournal.load( partial, SOURCE ).getSource() );
+	}
+
+	@Test
+	public void testLoadWithDifferentUri() throws Exception {
+		DownloadJournal journal = new DownloadJournal( partial, SOURCE, "\"abc\"", null, 1000 );
+		journal.save();
+		assertNull( DownloadJournal.load( partial, URI.create( "http://localhost/other.jar" ) ) );
+	}
+
+	@Test
+	public void testResumeOffsetWithoutValidator() throws Exception {
+		writePartial( 100 );
+		DownloadJournal journal = new DownloadJournal( partial, SOURCE, null, null, 1000 );
+		journal.setWritten( 100 );
+		assertFalse( journal.save() );
+		assertEquals( 0, journal.getResumeOffset( partial ) );
+	}
+
+	@Test
+	public void testResumeOffsetWithShortPartial() throws Exception {
+		writePartial( 50 );
+		DownloadJournal journal = new DownloadJournal( partial, SOURCE, null, "Thu, 01 Jan 2015 00:00:00 GMT", 1000 );
+		journal.setWritten( 100 );
+		assertEquals( 0, journal.getResumeOffset( partial ) );
+	}
+
+	private void writePartial( int length ) throws IOException {
+		try( FileOutputStream output = new FileOutputStream( partial ) ) {
+			output.write( new byte[length] );
+		}
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadMetricsTest extends BaseTestCase {
+
+	@Test
+	public void testRecord() throws Exception {
+		DownloadMetrics metrics = new DownloadMetrics();
+		metrics.record( URI.create( "http://a.example.com/pack.jar" ), "pack", 2048, 10, 1000, true );
+		metrics.record( URI.create( "http://a.example.com/card.xml" ), DownloadMetrics.DESCRIPTOR, 1024, 30, 100, true );
+		metrics.record( URI.create( "http://B.example.com/pack.jar" ), "pack", 0, -1, 50, false );
+
+		DownloadMetrics.Statistics total = metrics.getTotal();
+		assertEquals( 3, total.getCount() );
+		assertEquals( 1, total.getFailureCount() );
+		assertEquals( 3072, total.getBytes() );
+		assertEquals( 1150, total.getDuration() );
+		assertEquals( 2, total.getResponseTimes().getCount() );
+
+		Map<String, DownloadMetrics.Statistics> hosts = metrics.getHostStatistics();
+		assertEquals( 2, hosts.get( "a.example.com" ).getCount() );
+		assertEquals( 1, hosts.get( "b.example.com" ).getFailureCount() );
+
+		Map<String, DownloadMetrics.Statistics> categories = metrics.getCategoryStatistics();
+		assertEquals( 2, categories.get( "pack" ).getCount() );
+		assertEquals( 1, categories.get( DownloadMetrics.DESCRIPTOR ).getCount() );
+
+		metrics.reset();
+		assertEquals( 0, metrics.getTotal().getCount() );
+		assertTrue( metrics.getHostStatistics().isEmpty() );
+	}
+
+	@Test
+	public void testHistogram() throws Exception {
+		DownloadMetrics.Histogram histogram = DownloadMetrics.Histogram.exponential( 1, 2, 4 );
+		assertEquals( -1, histogram.getPercentile( 0.5 ) );
+
+		for( int value = 1; value <= 10; value++ ) {
+			histogram.add( value );
+		}
+
+		// Buckets: <=1, <=2, <=4, <=8 and overflow.
+		assertTrue( Arrays.equals( new long[]{ 1, 1, 2, 4, 2 }, histogram.getCounts() ) );
+		assertEquals( 8, histogram.getPercentile( 0.5 ) );
+		assertEquals( 4, histogram.getPercentile( 0.4 ) );
+		assertEquals( Long.MAX_VALUE, histogram.getPercentile( 0.9 ) );
+	}
+
+}
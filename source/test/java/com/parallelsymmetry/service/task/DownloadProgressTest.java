@@ -0,0 +1,79 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadProgressTest extends BaseTestCase {
+
+	@Test
+	public void testUpdatesMergedByStep() {
+		ProgressWatcher watcher = new ProgressWatcher();
+		DownloadProgress progress = new DownloadProgress( watcher.getListeners(), 1000, Long.MAX_VALUE / 1000000, 100 );
+
+		assertTrue( progress.update( 10 ) );
+		assertFalse( progress.update( 50 ) );
+		assertFalse( progress.update( 109 ) );
+		assertTrue( progress.update( 110 ) );
+		assertTrue( progress.update( 1000 ) );
+
+		assertEquals( 3, watcher.getEvents().size() );
+		assertEquals( Long.valueOf( 1000 ), watcher.getEvents().get( 2 ) );
+	}
+
+	@Test
+	public void testFinishPublishesMergedProgress() {
+		ProgressWatcher watcher = new ProgressWatcher();
+		DownloadProgress progress = new DownloadProgress( watcher.getListeners(), -1, Long.MAX_VALUE / 1000000, 100 );
+
+		assertTrue( progress.update( 10 ) );
+		assertFalse( progress.update( 20 ) );
+		assertTrue( progress.finish( 20 ) );
+		assertFalse( progress.finish( 20 ) );
+
+		assertEquals( 2, watcher.getEvents().size() );
+		assertEquals( Long.valueOf( 20 ), watcher.getEvents().get( 1 ) );
+	}
+
+	@Test
+	public void testLargeProgress() {
+		ProgressWatcher watcher = new ProgressWatcher();
+		long total = 5L * 1024 * 1024 * 1024;
+		DownloadProgress progress = new DownloadProgress( watcher.getListeners(), total, 0, 1 );
+
+		assertTrue( progress.update( total ) );
+		assertEquals( Long.valueOf( total ), watcher.getEvents().get( 0 ) );
+	}
+
+	private static class ProgressWatcher implements DownloadListener {
+
+		private Set<DownloadListener> listeners = new CopyOnWriteArraySet<DownloadListener>();
+
+		private List<Long> events = new ArrayList<Long>();
+
+		public ProgressWatcher() {
+			listeners.add( this );
+		}
+
+		@Override
+		public void update( DownloadEvent event ) {
+			events.add( event.getProgress() );
+		}
+
+		public Set<DownloadListener> getListeners() {
+			return listeners;
+		}
+
+		public List<Long> getEvents() {
+			return events;
+		}
+
+	}
+
+}
@@ -0,0 +1,246 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.task.Task;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadSchedulerTest extends BaseTestCase {
+
+	private DownloadScheduler scheduler;
+
+	private CountDownLatch gate;
+
+	private List<String> order;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		gate = new CountDownLatch( 1 );
+		order = new CopyOnWriteArrayList<String>();
+	}
+
+	@AfterEach
+	@Override
+	public void teardown() throws Exception {
+		if( scheduler != null ) scheduler.shutdown();
+		super.teardown();
+	}
+
+	@Test
+	public void testHostLimit() throws Exception {
+		scheduler = new DownloadScheduler( 4, 1, Long.MAX_VALUE );
+
+		Future<String> a1 = scheduler.submit( new GatedTask( "a1" ), URI.create( "http://a.example.com/1" ), DownloadScheduler.Priority.MODULE );
+		Future<String> a2 = scheduler.submit( new GatedTask( "a2" ), URI.create( "http://a.example.com/2" ), DownloadScheduler.Priority.MODULE );
+		Future<String> b1 = scheduler.submit( new GatedTask( "b1" ), URI.create( "http://b.example.com/1" ), DownloadScheduler.Priority.MODULE );
+
+		assertEquals( 2, scheduler.getRunningCount() );
+		assertEquals( 1, scheduler.getQueuedCount() );
+
+		gate.countDown();
+		assertEquals( "a1", a1.get( 5, TimeUnit.SECONDS ) );
+		assertEquals( "a2", a2.get( 5, TimeUnit.SECONDS ) );
+		assertEquals( "b1", b1.get( 5, TimeUnit.SECONDS ) );
+	}
+
+	@Test
+	public void testPriorityOrder() throws Exception {
+		scheduler = new DownloadScheduler( 1, 1, Long.MAX_VALUE );
+		URI uri = URI.create( "http://a.example.com/" );
+
+		Future<String> blocker = scheduler.submit( new GatedTask( "blocker" ), uri, DownloadScheduler.Priority.MODULE );
+		Future<String> module = scheduler.submit( new GatedTask( "module" ), uri, DownloadScheduler.Priority.MODULE );
+		Future<String> service = scheduler.submit( new GatedTask( "service" ), uri, DownloadScheduler.Priority.SERVICE );
+		Future<String> descriptor = scheduler.submit( new GatedTask( "descriptor" ), uri, DownloadScheduler.Priority.DESCRIPTOR );
+
+		gate.countDown();
+		blocker.get( 5, TimeUnit.SECONDS );
+		module.get( 5, TimeUnit.SECONDS );
+		service.get( 5, TimeUnit.SECONDS );
+		descriptor.get( 5, TimeUnit.SECONDS );
+
+		assertEquals( "blocker", order.get( 0 ) );
+		assertEquals( "descriptor", order.get( 1 ) );
+		assertEquals( "service", order.get( 2 ) );
+		assertEquals( "module", order.get( 3 ) );
+	}
+
+	@Test
+	public void testCancelQueued() throws Exception {
+		scheduler = new DownloadScheduler( 1, 1, Long.MAX_VALUE );
+		URI uri = URI.create( "http://a.example.com/" );
+
+		Future<String> blocker = scheduler.submit( new GatedTask( "blocker" ), uri, DownloadScheduler.Priority.MODULE );
+		Future<String> queued = scheduler.submit( new GatedTask( "queued" ), uri, DownloadScheduler.Priority.MODULE );
+
+		assertTrue( queued.cancel( true ) );
+		assertEquals( 0, scheduler.getQueuedCount() );
+
+		gate.countDown();
+		blocker.get( 5, TimeUnit.SECONDS );
+		assertFalse( order.contains( "queued" ) );
+	}
+
+	@Test
+	public void testCancelRunningHoldsSlot() throws Exception {
+		scheduler = new DownloadScheduler( 1, 1, Long.MAX_VALUE );
+		URI uri = URI.create( "http://a.example.com/" );
+
+		// A task that keeps running after it is cancelled.
+		final CountDownLatch exitGate = new CountDownLatch( 1 );
+		final CountDownLatch running = new CountDownLatch( 1 );
+		Future<String> stubborn = scheduler.submit( new Task<String>() {
+
+			@Override
+			public String execute() throws Exception {
+				running.countDown();
+				// Ignore interrupts until the gate opens.
+				while( exitGate.getCount() > 0 ) {
+					try {
+						exitGate.await();
+					} catch( InterruptedException exception ) {
+						// Intentionally ignore exception.
+					}
+				}
+				return "stubborn";
+			}
+
+		}, uri, DownloadScheduler.Priority.MODULE );
+		Future<String> queued = scheduler.submit( new GatedTask( "queued" ), uri, DownloadScheduler.Priority.MODULE );
+		assertTrue( running.await( 5, TimeUnit.SECONDS ) );
+
+		stubborn.cancel( true );
+		Thread.sleep( 100 );
+		assertEquals( 1, scheduler.getRunningCount() );
+		assertFalse( order.contains( "queued" ) );
+
+		gate.countDown();
+		exitGate.countDown();
+		assertEquals( "queued", queued.get( 5, TimeUnit.SECONDS ) );
+	}
+
+	@Test
+	public void testReserveOnStart() throws Exception {
+		scheduler = new DownloadScheduler( 4, 4, 100 );
+
+		DownloadTask task = new DownloadTask( URI.create( "http://a.example.com/module.jar" ) );
+		task.setTransport( new DownloadTransport() {
+
+			@Override
+			public DownloadResponse send( DownloadRequest request ) throws IOException {
+				try {
+					gate.await();
+				} catch( InterruptedException exception ) {
+					// Intentionally ignore exception.
+				}
+				throw new IOException( "Unavailable" );
+			}
+
+		} );
+		Future<Download> future = scheduler.submit( task, DownloadScheduler.Priority.MODULE );
+
+		// The download reserves its share of the byte limit before its length is known.
+		assertEquals( 25, scheduler.getInFlightBytes() );
+
+		gate.countDown();
+		try {
+			future.get( 5, TimeUnit.SECONDS );
+			fail( "Download should fail when the transport fails." );
+		} catch( ExecutionException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	@Test
+	public void testReserveEncodedLength() throws Exception {
+		scheduler = new DownloadScheduler( 1, 1, 1000000 );
+
+		byte[] data = new byte[100000];
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try( GZIPOutputStream output = new GZIPOutputStream( encoded ) ) {
+			output.write( data );
+		}
+
+		File target = File.createTempFile( "download", ".bin" );
+		DownloadTask task = new DownloadTask( URI.create( "http://a.example.com/module.jar" ), target );
+		task.setTransport( new DownloadTaskTest.EncodedTransport( encoded.toByteArray(), "gzip" ) );
+		final List<Long> reserved = new CopyOnWriteArrayList<Long>();
+		task.addListener( new DownloadListener() {
+
+			@Override
+			public void update( DownloadEvent event ) {
+				reserved.add( scheduler.getInFlightBytes() );
+			}
+
+		} );
+		scheduler.submit( task, DownloadScheduler.Priority.MODULE ).get( 5, TimeUnit.SECONDS );
+		target.delete();
+
+		// The decoded length is unknown so the encoded length is reserved.
+		assertEquals( encoded.size(), (long)reserved.get( reserved.size() - 1 ) );
+	}
+
+	@Test
+	public void testCompletionOrder() throws Exception {
+		scheduler = new DownloadScheduler( 2, 2, Long.MAX_VALUE );
+		URI uri = URI.create( "http://a.example.com/" );
+		BlockingQueue<Future<String>> completion = new LinkedBlockingQueue<Future<String>>();
+
+		final CountDownLatch slowGate = new CountDownLatch( 1 );
+		Future<String> slow = scheduler.submit( new Task<String>() {
+
+			@Override
+			public String execute() throws Exception {
+				slowGate.await();
+				return "slow";
+			}
+
+		}, uri, DownloadScheduler.Priority.DESCRIPTOR, completion );
+		Future<String> fast = scheduler.submit( new GatedTask( "fast" ), uri, DownloadScheduler.Priority.DESCRIPTOR, completion );
+
+		gate.countDown();
+		assertSame( fast, completion.poll( 5, TimeUnit.SECONDS ) );
+		assertNull( completion.poll( 100, TimeUnit.MILLISECONDS ) );
+
+		slowGate.countDown();
+		assertSame( slow, completion.poll( 5, TimeUnit.SECONDS ) );
+		assertEquals( "slow", slow.get() );
+	}
+
+	private class GatedTask extends Task<String> {
+
+		private String name;
+
+		public GatedTask( String name ) {
+			this.name = name;
+		}
+
+		@Override
+		public String execute() throws Exception {
+			order.add( name );
+			gate.await();
+			return name;
+		}
+
+	}
+
+}
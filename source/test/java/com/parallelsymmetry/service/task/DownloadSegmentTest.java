@@ -0,0 +1,53 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DownloadSegmentTest extends BaseTestCase {
+
+	@Test
+	public void testSplit() {
+		List<DownloadSegment> segments = DownloadSegment.split( 100, 4, 1 );
+		assertEquals( 4, segments.size() );
+		assertEquals( 0, segments.get( 0 ).getStart() );
+		assertEquals( 24, segments.get( 0 ).getEnd() );
+		assertEquals( 75, segments.get( 3 ).getStart() );
+		assertEquals( 99, segments.get( 3 ).getEnd() );
+		assertEquals( "bytes=0-24", segments.get( 0 ).getRangeHeader() );
+	}
+
+	@Test
+	public void testSplitCoversEveryByte() {
+		List<DownloadSegment> segments = DownloadSegment.split( 1001, 3, 1 );
+		long expected = 0;
+		for( DownloadSegment segment : segments ) {
+			assertEquals( expected, segment.getStart() );
+			expected = segment.getEnd() + 1;
+		}
+		assertEquals( 1001, expected );
+	}
+
+	@Test
+	public void testSplitWithMinimum() {
+		assertEquals( 2, DownloadSegment.split( 100, 8, 50 ).size() );
+		assertEquals( 1, DownloadSegment.split( 10, 8, 50 ).size() );
+		assertTrue( DownloadSegment.split( 0, 8, 50 ).isEmpty() );
+	}
+
+	@Test
+	public void testComplete() {
+		DownloadSegment segment = new DownloadSegment( 10, 19 );
+		assertEquals( 10, segment.getLength() );
+		segment.addWritten( 9 );
+		assertFalse( segment.isComplete() );
+		segment.addWritten( 1 );
+		assertTrue( segment.isComplete() );
+	}
+
+}
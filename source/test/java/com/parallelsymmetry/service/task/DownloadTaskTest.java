@@ -0,0 +1,544 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadTaskTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/download" );
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		SANDBOX.mkdirs();
+	}
+
+	@Test
+	public void testDownloadLocalFile() throws Exception {
+		File source = createFile( "source.bin", 200000 );
+		File target = new File( SANDBOX, "target.bin" );
+
+		Download download = new DownloadTask( source.toURI(), target ).execute();
+
+		assertEquals( target, download.getTarget() );
+		assertTrue( Arrays.equals( Files.readAllBytes( source.toPath() ), Files.readAllBytes( target.toPath() ) ) );
+	}
+
+	@Test
+	public void testDownloadLocalFileToStore() throws Exception {
+		File source = createFile( "source.bin", 100000 );
+		DownloadTask task = new DownloadTask( source.toURI() );
+		task.setArtifactStore( new ArtifactStore( new File( SANDBOX, "artifacts" ) ) );
+
+		Download download = task.execute();
+
+		assertEquals( DigestUtil.digest( source, DigestUtil.SHA_256 ), download.getDigest() );
+		assertTrue( Arrays.equals( Files.readAllBytes( source.toPath() ), Files.readAllBytes( download.getTarget().toPath() ) ) );
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		File source = createFile( "source.bin", 100000 );
+		DownloadMetrics metrics = new DownloadMetrics();
+		DownloadTask task = new DownloadTask( source.toURI(), new File( SANDBOX, "target.bin" ) );
+		task.setMetrics( metrics );
+		task.setCategory( "pack" );
+
+		task.execute();
+
+		assertEquals( 1, metrics.getTotal().getCount() );
+		assertEquals( 100000, metrics.getTotal().getBytes() );
+		assertEquals( 1, metrics.getCategoryStatistics().get( "pack" ).getCount() );
+		assertEquals( 1, metrics.getTotal().getResponseTimes().getCount() );
+	}
+
+	@Test
+	public void testExpectedDigest() throws Exception {
+		File source = createFile( "source.bin", 100000 );
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( source.toURI(), target );
+		task.setExpectedDigest( "sha-1", DigestUtil.digest( source, DigestUtil.SHA_1 ) );
+
+		Download download = task.execute();
+
+		assertEquals( DigestUtil.digest( source, DigestUtil.SHA_1 ), download.getDigest( DigestUtil.SHA_1 ) );
+		assertEquals( DigestUtil.digest( source, DigestUtil.SHA_256 ), download.getDigest() );
+		assertTrue( target.exists() );
+	}
+
+	@Test
+	public void testExpectedDigestMismatch() throws Exception {
+		File source = createFile( "source.bin", 100000 );
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( source.toURI(), target );
+		task.setExpectedDigest( DigestUtil.SHA_256, "0000" );
+
+		try {
+			task.execute();
+			fail( "DownloadTask should throw an exception when the digest does not match." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+		assertFalse( target.exists() );
+	}
+
+	@Test
+	public void testGzipEncoding() throws Exception {
+		File source = createFile( "source.bin", 100000 );
+		byte[] data = Files.readAllBytes( source.toPath() );
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try( GZIPOutputStream output = new GZIPOutputStream( encoded ) ) {
+			output.write( data );
+		}
+
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( URI.create( "http://localhost/source.bin" ), target );
+		task.setTransport( new EncodedTransport( encoded.toByteArray(), "gzip" ) );
+		task.setExpectedDigest( DigestUtil.SHA_256, DigestUtil.digest( source, DigestUtil.SHA_256 ) );
+		final List<DownloadEvent> events = new ArrayList<DownloadEvent>();
+		task.addListener( new DownloadListener() {
+
+			@Override
+			public void update( DownloadEvent event ) {
+				events.add( new DownloadEvent( event.getProgress(), event.getTotal(), event.getWireProgress(), event.getWireTotal() ) );
+			}
+
+		} );
+
+		Download download = task.execute();
+
+		assertEquals( "gzip", download.getEncoding() );
+		assertEquals( data.length, download.getLength() );
+		assertTrue( Arrays.equals( data, Files.readAllBytes( target.toPath() ) ) );
+
+		DownloadEvent last = events.get( events.size() - 1 );
+		assertEquals( data.length, last.getProgress() );
+		assertEquals( -1, last.getTotal() );
+		assertEquals( encoded.size(), last.getWireProgress() );
+		assertEquals( encoded.size(), last.getWireTotal() );
+	}
+
+	@Test
+	public void testOpen() throws Exception {
+		File source = createFile( "source.bin", 1000 );
+
+		byte[] data = new byte[1000];
+		try( InputStream input = new DownloadTask( source.toURI() ).open( 1000 ) ) {
+			int offset = 0;
+			int read;
+			while( ( read = input.read( data, offset, data.length - offset ) ) > 0 ) {
+				offset += read;
+			}
+			assertEquals( 1000, offset );
+			assertEquals( -1, input.read() );
+		}
+		assertTrue( Arrays.equals( Files.readAllBytes( source.toPath() ), data ) );
+	}
+
+	@Test
+	public void testOpenOverLimit() throws Exception {
+		File source = createFile( "source.bin", 1000 );
+		try {
+			new DownloadTask( source.toURI() ).open( 999 ).close();
+			fail( "DownloadTask should throw an exception when the resource is larger than the limit." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	@Test
+	public void testOpenStoredCancelled() throws Exception {
+		File source = createFile( "source.bin", 1000 );
+		DownloadTask task = new DownloadTask( source.toURI() );
+		task.setArtifactStore( new ArtifactStore( new File( SANDBOX, "artifacts" ) ) );
+		task.cancel( true );
+
+		try {
+			task.open( 1000 ).close();
+			fail( "DownloadTask should throw an exception when the stored download is cancelled." );
+		} catch( InterruptedIOException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	@Test
+	public void testOpenMetrics() throws Exception {
+		File source = createFile( "source.bin", 1000 );
+		DownloadMetrics metrics = new DownloadMetrics();
+		DownloadTask task = new DownloadTask( source.toURI() );
+		task.setMetrics( metrics );
+
+		// A stream read to the end is a success.
+		try( InputStream input = task.open( 1000 ) ) {
+			while( input.read( new byte[256] ) > -1 ) {
+				// Read all the data.
+			}
+		}
+		assertEquals( 1, metrics.getTotal().getCount() );
+		assertEquals( 0, metrics.getTotal().getFailureCount() );
+
+		// A stream over the limit is a failure.
+		try( InputStream input = task.open( 999 ) ) {
+			while( input.read( new byte[256] ) > -1 ) {
+				// Read all the data.
+			}
+			fail( "Stream should throw an exception when the resource is larger than the limit." );
+		} catch( IOException exception ) {
+			// Intentionally ignore exception.
+		}
+		assertEquals( 1, metrics.getTotal().getFailureCount() );
+
+		// A stream rejected by the caller is a failure.
+		try( InputStream input = task.open( 1000 ) ) {
+			while( input.read( new byte[256] ) > -1 ) {
+				// Read all the data.
+			}
+			task.reject();
+		}
+		assertEquals( 2, metrics.getTotal().getFailureCount() );
+	}
+
+	@Test
+	public void testOpenNotModified() throws Exception {
+		DownloadTask task = new DownloadTask( URI.create( "http://a.example.com/product.xml" ) );
+		task.setTransport( new ConditionalTransport( "\"1\"" ) );
+
+		// Without validators the resource is returned along with its validators.
+		InputStream input = task.open( 1000 );
+		assertNotNull( input );
+		input.close();
+		assertEquals( "\"1\"", task.getEtag() );
+
+		// With current validators the resource is not transferred.
+		task.setValidators( task.getEtag(), null );
+		assertNull( task.open( 1000 ) );
+
+		// With old validators the resource is returned.
+		task.setValidators( "\"0\"", null );
+		input = task.open( 1000 );
+		assertNotNull( input );
+		input.close();
+	}
+
+	@Test
+	public void testSegmentedWithoutValidator() throws Exception {
+		File source = createFile( "source.bin", 3 * 1024 * 1024 );
+		byte[] data = Files.readAllBytes( source.toPath() );
+
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( URI.create( "http://localhost/source.bin" ), target );
+		RangeTransport transport = new RangeTransport( data, null );
+		task.setTransport( transport );
+		task.setSegmentCount( 3 );
+		task.setSegmentThreshold( 1024 );
+		task.execute();
+
+		// Without a validator the resource is downloaded with a single request.
+		assertTrue( Arrays.equals( data, Files.readAllBytes( target.toPath() ) ) );
+		for( DownloadRequest request : transport.getRequests() ) {
+			assertNull( request.getHeader( "Range" ) );
+		}
+	}
+
+	@Test
+	public void testSegmented() throws Exception {
+		File source = createFile( "source.bin", 3 * 1024 * 1024 );
+		byte[] data = Files.readAllBytes( source.toPath() );
+
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( URI.create( "http://localhost/source.bin" ), target );
+		RangeTransport transport = new RangeTransport( data, "\"1\"" );
+		task.setTransport( transport );
+		task.setSegmentCount( 3 );
+		task.setSegmentThreshold( 1024 );
+		task.execute();
+
+		assertTrue( Arrays.equals( data, Files.readAllBytes( target.toPath() ) ) );
+		int ranges = 0;
+		for( DownloadRequest request : transport.getRequests() ) {
+			if( request.getHeader( "Range" ) != null ) ranges++;
+		}
+		assertEquals( 3, ranges );
+	}
+
+	@Test
+	public void testSegmentedFromMirror() throws Exception {
+		File source = createFile( "source.bin", 3 * 1024 * 1024 );
+		byte[] data = Files.readAllBytes( source.toPath() );
+
+		// The primary does not have the resource so the mirror serves it.
+		final URI primary = URI.create( "http://primary.example.com/products/" );
+		URI mirror = URI.create( "http://mirror.example.com/products/" );
+		final RangeTransport served = new RangeTransport( data, "\"mirror\"" );
+		DownloadTransport transport = new DownloadTransport() {
+
+			@Override
+			public DownloadResponse send( DownloadRequest request ) throws IOException {
+				if( !primary.getHost().equals( request.getUri().getHost() ) ) return served.send( request );
+				final URI uri = request.getUri();
+				return new DownloadResponse() {
+
+					@Override
+					public int getStatus() {
+						return 404;
+					}
+
+					@Override
+					public URI getUri() {
+						return uri;
+					}
+
+					@Override
+					public String getHeader( String name ) {
+						return null;
+					}
+
+					@Override
+					public long getContentLength() {
+						return 0;
+					}
+
+					@Override
+					public InputStream getInputStream() {
+						return new ByteArrayInputStream( new byte[0] );
+					}
+
+					@Override
+					public void close() {}
+
+				};
+			}
+
+		};
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( primary, Arrays.asList( mirror ) );
+
+		File target = new File( SANDBOX, "target.bin" );
+		DownloadTask task = new DownloadTask( primary.resolve( "source.bin" ), target );
+		task.setTransport( new MirrorTransport( transport, selector ) );
+		task.setSegmentCount( 3 );
+		task.setSegmentThreshold( 1024 );
+		task.execute();
+
+		// The segments are requested from the mirror that served the probe.
+		assertTrue( Arrays.equals( data, Files.readAllBytes( target.toPath() ) ) );
+		int ranges = 0;
+		for( DownloadRequest request : served.getRequests() ) {
+			if( request.getHeader( "Range" ) != null ) ranges++;
+		}
+		assertEquals( 3, ranges );
+	}
+
+	/**
+	 * Serves a resource that supports byte ranges, honoring If-Range only when
+	 * it matches the entity tag.
+	 */
+	static class RangeTransport implements DownloadTransport {
+
+		private byte[] data;
+
+		private String etag;
+
+		private List<DownloadRequest> requests = new CopyOnWriteArrayList<DownloadRequest>();
+
+		public RangeTransport( byte[] data, String etag ) {
+			this.data = data;
+			this.etag = etag;
+		}
+
+		public List<DownloadRequest> getRequests() {
+			return requests;
+		}
+
+		@Override
+		public DownloadResponse send( DownloadRequest request ) {
+			requests.add( request );
+
+			final boolean head = DownloadRequest.HEAD.equals( request.getMethod() );
+			String range = request.getHeader( "Range" );
+			String ifRange = request.getHeader( "If-Range" );
+			boolean partial = range != null && ( ifRange == null || ifRange.equals( etag ) );
+
+			final int start;
+			final int end;
+			if( partial ) {
+				String[] bounds = range.substring( "bytes=".length() ).split( "-" );
+				start = Integer.parseInt( bounds[0] );
+				end = bounds.length > 1 && bounds[1].length() > 0 ? Integer.parseInt( bounds[1] ) + 1 : data.length;
+			} else {
+				start = 0;
+				end = data.length;
+			}
+			final int status = partial ? 206 : 200;
+
+			final URI uri = request.getUri();
+			return new DownloadResponse() {
+
+				@Override
+				public URI getUri() {
+					return uri;
+				}
+
+				@Override
+				public int getStatus() {
+					return status;
+				}
+
+				@Override
+				public String getHeader( String name ) {
+					if( "ETag".equals( name ) ) return etag;
+					if( "Accept-Ranges".equals( name ) ) return "bytes";
+					if( "Content-Range".equals( name ) && status == 206 ) return "bytes " + start + "-" + ( end - 1 ) + "/" + data.length;
+					return null;
+				}
+
+				@Override
+				public long getContentLength() {
+					return end - start;
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream( data, start, head ? 0 : end - start );
+				}
+
+				@Override
+				public void close() {}
+
+			};
+		}
+
+	}
+
+	private static class ConditionalTransport implements DownloadTransport {
+
+		private String etag;
+
+		public ConditionalTransport( String etag ) {
+			this.etag = etag;
+		}
+
+		@Override
+		public DownloadResponse send( DownloadRequest request ) {
+			final boolean modified = !etag.equals( request.getHeader( "If-None-Match" ) );
+			final URI uri = request.getUri();
+			return new DownloadResponse() {
+
+				@Override
+				public URI getUri() {
+					return uri;
+				}
+
+				@Override
+				public int getStatus() {
+					return modified ? 200 : 304;
+				}
+
+				@Override
+				public String getHeader( String name ) {
+					return "ETag".equals( name ) ? etag : null;
+				}
+
+				@Override
+				public long getContentLength() {
+					return modified ? 4 : 0;
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream( modified ? new byte[4] : new byte[0] );
+				}
+
+				@Override
+				public void close() {}
+
+			};
+		}
+
+	}
+
+	static class EncodedTransport implements DownloadTransport {
+
+		private byte[] data;
+
+		private String encoding;
+
+		public EncodedTransport( byte[] data, String encoding ) {
+			this.data = data;
+			this.encoding = encoding;
+		}
+
+		@Override
+		public DownloadResponse send( DownloadRequest request ) {
+			assertEquals( "gzip, deflate", request.getHeader( "Accept-Encoding" ) );
+			final URI uri = request.getUri();
+			return new DownloadResponse() {
+
+				@Override
+				public URI getUri() {
+					return uri;
+				}
+
+				@Override
+				public int getStatus() {
+					return 200;
+				}
+
+				@Override
+				public String getHeader( String name ) {
+					return "Content-Encoding".equals( name ) ? encoding : null;
+				}
+
+				@Override
+				public long getContentLength() {
+					return data.length;
+				}
+
+				@Override
+				public InputStream getInputStream() {
+					return new ByteArrayInputStream( data );
+				}
+
+				@Override
+				public void close() {}
+
+			};
+		}
+
+	}
+
+	private File createFile( String name, int length ) throws IOException {
+		byte[] data = new byte[length];
+		for( int index = 0; index < length; index++ ) {
+			data[index] = (byte)( index % 251 );
+		}
+
+		File file = new File( SANDBOX, name );
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( data );
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import com.parallelsymmetry.utility.FileUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientTransportTest extends BaseTestCase {
+
+	private static final File SANDBOX = new File( "target", "sandbox/transport" );
+
+	private HttpClientTransport transport;
+
+	@BeforeEach
+	@Override
+	public void setup() throws Exception {
+		super.setup();
+		FileUtil.delete( SANDBOX );
+		SANDBOX.mkdirs();
+		transport = new HttpClientTransport( 2 );
+	}
+
+	@Test
+	public void testFileFallback() throws Exception {
+		File file = new File( SANDBOX, "resource.txt" );
+		try( FileOutputStream output = new FileOutputStream( file ) ) {
+			output.write( "resource".getBytes( "UTF-8" ) );
+		}
+
+		try( DownloadResponse response = transport.send( new DownloadRequest( file.toURI() ) ) ) {
+			assertEquals( HttpURLConnection.HTTP_OK, response.getStatus() );
+			assertEquals( 8, response.getContentLength() );
+			assertEquals( "resource", read( response.getInputStream() ) );
+		}
+	}
+
+	@Test
+	public void testFileFallbackMissing() throws Exception {
+		File file = new File( SANDBOX, "missing.txt" );
+		try {
+			transport.send( new DownloadRequest( file.toURI() ) );
+			fail( "Transport should throw an exception when the file cannot be found." );
+		} catch( FileNotFoundException exception ) {
+			// Intentionally ignore exception.
+		}
+	}
+
+	@Test
+	public void testDefaultAuthenticator() throws Exception {
+		HttpServer server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+		server.createContext( "/", new HttpHandler() {
+
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException {
+				String authorization = exchange.getRequestHeaders().getFirst( "Authorization" );
+				if( authorization == null ) {
+					exchange.getResponseHeaders().add( "WWW-Authenticate", "Basic realm=\"test\"" );
+					exchange.sendResponseHeaders( HttpURLConnection.HTTP_UNAUTHORIZED, -1 );
+				} else {
+					byte[] data = "resource".getBytes( "UTF-8" );
+					exchange.sendResponseHeaders( HttpURLConnection.HTTP_OK, data.length );
+					exchange.getResponseBody().write( data );
+				}
+				exchange.close();
+			}
+
+		} );
+		server.start();
+
+		// The default authenticator is set after the transport is created.
+		Authenticator.setDefault( new Authenticator() {
+
+			@Override
+			protected PasswordAuthentication getPasswordAuthentication() {
+				return new PasswordAuthentication( "user", "password".toCharArray() );
+			}
+
+		} );
+		try {
+			URI uri = URI.create( "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/resource.txt" );
+			try( DownloadResponse response = transport.send( new DownloadRequest( uri ) ) ) {
+				assertEquals( HttpURLConnection.HTTP_OK, response.getStatus() );
+				assertEquals( "resource", read( response.getInputStream() ) );
+			}
+		} finally {
+			Authenticator.setDefault( null );
+			server.stop( 0 );
+		}
+	}
+
+	@Test
+	public void testHostConnectionLimit() {
+		assertEquals( 2, transport.getHostConnectionLimit() );
+		assertEquals( 1, new HttpClientTransport( 0 ).getHostConnectionLimit() );
+	}
+
+	private String read( InputStream input ) throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int read;
+		while( ( read = input.read( buffer ) ) > -1 ) {
+			output.write( buffer, 0, read );
+		}
+		return new String( output.toByteArray(), "UTF-8" );
+	}
+
+}
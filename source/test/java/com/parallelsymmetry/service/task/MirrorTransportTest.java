@@ -0,0 +1,195 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MirrorTransportTest extends BaseTestCase {
+
+	private static final URI PRIMARY = URI.create( "http://primary.example.com/products/" );
+
+	private static final URI MIRROR = URI.create( "http://mirror.example.com/products/" );
+
+	@Test
+	public void testGetCandidates() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+
+		URI uri = PRIMARY.resolve( "service/pack.jar" );
+		List<URI> candidates = selector.getCandidates( uri );
+		assertEquals( Arrays.asList( uri, MIRROR.resolve( "service/pack.jar" ) ), candidates );
+
+		// The faster mirror is ranked first.
+		selector.record( uri, 800 );
+		selector.record( MIRROR, 50 );
+		assertEquals( MIRROR.resolve( "service/pack.jar" ), selector.getCandidates( uri ).get( 0 ) );
+
+		// URIs outside the group have no mirrors.
+		URI other = URI.create( "http://other.example.com/pack.jar" );
+		assertEquals( Arrays.asList( other ), selector.getCandidates( other ) );
+	}
+
+	@Test
+	public void testHedgeDelay() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		assertEquals( MirrorSelector.DEFAULT_HEDGE_DELAY, selector.getHedgeDelay( PRIMARY ) );
+
+		for( int index = 1; index <= 10; index++ ) {
+			selector.record( PRIMARY, index * 100 );
+		}
+		assertEquals( 900, selector.getHedgeDelay( PRIMARY ) );
+	}
+
+	@Test
+	public void testHedgedRequest() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+		for( int index = 0; index < 10; index++ ) {
+			selector.record( PRIMARY, 10 );
+		}
+
+		FakeTransport fake = new FakeTransport();
+		fake.delays.put( "primary.example.com", 5000L );
+		MirrorTransport transport = new MirrorTransport( fake, selector );
+
+		long start = System.currentTimeMillis();
+		DownloadResponse response = transport.send( new DownloadRequest( PRIMARY.resolve( "pack.jar" ) ) );
+		assertEquals( 200, response.getStatus() );
+		assertEquals( "mirror.example.com", response.getHeader( "Host" ) );
+		assertTrue( System.currentTimeMillis() - start < 5000 );
+
+		// The slow primary is now ranked behind the mirror.
+		assertTrue( selector.getLatency( PRIMARY ) > selector.getLatency( MIRROR ) );
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+
+		FakeTransport fake = new FakeTransport();
+		fake.statuses.put( "primary.example.com", 503 );
+		MirrorTransport transport = new MirrorTransport( fake, selector );
+
+		DownloadResponse response = transport.send( new DownloadRequest( PRIMARY.resolve( "pack.jar" ) ) );
+		assertEquals( 200, response.getStatus() );
+		assertEquals( "mirror.example.com", response.getHeader( "Host" ) );
+	}
+
+	@Test
+	public void testFailoverOnClientError() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+
+		FakeTransport fake = new FakeTransport();
+		fake.statuses.put( "primary.example.com", 404 );
+		MirrorTransport transport = new MirrorTransport( fake, selector );
+
+		DownloadResponse response = transport.send( new DownloadRequest( PRIMARY.resolve( "pack.jar" ) ) );
+		assertEquals( 200, response.getStatus() );
+		assertEquals( MIRROR.resolve( "pack.jar" ), response.getUri() );
+	}
+
+	@Test
+	public void testAllMirrorsFail() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+
+		FakeTransport fake = new FakeTransport();
+		fake.statuses.put( "primary.example.com", 404 );
+		fake.statuses.put( "mirror.example.com", 404 );
+		MirrorTransport transport = new MirrorTransport( fake, selector );
+
+		// The caller sees the status of the last mirror.
+		assertEquals( 404, transport.send( new DownloadRequest( PRIMARY.resolve( "pack.jar" ) ) ).getStatus() );
+	}
+
+	@Test
+	public void testRangeRequestNotMirrored() throws Exception {
+		MirrorSelector selector = new MirrorSelector();
+		selector.addMirrors( PRIMARY, Arrays.asList( MIRROR ) );
+
+		FakeTransport fake = new FakeTransport();
+		fake.statuses.put( "primary.example.com", 503 );
+		MirrorTransport transport = new MirrorTransport( fake, selector );
+
+		DownloadRequest request = new DownloadRequest( PRIMARY.resolve( "pack.jar" ) );
+		request.setHeader( "Range", "bytes=100-" );
+		assertEquals( 503, transport.send( request ).getStatus() );
+	}
+
+	private static final class FakeTransport implements DownloadTransport {
+
+		private Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+
+		private Map<String, Integer> statuses = new ConcurrentHashMap<String, Integer>();
+
+		@Override
+		public DownloadResponse send( DownloadRequest request ) throws IOException {
+			String host = request.getUri().getHost();
+			Long delay = delays.get( host );
+			if( delay != null ) {
+				try {
+					Thread.sleep( delay );
+				} catch( InterruptedException exception ) {
+					throw new IOException( exception );
+				}
+			}
+			Integer status = statuses.get( host );
+			return new FakeResponse( request.getUri(), status == null ? 200 : status );
+		}
+
+	}
+
+	private static final class FakeResponse implements DownloadResponse {
+
+		private URI uri;
+
+		private int status;
+
+		public FakeResponse( URI uri, int status ) {
+			this.uri = uri;
+			this.status = status;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public URI getUri() {
+			return uri;
+		}
+
+		@Override
+		public String getHeader( String name ) {
+			return "Host".equals( name ) ? uri.getHost() : null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return 0;
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream( new byte[0] );
+		}
+
+		@Override
+		public void close() {}
+
+	}
+
+}
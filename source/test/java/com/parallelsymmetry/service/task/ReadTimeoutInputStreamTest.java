@@ -0,0 +1,62 @@
+package com.parallelsymmetry.service.task;
+
+import com.parallelsymmetry.service.BaseTestCase;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadTimeoutInputStreamTest extends BaseTestCase {
+
+	@Test
+	public void testRead() throws Exception {
+		try( InputStream input = new ReadTimeoutInputStream( new ByteArrayInputStream( new byte[]{ 1, 2, 3 } ), 100 ) ) {
+			assertEquals( 1, input.read() );
+			assertEquals( 2, input.read( new byte[4] ) );
+			assertEquals( -1, input.read() );
+		}
+	}
+
+	@Test
+	public void testReadTimeout() throws Exception {
+		InputStream input = new ReadTimeoutInputStream( new BlockingInputStream(), 100 );
+		long start = System.currentTimeMillis();
+		try {
+			input.read();
+			fail( "Read should time out when no data arrives." );
+		} catch( SocketTimeoutException exception ) {
+			// Intentionally ignore exception.
+		}
+		assertTrue( System.currentTimeMillis() - start >= 100 );
+	}
+
+	/**
+	 * Blocks every read until the stream is closed.
+	 */
+	private static class BlockingInputStream extends InputStream {
+
+		private CountDownLatch closed = new CountDownLatch( 1 );
+
+		@Override
+		public int read() throws IOException {
+			try {
+				closed.await();
+			} catch( InterruptedException exception ) {
+				// Intentionally ignore exception.
+			}
+			throw new IOException( "Stream closed" );
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+
+	}
+
+}